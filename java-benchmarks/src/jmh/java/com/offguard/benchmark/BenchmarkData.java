@@ -0,0 +1,75 @@
+package com.offguard.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import com.offguard.CorpusGenerator;
+
+/**
+ * Deterministic mappings and stack traces for the benchmarks.
+ *
+ * The end-to-end benchmarks use realistic data from the CorpusGenerator.
+ * The micro-benchmarks use a simpler mapping, in which every class gets an
+ * unambiguous method "a" with a line range of its own, and a pair of
+ * overloads that share the obfuscated name "b", so frames that refer to
+ * "b" without a line number are ambiguous.
+ */
+final class BenchmarkData {
+    static final int METHODS_PER_CLASS = 8;
+
+    private BenchmarkData() {}
+
+    /** Returns the obfuscated name of the class with the given index. */
+    static String obfuscatedClassName(int index) {
+        return "a." + Integer.toString(index, 36);
+    }
+
+    /** Writes a mapping with the given number of classes to a temporary file. */
+    static File writeMapping(int classCount) throws IOException {
+        File file = File.createTempFile("benchmark-mapping", ".txt");
+        file.deleteOnExit();
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            for (int classIndex = 0; classIndex < classCount; classIndex++) {
+                String className = "com.example.p" + (classIndex % 100) + ".Class" + classIndex;
+                writer.println(className + " -> " + obfuscatedClassName(classIndex) + ":");
+                writer.println("    java.lang.String name -> a");
+                writer.println("    1:20:void run():10:29 -> a");
+                writer.println("    21:30:void handle(int):40:49 -> b");
+                writer.println("    31:40:void handle(java.lang.String):60:69 -> b");
+                for (int methodIndex = 3; methodIndex < METHODS_PER_CLASS; methodIndex++) {
+                    int first = methodIndex * 10 + 11;
+                    writer.println("    " + first + ":" + (first + 9) + ":int method" + methodIndex +
+                                   "(int,long):" + (first + 100) + ":" + (first + 109) + " -> " +
+                                   (char)('a' + methodIndex));
+                }
+            }
+        }
+
+        return file;
+    }
+
+    /** Writes the mapping of the given generator to a temporary file. */
+    static File writeMapping(CorpusGenerator generator) throws IOException {
+        File file = File.createTempFile("benchmark-mapping", ".txt");
+        file.deleteOnExit();
+
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            generator.writeMapping(writer);
+        }
+
+        return file;
+    }
+
+    /** Returns the stack trace of the given generator. */
+    static String trace(CorpusGenerator generator) throws IOException {
+        StringWriter writer = new StringWriter();
+        generator.writeTrace(writer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,95 @@
+package com.offguard.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import proguard.retrace.FrameInfo;
+import proguard.retrace.FramePattern;
+import proguard.retrace.ReTrace;
+
+/**
+ * Measures FramePattern.parse and format for each kind of line. Each
+ * invocation uses the next one of a set of distinct lines, so the pattern
+ * can't reuse the match of the previous invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FramePatternBenchmark {
+
+    private static final int LINE_COUNT = 1024;
+
+    @Param({"at", "atUnknownSource", "exception", "castException", "nullMethod", "returnValueNull", "noise"})
+    public String lineType;
+
+    @Param({"false", "true"})
+    public boolean verbose;
+
+    private FramePattern pattern;
+    private String[] lines;
+    private FrameInfo[] frames;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        pattern = new FramePattern(ReTrace.REGULAR_EXPRESSION, verbose);
+        lines = new String[LINE_COUNT];
+        frames = new FrameInfo[LINE_COUNT];
+
+        for (int i = 0; i < LINE_COUNT; i++) {
+            lines[i] = line(lineType, i);
+            frames[i] = pattern.parse(lines[i]);
+        }
+    }
+
+    @Benchmark
+    public FrameInfo parse() {
+        return pattern.parse(lines[next()]);
+    }
+
+    @Benchmark
+    public String format() {
+        int i = next();
+        FrameInfo frame = frames[i];
+        return frame == null ? null : pattern.format(lines[i], frame);
+    }
+
+    private int next() {
+        int i = index;
+        index = (i + 1) & (LINE_COUNT - 1);
+        return i;
+    }
+
+    /** Returns the line of the given type with the given number. */
+    private static String line(String lineType, int i) {
+        String className = BenchmarkData.obfuscatedClassName(i);
+        switch (lineType) {
+            case "at":
+                return "\tat " + className + ".a(SourceFile:" + (i % 50) + ")";
+            case "atUnknownSource":
+                return "\tat " + className + ".b(Unknown Source)";
+            case "exception":
+                return "Caused by: " + className + ": something went wrong " + i;
+            case "castException":
+                return "java.lang.ClassCastException: " + className + " cannot be cast to com.example.Foo";
+            case "nullMethod":
+                return "java.lang.NullPointerException: Attempt to invoke virtual method 'void " +
+                       className + ".a(int)' on a null object reference";
+            case "returnValueNull":
+                return "java.lang.NullPointerException: Cannot invoke \"" + className +
+                       ".a(int)\" because the return value of \"" + className + ".b()\" is null";
+            case "noise":
+                return "2024-01-01 12:00:00.000 INFO  request " + i + " completed in " + (i % 100) + " ms";
+            default:
+                throw new IllegalArgumentException(lineType);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.offguard.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import proguard.obfuscate.MappingReader;
+import proguard.retrace.AbstractFrameRemapper;
+import proguard.retrace.FrameInfo;
+import proguard.retrace.FrameRemapper;
+
+/**
+ * Measures FrameRemapper.transform for unambiguous frames, which match a
+ * single method by their line numbers, and for ambiguous frames, which
+ * match overloads without line numbers. It covers both the mutable and the
+ * frozen remapper.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FrameRemapperBenchmark {
+
+    private static final int FRAME_COUNT = 1024;
+
+    @Param({"10000"})
+    public int classCount;
+
+    @Param({"mutable", "frozen"})
+    public String remapper;
+
+    private AbstractFrameRemapper mapper;
+    private FrameInfo[] unambiguousFrames;
+    private FrameInfo[] ambiguousFrames;
+
+    @Setup
+    public void setUp() throws IOException {
+        File mappingFile = BenchmarkData.writeMapping(classCount);
+
+        FrameRemapper frameRemapper = new FrameRemapper();
+        new MappingReader(mappingFile).pump(frameRemapper);
+        mapper = remapper.equals("frozen") ? frameRemapper.freeze() : frameRemapper;
+
+        unambiguousFrames = new FrameInfo[FRAME_COUNT];
+        ambiguousFrames = new FrameInfo[FRAME_COUNT];
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            String className = BenchmarkData.obfuscatedClassName(i * 7 % classCount);
+            unambiguousFrames[i] = new FrameInfo(className, "SourceFile", 1 + i % 20, null, null, "a", null);
+            ambiguousFrames[i] = new FrameInfo(className, "Unknown Source", 0, null, null, "b", null);
+        }
+    }
+
+    /** Cycles through the frames, so each thread sees different ones. */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+
+        int next() {
+            int i = index;
+            index = (i + 1) & (FRAME_COUNT - 1);
+            return i;
+        }
+    }
+
+    @Benchmark
+    public List<FrameInfo> transformUnambiguous(Cursor cursor) {
+        return mapper.transform(unambiguousFrames[cursor.next()]);
+    }
+
+    @Benchmark
+    public List<FrameInfo> transformAmbiguous(Cursor cursor) {
+        return mapper.transform(ambiguousFrames[cursor.next()]);
+    }
+}
@@ -0,0 +1,198 @@
+package com.offguard.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.offguard.CorpusGenerator;
+
+import proguard.obfuscate.MappedMappingReader;
+import proguard.obfuscate.MappingProcessor;
+import proguard.obfuscate.MappingReader;
+import proguard.obfuscate.MappingSliceProcessor;
+import proguard.obfuscate.ParallelMappingReader;
+import proguard.retrace.FrameRemapper;
+import proguard.retrace.LazyFrameRemapper;
+
+/**
+ * Measures how fast MappingReader and MappedMappingReader parse mapping
+ * files, into strings or into slices, how much faster
+ * ParallelMappingReader parses them on all cores, and how much faster
+ * LazyFrameRemapper starts by only reading the class mappings. The "bytes"
+ * counter reports the throughput in bytes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MappingReaderBenchmark {
+
+    @Param({"1000", "20000"})
+    public int classCount;
+
+    private File mappingFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        mappingFile = BenchmarkData.writeMapping(new CorpusGenerator().classCount(classCount).seed(42L));
+    }
+
+    /** Counts the parsed bytes per second. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    /** Only parses the mapping file. */
+    @Benchmark
+    public void pump(Counters counters, Blackhole blackhole) throws IOException {
+        new MappingReader(mappingFile).pump(new ConsumingProcessor(blackhole));
+        counters.bytes += mappingFile.length();
+    }
+
+    /** Only parses the memory-mapped mapping file. */
+    @Benchmark
+    public void pumpMapped(Counters counters, Blackhole blackhole) throws IOException {
+        new MappedMappingReader(mappingFile).pump(new ConsumingProcessor(blackhole));
+        counters.bytes += mappingFile.length();
+    }
+
+    /** Only parses the memory-mapped mapping file into slices, without strings. */
+    @Benchmark
+    public void pumpMappedSlices(Counters counters, Blackhole blackhole) throws IOException {
+        new MappedMappingReader(mappingFile).pump(new ConsumingSliceProcessor(blackhole));
+        counters.bytes += mappingFile.length();
+    }
+
+    /** Only parses the mapping file, in chunks on the common pool. */
+    @Benchmark
+    public void pumpParallel(Counters counters, Blackhole blackhole) throws IOException {
+        new ParallelMappingReader(mappingFile, ForkJoinPool.commonPool()).pump(new ConsumingProcessor(blackhole));
+        counters.bytes += mappingFile.length();
+    }
+
+    /** Parses the mapping file into a remapper. */
+    @Benchmark
+    public FrameRemapper pumpIntoFrameRemapper(Counters counters) throws IOException {
+        FrameRemapper mapper = new FrameRemapper();
+        new MappingReader(mappingFile).pump(mapper);
+        counters.bytes += mappingFile.length();
+        return mapper;
+    }
+
+    /** Parses the memory-mapped mapping file into a remapper. */
+    @Benchmark
+    public FrameRemapper pumpMappedIntoFrameRemapper(Counters counters) throws IOException {
+        FrameRemapper mapper = new FrameRemapper();
+        new MappedMappingReader(mappingFile).pump(mapper);
+        counters.bytes += mappingFile.length();
+        return mapper;
+    }
+
+    /** Parses the mapping file in chunks on the common pool into a remapper. */
+    @Benchmark
+    public FrameRemapper pumpParallelIntoFrameRemapper(Counters counters) throws IOException {
+        FrameRemapper mapper = new FrameRemapper();
+        new ParallelMappingReader(mappingFile, ForkJoinPool.commonPool()).pump(mapper);
+        counters.bytes += mappingFile.length();
+        return mapper;
+    }
+
+    /** Only reads the class mappings, like a lazy remapper before its first frame. */
+    @Benchmark
+    public LazyFrameRemapper loadLazyFrameRemapper(Counters counters) throws IOException {
+        LazyFrameRemapper mapper = new LazyFrameRemapper(mappingFile);
+        counters.bytes += mappingFile.length();
+        return mapper;
+    }
+
+    /** Passes all parsed entries to a blackhole. */
+    private static final class ConsumingProcessor implements MappingProcessor {
+        private final Blackhole blackhole;
+
+        ConsumingProcessor(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public boolean processClassMapping(String className, String newClassName) {
+            blackhole.consume(className);
+            blackhole.consume(newClassName);
+            return true;
+        }
+
+        @Override
+        public void processFieldMapping(String className, String fieldType, String fieldName,
+                                        String newClassName, String newFieldName) {
+            blackhole.consume(fieldName);
+            blackhole.consume(newFieldName);
+        }
+
+        @Override
+        public void processMethodMapping(String className, int firstLineNumber, int lastLineNumber,
+                                         String methodReturnType, String methodName, String methodArguments,
+                                         String newClassName, int newFirstLineNumber, int newLastLineNumber,
+                                         String newMethodName) {
+            blackhole.consume(methodName);
+            blackhole.consume(methodArguments);
+            blackhole.consume(newMethodName);
+        }
+    }
+
+    /** Passes the ranges and line numbers of all parsed entries to a blackhole. */
+    private static final class ConsumingSliceProcessor implements MappingSliceProcessor {
+        private final Blackhole blackhole;
+
+        ConsumingSliceProcessor(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public boolean processClassMapping(CharSequence line, int classNameStart, int classNameEnd,
+                                           int newClassNameStart, int newClassNameEnd) {
+            blackhole.consume(classNameEnd - classNameStart);
+            blackhole.consume(newClassNameEnd - newClassNameStart);
+            return true;
+        }
+
+        @Override
+        public void processFieldMapping(CharSequence line, int classNameStart, int classNameEnd,
+                                        int fieldTypeStart, int fieldTypeEnd, int fieldNameStart, int fieldNameEnd,
+                                        int newFieldNameStart, int newFieldNameEnd) {
+            blackhole.consume(fieldNameEnd - fieldNameStart);
+            blackhole.consume(newFieldNameEnd - newFieldNameStart);
+        }
+
+        @Override
+        public void processMethodMapping(CharSequence line, int classNameStart, int classNameEnd,
+                                         int firstLineNumber, int lastLineNumber,
+                                         int methodReturnTypeStart, int methodReturnTypeEnd,
+                                         int methodNameStart, int methodNameEnd,
+                                         int methodArgumentsStart, int methodArgumentsEnd,
+                                         int newFirstLineNumber, int newLastLineNumber,
+                                         int newMethodNameStart, int newMethodNameEnd) {
+            blackhole.consume(firstLineNumber);
+            blackhole.consume(methodNameEnd - methodNameStart);
+            blackhole.consume(methodArgumentsEnd - methodArgumentsStart);
+            blackhole.consume(newMethodNameEnd - newMethodNameStart);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.offguard.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.offguard.CorpusGenerator;
+
+import proguard.retrace.ReTrace;
+import proguard.retrace.ReTraceSession;
+
+/**
+ * Measures end-to-end retracing. The "lines" counter reports the retraced
+ * lines per second. The session benchmark reuses a session, as a service
+ * would; the cold benchmark also reads the mapping file every time, as the
+ * command line does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReTraceBenchmark {
+
+    @Param({"10000"})
+    public int classCount;
+
+    @Param({"10000"})
+    public int lineCount;
+
+    @Param({"0.8"})
+    public double frameRatio;
+
+    private File mappingFile;
+    private String trace;
+    private ReTraceSession session;
+
+    @Setup
+    public void setUp() throws IOException {
+        CorpusGenerator generator = new CorpusGenerator()
+            .classCount(classCount)
+            .lineCount(lineCount)
+            .frameRatio(frameRatio)
+            .seed(42L);
+
+        mappingFile = BenchmarkData.writeMapping(generator);
+        trace = BenchmarkData.trace(generator);
+
+        session = new ReTrace(mappingFile).createSession();
+    }
+
+    /** Counts the retraced lines per second. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long lines;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            lines = 0;
+        }
+    }
+
+    @Benchmark
+    public void retraceSession(Counters counters) throws IOException {
+        session.retrace(new LineNumberReader(new StringReader(trace)), new PrintWriter(Writer.nullWriter()));
+        counters.lines += lineCount;
+    }
+
+    @Benchmark
+    public void retraceCold(Counters counters) throws IOException {
+        new ReTrace(mappingFile).retrace(new LineNumberReader(new StringReader(trace)),
+                                         new PrintWriter(Writer.nullWriter()));
+        counters.lines += lineCount;
+    }
+}
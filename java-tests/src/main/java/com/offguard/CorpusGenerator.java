@@ -0,0 +1,337 @@
+package com.offguard;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates large, realistic mapping files and matching obfuscated stack
+ * traces for benchmarks and stress tests.
+ *
+ * The mappings contain overloaded methods, methods that share short
+ * obfuscated names, and R8-style inline chains, possibly of methods from
+ * other classes. The stack traces refer to the classes and line ranges of
+ * the mapping, mixed with log noise.
+ *
+ * The output only depends on the settings and the seed. Each class is
+ * generated from its own random sequence, so the mapping and the stack
+ * traces can be written independently, without keeping the mapping in
+ * memory.
+ */
+public final class CorpusGenerator {
+
+    private static final String USAGE =
+        "Usage: CorpusGenerator [--classes <n>] [--methods <n>] [--overloads <n>] [--names <n>] " +
+        "[--fields <n>] [--inline-ratio <r>] [--inline-depth <n>] [--lines <n>] [--frame-ratio <r>] " +
+        "[--seed <n>] <mapping_file> [<stacktrace_file>]";
+
+    private static final String[] TYPES = {
+        "void", "int", "long", "boolean", "java.lang.String", "java.util.List", "com.example.Model"
+    };
+
+    private static final String[] EXCEPTIONS = {
+        "java.lang.IllegalStateException", "java.lang.NullPointerException", "java.io.IOException"
+    };
+
+    private int classCount = 1000;
+    private int methodsPerClass = 10;
+    private int overloadsPerMethod = 2;
+    private int namesPerClass = 4;
+    private int fieldsPerClass = 3;
+    private double inlineRatio = 0.2;
+    private int inlineDepth = 3;
+    private int lineCount = 10000;
+    private double frameRatio = 0.8;
+    private long seed = 0L;
+
+    /** Sets the number of classes in the mapping. */
+    public CorpusGenerator classCount(int classCount) {
+        this.classCount = classCount;
+        return this;
+    }
+
+    /** Sets the number of methods per class. */
+    public CorpusGenerator methodsPerClass(int methodsPerClass) {
+        this.methodsPerClass = methodsPerClass;
+        return this;
+    }
+
+    /** Sets the number of overloads that share each original method name. */
+    public CorpusGenerator overloadsPerMethod(int overloadsPerMethod) {
+        this.overloadsPerMethod = overloadsPerMethod;
+        return this;
+    }
+
+    /**
+     * Sets the number of distinct obfuscated method names per class. The
+     * fewer names, the more methods share them, and the more ambiguous the
+     * frames without line numbers.
+     */
+    public CorpusGenerator namesPerClass(int namesPerClass) {
+        this.namesPerClass = namesPerClass;
+        return this;
+    }
+
+    /** Sets the number of fields per class. */
+    public CorpusGenerator fieldsPerClass(int fieldsPerClass) {
+        this.fieldsPerClass = fieldsPerClass;
+        return this;
+    }
+
+    /** Sets the fraction of methods that contain inlined code. */
+    public CorpusGenerator inlineRatio(double inlineRatio) {
+        this.inlineRatio = inlineRatio;
+        return this;
+    }
+
+    /** Sets the maximum number of methods in an inline chain. */
+    public CorpusGenerator inlineDepth(int inlineDepth) {
+        this.inlineDepth = inlineDepth;
+        return this;
+    }
+
+    /** Sets the number of lines in the stack trace. */
+    public CorpusGenerator lineCount(int lineCount) {
+        this.lineCount = lineCount;
+        return this;
+    }
+
+    /** Sets the fraction of stack trace lines that are frames, rather than noise. */
+    public CorpusGenerator frameRatio(double frameRatio) {
+        this.frameRatio = frameRatio;
+        return this;
+    }
+
+    /** Sets the seed from which everything is generated. */
+    public CorpusGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /** Writes the mapping. */
+    public void writeMapping(Writer writer) throws IOException {
+        for (int classIndex = 0; classIndex < classCount; classIndex++) {
+            ClassModel model = classModel(classIndex);
+            writer.write(model.originalName);
+            writer.write(" -> ");
+            writer.write(model.obfuscatedName);
+            writer.write(":\n");
+            for (String memberLine : model.memberLines) {
+                writer.write(memberLine);
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Writes a stack trace of exception headers, frames, and "Caused by"
+     * lines, interspersed with noise lines.
+     */
+    public void writeTrace(Writer writer) throws IOException {
+        Random random = new Random(seed ^ 0x5DEECE66DL);
+
+        int framesInBlock = 0;
+        for (int lineIndex = 0; lineIndex < lineCount; lineIndex++) {
+            if (random.nextDouble() >= frameRatio) {
+                writer.write(noiseLine(random));
+            } else if (framesInBlock == 0) {
+                writer.write(EXCEPTIONS[random.nextInt(EXCEPTIONS.length)]);
+                writer.write(": request failed");
+                framesInBlock = 5 + random.nextInt(30);
+            } else if (--framesInBlock > 0 && random.nextInt(15) == 0) {
+                writer.write("Caused by: ");
+                writer.write(classModel(random.nextInt(classCount)).obfuscatedName);
+                writer.write(": nested failure");
+            } else {
+                writer.write(frameLine(random));
+            }
+            writer.write('\n');
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        CorpusGenerator generator = new CorpusGenerator();
+
+        int index = 0;
+        try {
+            while (index < args.length && args[index].startsWith("--")) {
+                String option = args[index++];
+                String value = args[index++];
+                switch (option) {
+                    case "--classes": generator.classCount(Integer.parseInt(value)); break;
+                    case "--methods": generator.methodsPerClass(Integer.parseInt(value)); break;
+                    case "--overloads": generator.overloadsPerMethod(Integer.parseInt(value)); break;
+                    case "--names": generator.namesPerClass(Integer.parseInt(value)); break;
+                    case "--fields": generator.fieldsPerClass(Integer.parseInt(value)); break;
+                    case "--inline-ratio": generator.inlineRatio(Double.parseDouble(value)); break;
+                    case "--inline-depth": generator.inlineDepth(Integer.parseInt(value)); break;
+                    case "--lines": generator.lineCount(Integer.parseInt(value)); break;
+                    case "--frame-ratio": generator.frameRatio(Double.parseDouble(value)); break;
+                    case "--seed": generator.seed(Long.parseLong(value)); break;
+                    default: throw new IllegalArgumentException("Unknown option " + option);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        if (index >= args.length) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        try (Writer writer = newWriter(Path.of(args[index++]))) {
+            generator.writeMapping(writer);
+        }
+
+        if (index < args.length) {
+            try (Writer writer = newWriter(Path.of(args[index]))) {
+                generator.writeTrace(writer);
+            }
+        }
+    }
+
+    private static Writer newWriter(Path path) throws IOException {
+        return new BufferedWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /** Returns a frame line that refers to a random method of a random class. */
+    private String frameLine(Random random) {
+        ClassModel model = classModel(random.nextInt(classCount));
+        if (model.rangeNames.isEmpty()) {
+            return "\tat " + model.obfuscatedName + ".a(Unknown Source)";
+        }
+
+        int range = random.nextInt(model.rangeNames.size());
+        String methodName = model.rangeNames.get(range);
+
+        // Mostly line numbers inside the range, sometimes none at all.
+        int choice = random.nextInt(10);
+        if (choice == 0) {
+            return "\tat " + model.obfuscatedName + "." + methodName + "(Unknown Source)";
+        }
+
+        int first = model.rangeFirsts.get(range);
+        int last = model.rangeLasts.get(range);
+        int line = choice == 1 ? last + 1 + random.nextInt(1000) : first + random.nextInt(last - first + 1);
+
+        return "\tat " + model.obfuscatedName + "." + methodName + "(SourceFile:" + line + ")";
+    }
+
+    private static String noiseLine(Random random) {
+        return String.format("2024-01-%02d %02d:%02d:%02d.%03d INFO  [worker-%d] handled request %d in %d ms",
+                             1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60),
+                             random.nextInt(1000), random.nextInt(16), random.nextInt(1_000_000),
+                             random.nextInt(500));
+    }
+
+    /** Generates the class with the given index from its own random sequence. */
+    private ClassModel classModel(int classIndex) {
+        Random random = new Random(seed * 0x9E3779B97F4A7C15L + classIndex);
+        ClassModel model = new ClassModel();
+
+        int packageCount = Math.max(1, classCount / 50);
+        model.originalName = "com.example.p" + (classIndex % packageCount) + ".Class" + classIndex +
+                             (random.nextInt(10) == 0 ? "$Inner" : "");
+        model.obfuscatedName = "a." + shortName(classIndex);
+
+        for (int fieldIndex = 0; fieldIndex < fieldsPerClass; fieldIndex++) {
+            model.memberLines.add("    " + TYPES[1 + random.nextInt(TYPES.length - 1)] + " field" + fieldIndex +
+                                  " -> " + shortName(fieldIndex));
+        }
+
+        int names = Math.max(1, namesPerClass);
+        int overloads = Math.max(1, overloadsPerMethod);
+        int obfuscatedLine = 1;
+        for (int methodIndex = 0; methodIndex < methodsPerClass; methodIndex++) {
+            String returnType = TYPES[random.nextInt(TYPES.length)];
+            String methodName = "method" + (methodIndex / overloads);
+            String arguments = arguments(methodIndex % overloads);
+            String signature = returnType + " " + methodName + "(" + arguments + ")";
+            String obfuscatedName = shortName(methodIndex % names);
+
+            // The method body itself.
+            int length = 1 + random.nextInt(20);
+            int originalFirst = 10 + methodIndex * 50 + random.nextInt(20);
+            addMethodRange(model, obfuscatedLine, obfuscatedLine + length - 1,
+                           signature + ":" + originalFirst + ":" + (originalFirst + length - 1),
+                           obfuscatedName);
+            obfuscatedLine += length;
+
+            // Any inline chain, innermost method first.
+            if (random.nextDouble() < inlineRatio) {
+                int depth = 2 + random.nextInt(Math.max(1, inlineDepth - 1));
+                int inlineLength = 1 + random.nextInt(5);
+                int first = obfuscatedLine;
+                int last = obfuscatedLine + inlineLength - 1;
+
+                for (int level = 0; level < depth - 1; level++) {
+                    int inlineeFirst = 1000 + random.nextInt(1000);
+                    String inlinee = random.nextBoolean() ?
+                        "com.example.util.Helper" + random.nextInt(100) + ".inlined" + level :
+                        "inlined" + level;
+                    String range = level == 0 ?
+                        inlineeFirst + ":" + (inlineeFirst + inlineLength - 1) :
+                        String.valueOf(inlineeFirst);
+                    model.memberLines.add("    " + first + ":" + last + ":void " + inlinee + "(int):" + range +
+                                          " -> " + obfuscatedName);
+                }
+
+                // The outermost method, at a single original line.
+                addMethodRange(model, first, last,
+                               signature + ":" + (originalFirst + random.nextInt(length)),
+                               obfuscatedName);
+                obfuscatedLine += inlineLength;
+            }
+        }
+
+        return model;
+    }
+
+    private static void addMethodRange(ClassModel model, int first, int last, String original, String obfuscatedName) {
+        model.memberLines.add("    " + first + ":" + last + ":" + original + " -> " + obfuscatedName);
+        model.rangeNames.add(obfuscatedName);
+        model.rangeFirsts.add(first);
+        model.rangeLasts.add(last);
+    }
+
+    private static String arguments(int overload) {
+        StringBuilder arguments = new StringBuilder();
+        for (int index = 0; index < overload; index++) {
+            if (index > 0) {
+                arguments.append(',');
+            }
+            arguments.append(TYPES[1 + (index + overload) % (TYPES.length - 1)]);
+        }
+        return arguments.toString();
+    }
+
+    /** Returns an R8-style short name: a, b, ..., z, aa, ab, ... */
+    static String shortName(int index) {
+        StringBuilder name = new StringBuilder();
+        do {
+            name.insert(0, (char)('a' + index % 26));
+            index = index / 26 - 1;
+        } while (index >= 0);
+        return name.toString();
+    }
+
+    /** The generated mapping of a single class. */
+    private static final class ClassModel {
+        String originalName;
+        String obfuscatedName;
+        final List<String> memberLines = new ArrayList<>();
+
+        // The obfuscated line ranges that frames can refer to.
+        final List<String> rangeNames = new ArrayList<>();
+        final List<Integer> rangeFirsts = new ArrayList<>();
+        final List<Integer> rangeLasts = new ArrayList<>();
+    }
+}
@@ -1,6 +1,8 @@
 package com.offguard;
 
+import proguard.obfuscate.MappingReader;
 import proguard.retrace.ReTrace;
+import proguard.retrace.ReTraceSession;
 
 import java.io.*;
 import java.nio.file.*;
@@ -60,16 +62,8 @@ public class RetraceTestRunner {
     private static void runTest(Path xmlPath) throws Exception {
         SimpleXmlParser.TestFixture fixture = SimpleXmlParser.parseFixture(xmlPath.toString());
 
-        // Create temporary mapping file
-        File mappingFile = File.createTempFile("mapping", ".txt");
-        mappingFile.deleteOnExit();
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(mappingFile))) {
-            writer.write(fixture.mapping);
-        }
-
-        // Run ReTrace
-        String result = runReTrace(mappingFile, fixture.obfuscated, false);
+        // Run ReTrace, reading the mapping straight from the fixture
+        String result = runReTrace(fixture.mapping, fixture.obfuscated, false);
 
         // Compare results
         String normalizedResult = normalizeOutput(result);
@@ -80,15 +74,16 @@ public class RetraceTestRunner {
         }
     }
 
-    private static String runReTrace(File mappingFile, String obfuscatedTrace, boolean verbose) throws IOException {
+    private static String runReTrace(String mapping, String obfuscatedTrace, boolean verbose) throws IOException {
         StringWriter outputWriter = new StringWriter();
         PrintWriter printWriter = new PrintWriter(outputWriter);
 
         StringReader inputReader = new StringReader(obfuscatedTrace);
         LineNumberReader lineReader = new LineNumberReader(inputReader);
 
-        ReTrace reTrace = new ReTrace(mappingFile);
-        reTrace.retrace(lineReader, printWriter);
+        ReTraceSession session = new ReTraceSession(ReTrace.REGULAR_EXPRESSION, ReTrace.REGULAR_EXPRESSION2,
+                                                    false, verbose, new MappingReader(new StringReader(mapping)));
+        session.retrace(lineReader, printWriter);
 
         printWriter.flush();
         return outputWriter.toString();
@@ -1,11 +1,42 @@
 package com.offguard;
 
+import proguard.obfuscate.MappedMappingReader;
+import proguard.obfuscate.MappingReader;
+import proguard.obfuscate.MappingSliceAdapter;
+import proguard.obfuscate.ParallelMappingReader;
+import proguard.retrace.FramePattern;
+import proguard.retrace.AbstractFrameRemapper;
+import proguard.retrace.CachingFrameRemapper;
+import proguard.retrace.DirectoryTraceStore;
+import proguard.retrace.FrameRemapper;
+import proguard.retrace.FrameRemapperRegistry;
+import proguard.retrace.LazyFrameRemapper;
+import proguard.retrace.MappedFrameRemapper;
+import proguard.retrace.MappingIndexCompiler;
+import proguard.retrace.ParallelReTracer;
+import proguard.retrace.PipelinedReTracer;
 import proguard.retrace.ReTrace;
+import proguard.retrace.ReTraceClient;
+import proguard.retrace.ReTraceDaemon;
+import proguard.retrace.ReTraceServer;
+import proguard.retrace.ReTraceSession;
+import proguard.retrace.StackTraceElementRemapper;
+import proguard.retrace.TraceStore;
 
 import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Standalone test runner for ProGuard ReTrace tests.
@@ -15,13 +46,80 @@ public class TestRunner {
 
     private static final Path FIXTURES_DIR = Paths.get("../src/fixtures/xml");
 
+    /**
+     * A way of running ReTrace on a mapping file. Every fixture is checked
+     * against each of these variants.
+     */
+    private interface Retracer {
+        String retrace(File mappingFile, String obfuscatedTrace) throws IOException;
+    }
+
+    /**
+     * A way of running ReTrace on a mapping in memory, without a mapping
+     * file.
+     */
+    private interface MemoryRetracer {
+        String retrace(String mapping, String obfuscatedTrace) throws IOException;
+    }
+
+    private final Map<String, Retracer> variants = new LinkedHashMap<>();
+    private final Map<String, MemoryRetracer> memoryVariants = new LinkedHashMap<>();
+
+    // Keeps at most one mapping at a time, so every fixture evicts the previous one.
+    private final FrameRemapperRegistry registry = new FrameRemapperRegistry(File::new, 1L);
+
+    // Keeps only a few stack traces, so fixtures evict each other's.
+    private final TraceStore traceStore;
+
+    // Serves the mappings of the registry on a free local port.
+    private final ReTraceServer server;
+
+    // Serves the mappings on a Unix domain socket in a temporary directory.
+    private final File socketFile;
+    private final ReTraceDaemon daemon;
+
     private int passed = 0;
     private int failed = 0;
     private List<String> failures = new ArrayList<>();
 
+    public TestRunner() throws IOException {
+        traceStore = new DirectoryTraceStore(Files.createTempDirectory("traces").toFile(), 4);
+        server = new ReTraceServer(registry, new InetSocketAddress("localhost", 0), false, false);
+        socketFile = new File(Files.createTempDirectory("daemon").toFile(), "retrace.sock");
+        daemon = new ReTraceDaemon(socketFile, 1L);
+
+        variants.put("default", this::runReTrace);
+        variants.put("index", this::runIndexedReTrace);
+        variants.put("indexbuffer", this::runIndexBufferReTrace);
+        variants.put("parallel", this::runParallelReTrace);
+        variants.put("mapped", this::runMappedReTrace);
+        variants.put("slices", this::runSliceReTrace);
+        variants.put("lazy", this::runLazyReTrace);
+        variants.put("tracedclasses", this::runTracedClassesReTrace);
+        variants.put("registry", this::runRegistryReTrace);
+        variants.put("registryindex", this::runIndexedRegistryReTrace);
+        variants.put("cached", this::runCachedReTrace);
+        variants.put("tracecache", this::runTraceCacheReTrace);
+        variants.put("threads", this::runThreadedReTrace);
+        variants.put("threadedmapping", this::runThreadedMappingReTrace);
+        variants.put("pipeline", this::runPipelinedReTrace);
+        variants.put("server", this::runServerReTrace);
+        variants.put("daemon", this::runDaemonReTrace);
+        variants.put("daemonindex", this::runIndexedDaemonReTrace);
+
+        memoryVariants.put("reader", this::runReaderReTrace);
+        memoryVariants.put("gzip", this::runGzipReTrace);
+        memoryVariants.put("zip", this::runZipReTrace);
+    }
+
     public static void main(String[] args) throws Exception {
         TestRunner runner = new TestRunner();
+        runner.server.start();
+        runner.daemon.start();
         runner.runAllTests();
+        runner.runStackTraceElementTests();
+        runner.server.stop(0);
+        runner.daemon.stop();
         runner.printSummary();
 
         // Exit with error code if any tests failed
@@ -42,11 +140,111 @@ public class TestRunner {
         }
     }
 
+    /**
+     * Checks StackTraceElementRemapper, which retraces stack trace elements
+     * and throwables directly, without fixtures in text form.
+     */
+    public void runStackTraceElementTests() throws IOException {
+        String mapping = String.join("\n",
+                "com.example.Main -> a.a:",
+                "    1:5:void run():10:14 -> a",
+                "    void first() -> b",
+                "    void second() -> b",
+                "    7:7:void inlinee():30:30 -> c",
+                "    7:7:void caller():40 -> c",
+                "com.example.Helper -> a.b:",
+                "    void help() -> a",
+                "");
+
+        FrameRemapper mapper = new FrameRemapper();
+        new MappingReader(new StringReader(mapping)).pump(mapper);
+        StackTraceElementRemapper remapper = new StackTraceElementRemapper(mapper.freeze());
+
+        checkElements("StackTraceElementRemapper: line numbers",
+                remapper.retrace(new StackTraceElement[] {
+                        new StackTraceElement("a.a", "a", "SourceFile", 3) }),
+                "com.example.Main.run(Main.java:12)");
+
+        checkElements("StackTraceElementRemapper: ambiguous frames",
+                remapper.retrace(new StackTraceElement[] {
+                        new StackTraceElement("a.a", "b", "SourceFile", 0) }),
+                "com.example.Main.first(Main.java)",
+                "com.example.Main.second(Main.java)");
+
+        checkElements("StackTraceElementRemapper: inlined frames",
+                remapper.retrace(new StackTraceElement[] {
+                        new StackTraceElement("a.a", "c", "SourceFile", 7) }),
+                "com.example.Main.inlinee(Main.java:30)",
+                "com.example.Main.caller(Main.java:40)");
+
+        checkElements("StackTraceElementRemapper: null file names",
+                remapper.retrace(new StackTraceElement[] {
+                        new StackTraceElement("a.a", "a", null, 3),
+                        new StackTraceElement("a.b", "a", null, -1) }),
+                "com.example.Main.run(Unknown Source)",
+                "com.example.Helper.help(Unknown Source)");
+
+        checkElements("StackTraceElementRemapper: native and unknown lines",
+                remapper.retrace(new StackTraceElement[] {
+                        new StackTraceElement("a.b", "a", "SourceFile", -2),
+                        new StackTraceElement("a.b", "a", "SourceFile", -1) }),
+                "com.example.Helper.help(Native Method)",
+                "com.example.Helper.help(Helper.java)");
+
+        // A throwable with a suppressed throwable and a cause that refers
+        // back to the throwable.
+        Exception throwable = new Exception("throwable");
+        throwable.setStackTrace(new StackTraceElement[] {
+                new StackTraceElement("a.a", "a", "SourceFile", 3) });
+
+        Exception suppressed = new Exception("suppressed");
+        suppressed.setStackTrace(new StackTraceElement[] {
+                new StackTraceElement("a.a", "c", "SourceFile", 7) });
+        throwable.addSuppressed(suppressed);
+
+        Exception cause = new Exception("cause");
+        cause.setStackTrace(new StackTraceElement[] {
+                new StackTraceElement("a.b", "a", "SourceFile", -2) });
+        throwable.initCause(cause);
+        cause.initCause(throwable);
+
+        remapper.retrace(throwable);
+
+        checkElements("StackTraceElementRemapper: throwable",
+                throwable.getStackTrace(),
+                "com.example.Main.run(Main.java:12)");
+        checkElements("StackTraceElementRemapper: suppressed throwable",
+                suppressed.getStackTrace(),
+                "com.example.Main.inlinee(Main.java:30)",
+                "com.example.Main.caller(Main.java:40)");
+        checkElements("StackTraceElementRemapper: cause in a cycle",
+                cause.getStackTrace(),
+                "com.example.Helper.help(Native Method)");
+    }
+
+    private void checkElements(String testName, StackTraceElement[] elements, String... expected) {
+        List<String> actual = Arrays.stream(elements)
+                .map(StackTraceElement::toString)
+                .collect(Collectors.toList());
+
+        if (actual.equals(Arrays.asList(expected))) {
+            System.out.println("PASS: " + testName);
+            passed++;
+        } else {
+            System.out.println("FAIL: " + testName);
+            failed++;
+            failures.add("\n=== FAILURE: " + testName + " ===\n" +
+                         "Expected:\n" + String.join("\n", expected) + "\n" +
+                         "---\nActual:\n" + String.join("\n", actual) + "\n" +
+                         "=== END " + testName + " ===\n");
+        }
+    }
+
     private void runTest(String testName, Path xmlPath) {
         try {
             SimpleXmlParser.TestFixture fixture = SimpleXmlParser.parseFixture(xmlPath.toString());
 
-            // Create temporary mapping file
+            // Create temporary mapping file, for the variants that need one
             File mappingFile = File.createTempFile("mapping", ".txt");
             mappingFile.deleteOnExit();
 
@@ -54,24 +252,37 @@ public class TestRunner {
                 writer.write(fixture.mapping);
             }
 
-            // Run ReTrace
-            String result = runReTrace(mappingFile, fixture.obfuscated);
+            // Run ReTrace in all variants
+            Map<String, String> results = new LinkedHashMap<>();
+            for (Map.Entry<String, Retracer> variant : variants.entrySet()) {
+                results.put(variant.getKey(), variant.getValue().retrace(mappingFile, fixture.obfuscated));
+            }
+            for (Map.Entry<String, MemoryRetracer> variant : memoryVariants.entrySet()) {
+                results.put(variant.getKey(), variant.getValue().retrace(fixture.mapping, fixture.obfuscated));
+            }
 
-            // Compare results
-            String normalizedResult = normalizeOutput(result);
             String normalizedExpected = normalizeOutput(fixture.retraced);
+            List<String> failedVariants = new ArrayList<>();
+            StringBuilder sb = new StringBuilder();
+
+            for (Map.Entry<String, String> result : results.entrySet()) {
+                String normalizedResult = normalizeOutput(result.getValue());
+
+                if (!normalizedExpected.equals(normalizedResult)) {
+                    failedVariants.add(result.getKey());
+                    sb.append("---\nActual (").append(result.getKey()).append("):\n").append(normalizedResult).append("\n");
+                }
+            }
 
-            if (normalizedExpected.equals(normalizedResult)) {
+            if (failedVariants.isEmpty()) {
                 System.out.println("PASS: " + testName);
                 passed++;
             } else {
-                System.out.println("FAIL: " + testName);
+                System.out.println("FAIL: " + testName + " " + failedVariants);
                 failed++;
 
-                StringBuilder sb = new StringBuilder();
-                sb.append("\n=== FAILURE: ").append(testName).append(" ===\n");
-                sb.append("Expected:\n").append(normalizedExpected).append("\n");
-                sb.append("---\nActual:\n").append(normalizedResult).append("\n");
+                sb.insert(0, "\n=== FAILURE: " + testName + " ===\n" +
+                             "Expected:\n" + normalizedExpected + "\n");
                 sb.append("---\nMapping:\n").append(fixture.mapping).append("\n");
                 sb.append("=== END ").append(testName).append(" ===\n");
                 failures.add(sb.toString());
@@ -97,6 +308,260 @@ public class TestRunner {
         return outputWriter.toString();
     }
 
+    private String runIndexedReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        File indexFile = File.createTempFile("mapping", ".idx");
+        indexFile.deleteOnExit();
+
+        MappingIndexCompiler.compile(mappingFile, indexFile);
+
+        return runReTrace(indexFile, obfuscatedTrace);
+    }
+
+    private String runIndexBufferReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        MappingIndexCompiler compiler = new MappingIndexCompiler();
+        new MappingReader(mappingFile).pump(compiler);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            compiler.write(output);
+        }
+
+        // Put the index in the middle of a larger array, so the buffer has
+        // a non-zero position and a limit before its capacity.
+        byte[] index = bytes.toByteArray();
+        byte[] array = new byte[index.length + 14];
+        System.arraycopy(index, 0, array, 7, index.length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(array, 7, index.length);
+        return runSession(createSession(new MappedFrameRemapper(buffer)), obfuscatedTrace);
+    }
+
+    private String runParallelReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        // Use the smallest possible chunks, to split at every class.
+        FrameRemapper mapper = new FrameRemapper();
+        new ParallelMappingReader(mappingFile, ForkJoinPool.commonPool(), 1).pump(mapper);
+
+        return runSession(createSession(mapper), obfuscatedTrace);
+    }
+
+    private String runMappedReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        // Use tiny windows, so lines cross window boundaries.
+        FrameRemapper mapper = new FrameRemapper();
+        new MappedMappingReader(mappingFile, 16).pump(mapper);
+
+        return runSession(createSession(mapper), obfuscatedTrace);
+    }
+
+    private String runSliceReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        FrameRemapper mapper = new FrameRemapper();
+        new MappingReader(mappingFile).pump(new MappingSliceAdapter(mapper));
+
+        return runSession(createSession(mapper), obfuscatedTrace);
+    }
+
+    private String runLazyReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        return runSession(createSession(new LazyFrameRemapper(mappingFile)), obfuscatedTrace);
+    }
+
+    private String runTracedClassesReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        StringWriter outputWriter = new StringWriter();
+        PrintWriter printWriter = new PrintWriter(outputWriter);
+
+        ReTrace reTrace = new ReTrace(ReTrace.REGULAR_EXPRESSION, ReTrace.REGULAR_EXPRESSION2,
+                                      false, false, true, mappingFile);
+        reTrace.retrace(new LineNumberReader(new StringReader(obfuscatedTrace)), printWriter);
+
+        printWriter.flush();
+        return outputWriter.toString();
+    }
+
+    private String runRegistryReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        AbstractFrameRemapper mapper = registry.frameRemapper(mappingFile.getPath());
+        if (registry.frameRemapper(mappingFile.getPath()) != mapper) {
+            throw new IllegalStateException("Registry didn't keep the most recent mapping");
+        }
+
+        return runSession(createSession(mapper), obfuscatedTrace);
+    }
+
+    private String runIndexedRegistryReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        File indexFile = File.createTempFile("mapping", ".idx");
+        indexFile.deleteOnExit();
+
+        MappingIndexCompiler.compile(mappingFile, indexFile);
+
+        return runRegistryReTrace(indexFile, obfuscatedTrace);
+    }
+
+    private String runCachedReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        // Use a tiny cache, so frames are evicted, and retrace twice, so
+        // frames are found in the cache.
+        FrameRemapper mapper = new FrameRemapper();
+        new MappingReader(mappingFile).pump(mapper);
+
+        ReTraceSession session = createSession(new CachingFrameRemapper(mapper.freeze(), 2));
+
+        String result = runSession(session, obfuscatedTrace);
+        if (!result.equals(runSession(session, obfuscatedTrace))) {
+            throw new IllegalStateException("Cached frames changed the result");
+        }
+
+        return result;
+    }
+
+    private String runTraceCacheReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        // Retrace twice, so the second time finds the stored stack traces.
+        ReTrace reTrace = new ReTrace(mappingFile);
+
+        String result = runTraceCache(reTrace, obfuscatedTrace);
+        if (!result.equals(runTraceCache(reTrace, obfuscatedTrace))) {
+            throw new IllegalStateException("Stored stack traces changed the result");
+        }
+
+        return result;
+    }
+
+    private String runTraceCache(ReTrace reTrace, String obfuscatedTrace) throws IOException {
+        StringWriter outputWriter = new StringWriter();
+        PrintWriter printWriter = new PrintWriter(outputWriter);
+
+        reTrace.retrace(new LineNumberReader(new StringReader(obfuscatedTrace)), printWriter, traceStore);
+
+        printWriter.flush();
+        return outputWriter.toString();
+    }
+
+    private String runThreadedReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        // Use the smallest possible chunks, to retrace every line separately.
+        ParallelReTracer reTracer =
+            new ParallelReTracer(new ReTrace(mappingFile).createSession(), ForkJoinPool.commonPool(), 2, 1);
+
+        StringWriter outputWriter = new StringWriter();
+        PrintWriter printWriter = new PrintWriter(outputWriter);
+
+        reTracer.retrace(new LineNumberReader(new StringReader(obfuscatedTrace)), printWriter);
+
+        printWriter.flush();
+        return outputWriter.toString();
+    }
+
+    private String runThreadedMappingReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        // Parse the mapping file and retrace the lines on the same threads,
+        // like the -threads option.
+        StringWriter outputWriter = new StringWriter();
+        PrintWriter printWriter = new PrintWriter(outputWriter);
+
+        new ReTrace(mappingFile).retrace(new LineNumberReader(new StringReader(obfuscatedTrace)), printWriter, 2);
+
+        printWriter.flush();
+        return outputWriter.toString();
+    }
+
+    private String runPipelinedReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        // Use the smallest possible batches and queues, to pass every line
+        // through the pipeline separately.
+        PipelinedReTracer reTracer =
+            new PipelinedReTracer(new ReTrace(mappingFile).createSession(), 1, 1);
+
+        StringWriter outputWriter = new StringWriter();
+        PrintWriter printWriter = new PrintWriter(outputWriter);
+
+        reTracer.retrace(new LineNumberReader(new StringReader(obfuscatedTrace)), printWriter);
+
+        printWriter.flush();
+        return outputWriter.toString();
+    }
+
+    private String runServerReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        URL url = new URL("http://localhost:" + server.getPort() + "/retrace?mapping=" +
+                          URLEncoder.encode(mappingFile.getPath(), "UTF-8"));
+
+        HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(obfuscatedTrace.getBytes(StandardCharsets.UTF_8));
+        }
+
+        if (connection.getResponseCode() != 200) {
+            throw new IOException("Server responded with " + connection.getResponseCode());
+        }
+
+        try (InputStream inputStream = connection.getInputStream()) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private String runDaemonReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        StringWriter outputWriter = new StringWriter();
+        PrintWriter printWriter = new PrintWriter(outputWriter);
+
+        new ReTraceClient(socketFile).retrace(mappingFile, false, false,
+                                              new LineNumberReader(new StringReader(obfuscatedTrace)),
+                                              printWriter);
+
+        printWriter.flush();
+        return outputWriter.toString();
+    }
+
+    private String runIndexedDaemonReTrace(File mappingFile, String obfuscatedTrace) throws IOException {
+        File indexFile = File.createTempFile("mapping", ".idx");
+        indexFile.deleteOnExit();
+
+        MappingIndexCompiler.compile(mappingFile, indexFile);
+
+        return runDaemonReTrace(indexFile, obfuscatedTrace);
+    }
+
+    private String runReaderReTrace(String mapping, String obfuscatedTrace) throws IOException {
+        return runSession(createSession(new MappingReader(new StringReader(mapping))), obfuscatedTrace);
+    }
+
+    private String runGzipReTrace(String mapping, String obfuscatedTrace) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream outputStream = new GZIPOutputStream(bytes)) {
+            outputStream.write(mapping.getBytes(StandardCharsets.UTF_8));
+        }
+
+        return runSession(createSession(new MappingReader(ByteBuffer.wrap(bytes.toByteArray()))), obfuscatedTrace);
+    }
+
+    private String runZipReTrace(String mapping, String obfuscatedTrace) throws IOException {
+        // Put the mapping file in a directory, so the reader has to skip the
+        // directory entry.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream outputStream = new ZipOutputStream(bytes)) {
+            outputStream.putNextEntry(new ZipEntry("proguard/"));
+            outputStream.putNextEntry(new ZipEntry("proguard/mapping.txt"));
+            outputStream.write(mapping.getBytes(StandardCharsets.UTF_8));
+        }
+
+        return runSession(createSession(new MappingReader(new ByteArrayInputStream(bytes.toByteArray()))), obfuscatedTrace);
+    }
+
+    private ReTraceSession createSession(MappingReader mappingReader) throws IOException {
+        return new ReTraceSession(ReTrace.REGULAR_EXPRESSION, ReTrace.REGULAR_EXPRESSION2,
+                                  false, false, mappingReader);
+    }
+
+    private ReTraceSession createSession(AbstractFrameRemapper mapper) {
+        return new ReTraceSession(new FramePattern(ReTrace.REGULAR_EXPRESSION, false),
+                                  new FramePattern(ReTrace.REGULAR_EXPRESSION2, false),
+                                  false,
+                                  mapper);
+    }
+
+    private String runSession(ReTraceSession session, String obfuscatedTrace) throws IOException {
+        StringWriter outputWriter = new StringWriter();
+        PrintWriter printWriter = new PrintWriter(outputWriter);
+
+        session.retrace(new LineNumberReader(new StringReader(obfuscatedTrace)), printWriter);
+
+        printWriter.flush();
+        return outputWriter.toString();
+    }
+
     private String normalizeOutput(String output) {
         if (output == null) {
             return "";
@@ -0,0 +1,281 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.obfuscate;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * This class can parse mapping files class by class. It first scans the
+ * class mapping lines only, remembering where the class member mapping lines
+ * of each class are located in the file. It can then parse the class member
+ * mapping lines of individual classes, on demand.
+ * <p>
+ * Once the class mappings have been pumped, the class members of different
+ * classes can be pumped concurrently.
+ */
+public class LazyMappingReader
+{
+    private final File mappingFile;
+
+    // Original class name -> file offsets of the blocks with its class
+    // mapping line and its class member mapping lines, as start/end pairs.
+    private final Map<String,long[]> classBlocks = new HashMap<String,long[]>();
+
+
+    public LazyMappingReader(File mappingFile)
+    {
+        this.mappingFile = mappingFile;
+    }
+
+
+    /**
+     * Reads the class mapping lines of the mapping file, presenting them to
+     * the given processor. Remembers the locations of the class member
+     * mapping lines of all classes that the processor is interested in.
+     */
+    public void pumpClassMappings(MappingProcessor mappingProcessor) throws IOException
+    {
+        InputStream input = new FileInputStream(mappingFile);
+        try
+        {
+            byte[] buffer       = new byte[65536];
+            int    bufferOffset = 0;
+            int    bufferLength = 0;
+
+            byte[] line       = new byte[256];
+            int    lineLength = 0;
+
+            // The class of the current block, and the start of the block.
+            String className  = null;
+            long   blockStart = 0L;
+
+            long lineStart = 0L;
+            long offset    = 0L;
+            int  previous  = -1;
+            while (true)
+            {
+                // Fill the buffer, if necessary.
+                if (bufferOffset == bufferLength)
+                {
+                    bufferLength = input.read(buffer);
+                    bufferOffset = 0;
+                }
+
+                int b = bufferLength < 0 ? -1 : buffer[bufferOffset++] & 0xff;
+                if (b >= 0)
+                {
+                    offset++;
+                }
+
+                // Is it a line terminator, like for BufferedReader#readLine?
+                if (b == '\n' || b == '\r' || b < 0)
+                {
+                    // Skip the '\n' of a "\r\n" line terminator.
+                    if (b == '\n' && previous == '\r')
+                    {
+                        lineStart = offset;
+                    }
+                    else if (b >= 0 || lineLength > 0)
+                    {
+                        // Does the line start a new block?
+                        if (isClassMappingLine(line, lineLength))
+                        {
+                            // Remember the block of the previous class, if any.
+                            if (className != null)
+                            {
+                                addClassBlock(className, blockStart, lineStart);
+                            }
+
+                            // Process the class mapping.
+                            className  = MappingReader.processLine(null,
+                                                                   new String(line, 0, lineLength, StandardCharsets.UTF_8),
+                                                                   mappingProcessor);
+                            blockStart = lineStart;
+                        }
+
+                        lineLength = 0;
+                        lineStart  = offset;
+                    }
+
+                    if (b < 0)
+                    {
+                        break;
+                    }
+                }
+                else
+                {
+                    // Append the byte to the line.
+                    if (lineLength == line.length)
+                    {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+
+                    line[lineLength++] = (byte)b;
+                }
+
+                previous = b;
+            }
+
+            // Remember the block of the last class, if any.
+            if (className != null)
+            {
+                addClassBlock(className, blockStart, offset);
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new IOException("Can't process mapping file (" + ex.getMessage() + ")");
+        }
+        finally
+        {
+            try
+            {
+                input.close();
+            }
+            catch (IOException ex)
+            {
+                // This shouldn't happen.
+            }
+        }
+    }
+
+
+    /**
+     * Returns whether the mapping file contains class member mapping lines
+     * for the class with the given original name, as far as the processor
+     * of the class mappings was interested in them.
+     */
+    public boolean containsClass(String className)
+    {
+        return classBlocks.containsKey(className);
+    }
+
+
+    /**
+     * Reads the class mapping lines and class member mapping lines of the
+     * class with the given original name, presenting them to the given
+     * processor.
+     */
+    public void pumpClass(String           className,
+                          MappingProcessor mappingProcessor) throws IOException
+    {
+        long[] blocks = classBlocks.get(className);
+        if (blocks == null)
+        {
+            return;
+        }
+
+        RandomAccessFile file = new RandomAccessFile(mappingFile, "r");
+        try
+        {
+            for (int index = 0; index < blocks.length; index += 2)
+            {
+                // Read the block.
+                byte[] bytes = new byte[(int)(blocks[index + 1] - blocks[index])];
+                file.seek(blocks[index]);
+                file.readFully(bytes);
+
+                BufferedReader reader =
+                    new BufferedReader(
+                    new StringReader(new String(bytes, StandardCharsets.UTF_8)));
+
+                // Process its lines, starting with the class mapping line.
+                String blockClassName = null;
+                while (true)
+                {
+                    String line = reader.readLine();
+                    if (line == null)
+                    {
+                        break;
+                    }
+
+                    blockClassName = MappingReader.processLine(blockClassName, line, mappingProcessor);
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new IOException("Can't process mapping file (" + ex.getMessage() + ")");
+        }
+        finally
+        {
+            try
+            {
+                file.close();
+            }
+            catch (IOException ex)
+            {
+                // This shouldn't happen.
+            }
+        }
+    }
+
+
+    /**
+     * Adds the given block to the blocks of the given class.
+     */
+    private void addClassBlock(String className, long start, long end)
+    {
+        long[] blocks = classBlocks.get(className);
+        if (blocks == null)
+        {
+            blocks = new long[2];
+        }
+        else
+        {
+            blocks = Arrays.copyOf(blocks, blocks.length + 2);
+        }
+
+        blocks[blocks.length - 2] = start;
+        blocks[blocks.length - 1] = end;
+
+        classBlocks.put(className, blocks);
+    }
+
+
+    /**
+     * Returns whether the given line is a class mapping line, which resets
+     * the class context for any subsequent class member lines.
+     */
+    private static boolean isClassMappingLine(byte[] line, int length)
+    {
+        // Trim the line like String#trim. Multi-byte UTF-8 characters
+        // never contain such bytes.
+        int start = 0;
+        int end   = length;
+
+        while (start < end && (line[start] & 0xff) <= ' ')
+        {
+            start++;
+        }
+
+        while (end > start && (line[end - 1] & 0xff) <= ' ')
+        {
+            end--;
+        }
+
+        return end > start         &&
+               line[start]   != '#' &&
+               line[end - 1] == ':';
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.obfuscate;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class can parse mapping files and invoke a processor for each of the
+ * mapping entries, with the same results as a {@link MappingReader}. Instead
+ * of decoding the file into lines of characters, it memory-maps the file,
+ * copies its raw bytes in small chunks, and looks for the separators of each
+ * line in those bytes. It then only
+ * creates strings for the names that it actually passes to a processor, or
+ * none at all for a {@link MappingSliceProcessor}.
+ * <p>
+ * The separators are all ASCII characters, which never occur inside the
+ * UTF-8 encodings of other characters, so the byte offsets of an ASCII line
+ * are the same as its character offsets. Lines with other characters are
+ * decoded first.
+ * <p>
+ * A gzip or zip compressed mapping file can't be parsed in place, so it is
+ * decompressed and parsed by a {@link MappingReader} instead.
+ */
+public class MappedMappingReader
+{
+    private static final int DEFAULT_WINDOW_SIZE = 1 << 28;
+    private static final int CHUNK_SIZE          = 65536;
+
+
+    private final File mappingFile;
+    private final int  windowSize;
+
+
+    /**
+     * Creates a new MappedMappingReader for the given mapping file.
+     */
+    public MappedMappingReader(File mappingFile)
+    {
+        this(mappingFile, DEFAULT_WINDOW_SIZE);
+    }
+
+
+    /**
+     * Creates a new MappedMappingReader.
+     * @param mappingFile the mapping file.
+     * @param windowSize  the size of the parts of the file that are mapped
+     *                    at a time, in bytes. Every window is a separate
+     *                    mapping, until it is garbage collected, so small
+     *                    windows are only useful for testing.
+     */
+    public MappedMappingReader(File mappingFile,
+                               int  windowSize)
+    {
+        this.mappingFile = mappingFile;
+        this.windowSize  = windowSize;
+    }
+
+
+    /**
+     * Reads the mapping file, presenting all of the encountered mapping entries
+     * to the given processor.
+     */
+    public void pump(MappingProcessor mappingProcessor) throws IOException
+    {
+        pump(new MappingSliceAdapter(mappingProcessor));
+    }
+
+
+    /**
+     * Reads the mapping file, presenting the lines and the ranges of all of
+     * the encountered mapping entries to the given processor.
+     */
+    public void pump(MappingSliceProcessor mappingSliceProcessor) throws IOException
+    {
+        boolean compressed = false;
+
+        try
+        {
+            FileChannel channel = FileChannel.open(mappingFile.toPath(), StandardOpenOption.READ);
+            try
+            {
+                compressed = isCompressed(channel);
+                if (!compressed)
+                {
+                    pump(channel, mappingSliceProcessor);
+                }
+            }
+            finally
+            {
+                try
+                {
+                    channel.close();
+                }
+                catch (IOException ex)
+                {
+                    // This shouldn't happen.
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new IOException("Can't process mapping file (" + ex.getMessage() + ")");
+        }
+
+        // Let a MappingReader decompress a compressed mapping file while
+        // parsing it.
+        if (compressed)
+        {
+            new MappingReader(mappingFile).pump(mappingSliceProcessor);
+        }
+    }
+
+
+    /**
+     * Reads the mapping file from the given channel, presenting the lines and
+     * the ranges of all of the encountered mapping entries to the given
+     * processor.
+     */
+    private void pump(FileChannel           channel,
+                      MappingSliceProcessor mappingSliceProcessor) throws IOException
+    {
+        MappingLineParser parser = new MappingLineParser(mappingSliceProcessor);
+        ByteLine          line   = new ByteLine();
+
+        // The bytes that have been copied from the mapped windows, with the
+        // start of the first line that hasn't been processed yet.
+        byte[] bytes     = new byte[CHUNK_SIZE];
+        int    lineStart = 0;
+        int    end       = 0;
+
+        long       size       = channel.size();
+        long       position   = 0L;
+        ByteBuffer window     = null;
+        boolean    skipLF     = false;
+        boolean    interested = false;
+
+        while (true)
+        {
+            // Map the next window, if necessary.
+            if (window == null || !window.hasRemaining())
+            {
+                if (position == size)
+                {
+                    break;
+                }
+
+                long length = Math.min(size - position, windowSize);
+                window    = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                position += length;
+            }
+
+            // Make room for more bytes, moving the unprocessed bytes to the
+            // front, or growing the array for a long line.
+            if (lineStart > 0)
+            {
+                System.arraycopy(bytes, lineStart, bytes, 0, end - lineStart);
+                end      -= lineStart;
+                lineStart = 0;
+            }
+            else if (end == bytes.length)
+            {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+
+            // Copy the next bytes.
+            int count = Math.min(bytes.length - end, window.remaining());
+            window.get(bytes, end, count);
+            end += count;
+
+            // Skip the '\n' of a "\r\n" line terminator that was split.
+            if (skipLF && lineStart < end)
+            {
+                if (bytes[lineStart] == '\n')
+                {
+                    lineStart++;
+                }
+
+                skipLF = false;
+            }
+
+            // Process all complete lines.
+            while (true)
+            {
+                int lineEnd = line.set(bytes, lineStart, end);
+                if (lineEnd == end)
+                {
+                    break;
+                }
+
+                interested = processLine(parser, line, interested);
+
+                // Skip the line terminator, like for BufferedReader#readLine.
+                lineStart = lineEnd + 1;
+                if (bytes[lineEnd] == '\r')
+                {
+                    if (lineStart == end)
+                    {
+                        skipLF = true;
+                    }
+                    else if (bytes[lineStart] == '\n')
+                    {
+                        lineStart++;
+                    }
+                }
+            }
+        }
+
+        // Process the last line, which doesn't need a line terminator.
+        if (lineStart < end)
+        {
+            line.set(bytes, lineStart, end);
+
+            processLine(parser, line, interested);
+        }
+    }
+
+
+    /**
+     * Parses the given line with the given parser, decoding the line first
+     * if it isn't plain ASCII.
+     */
+    private static boolean processLine(MappingLineParser parser,
+                                       ByteLine          line,
+                                       boolean           interested)
+    {
+        CharSequence chars = line.isAscii() ? line : line.toString();
+
+        return parser.processLine(interested, chars, 0, chars.length());
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns whether the file of the given channel is a compressed mapping
+     * file, which can't be parsed from the mapped bytes.
+     */
+    private static boolean isCompressed(FileChannel channel) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        while (header.hasRemaining() &&
+               channel.read(header, header.position()) > 0);
+
+        return MappingReader.isCompressed(byteAt(header, 0),
+                                          byteAt(header, 1),
+                                          byteAt(header, 2),
+                                          byteAt(header, 3));
+    }
+
+
+    /**
+     * Returns the unsigned byte at the given index of the given buffer, or
+     * -1 if the buffer doesn't contain it.
+     */
+    private static int byteAt(ByteBuffer buffer, int index)
+    {
+        return index < buffer.position() ? buffer.get(index) & 0xff : -1;
+    }
+
+
+    /**
+     * This CharSequence presents a line in an array of bytes. Its characters
+     * are the bytes of the line, which is only correct for ASCII lines. Its
+     * string representation is properly decoded from UTF-8 though.
+     */
+    private static class ByteLine
+    implements           CharSequence
+    {
+        private byte[]  bytes;
+        private int     offset;
+        private int     length;
+        private boolean ascii;
+
+
+        /**
+         * Sets the line that starts at the given offset in the given array,
+         * up to its line terminator or the given limit. Returns the end of
+         * the line.
+         */
+        public int set(byte[] bytes, int offset, int limit)
+        {
+            int end  = offset;
+            int bits = 0;
+            while (end < limit)
+            {
+                byte b = bytes[end];
+                if (b == '\n' || b == '\r')
+                {
+                    break;
+                }
+
+                bits |= b;
+                end++;
+            }
+
+            this.bytes  = bytes;
+            this.offset = offset;
+            this.length = end - offset;
+            this.ascii  = bits >= 0;
+
+            return end;
+        }
+
+
+        /**
+         * Returns whether the line only contains ASCII characters, which
+         * don't have their sign bits set.
+         */
+        public boolean isAscii()
+        {
+            return ascii;
+        }
+
+
+        // Implementations for CharSequence.
+
+        public int length()
+        {
+            return length;
+        }
+
+
+        public char charAt(int index)
+        {
+            return (char)bytes[offset + index];
+        }
+
+
+        public CharSequence subSequence(int start, int end)
+        {
+            return toString().substring(start, end);
+        }
+
+
+        public String toString()
+        {
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+    }
+}
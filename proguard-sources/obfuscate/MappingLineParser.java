@@ -0,0 +1,360 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.obfuscate;
+
+/**
+ * This class parses single lines of a mapping file and presents the ranges
+ * of their elements to a slice processor. It interprets the lines in the
+ * same way as MappingReader#processLine, without creating any strings.
+ *
+ * @see MappingSliceProcessor
+ */
+class MappingLineParser
+{
+    private final MappingSliceProcessor mappingSliceProcessor;
+
+    // The current line, as the trimmed range of a character sequence.
+    // Indices in the line are relative to the start of this range, like
+    // the indices in MappingReader#processLine.
+    private CharSequence line;
+    private int          lineOffset;
+    private int          lineLength;
+
+
+    /**
+     * Creates a new MappingLineParser that presents the results to the given
+     * processor.
+     */
+    MappingLineParser(MappingSliceProcessor mappingSliceProcessor)
+    {
+        this.mappingSliceProcessor = mappingSliceProcessor;
+    }
+
+
+    /**
+     * Parses the given line of a mapping file and processes the results with
+     * the slice processor.
+     * @param interested whether the processor is interested in the class
+     *                   member lines of the preceding class mapping line.
+     * @param line       the character sequence that contains the line.
+     * @param start      the start of the line in the sequence.
+     * @param end        the end of the line in the sequence.
+     * @return whether the processor is interested in any subsequent class
+     *         member lines.
+     */
+    boolean processLine(boolean      interested,
+                        CharSequence line,
+                        int          start,
+                        int          end)
+    {
+        this.line       = line;
+        this.lineOffset = start;
+        this.lineLength = end - start;
+
+        // Trim the line.
+        int trimmedStart = trimStart(0, lineLength);
+        int trimmedEnd   = trimEnd(trimmedStart, lineLength);
+
+        lineOffset += trimmedStart;
+        lineLength  = trimmedEnd - trimmedStart;
+
+        // Is it a non-comment line?
+        if (lineLength == 0 || charAt(0) != '#')
+        {
+            // Is it a class mapping or a class member mapping?
+            if (lineLength > 0 && charAt(lineLength - 1) == ':')
+            {
+                // Process the class mapping and remember whether the
+                // processor is interested in its class members.
+                interested = processClassMapping();
+            }
+            else if (interested)
+            {
+                // Process the class member mapping, in the context of
+                // the current class.
+                processClassMemberMapping();
+            }
+        }
+
+        return interested;
+    }
+
+
+    /**
+     * Parses the current line with a class mapping and processes the
+     * results with the slice processor. Returns whether any subsequent class
+     * member lines are of interest.
+     */
+    private boolean processClassMapping()
+    {
+        // See if we can parse "___ -> ___:", containing the original
+        // class name and the new class name.
+
+        int arrowIndex = indexOfArrow(0);
+        if (arrowIndex < 0)
+        {
+            return false;
+        }
+
+        int colonIndex = indexOf(':', arrowIndex + 2);
+        if (colonIndex < 0)
+        {
+            return false;
+        }
+
+        // Find the elements.
+        int classNameStart    = trimStart(0, arrowIndex);
+        int classNameEnd      = trimEnd(classNameStart, arrowIndex);
+        int newClassNameStart = trimStart(arrowIndex + 2, colonIndex);
+        int newClassNameEnd   = trimEnd(newClassNameStart, colonIndex);
+
+        // Process this class name mapping.
+        return mappingSliceProcessor.processClassMapping(line,
+                                                         lineOffset + classNameStart,
+                                                         lineOffset + classNameEnd,
+                                                         lineOffset + newClassNameStart,
+                                                         lineOffset + newClassNameEnd);
+    }
+
+
+    /**
+     * Parses the current line with a class member mapping and processes the
+     * results with the slice processor.
+     */
+    private void processClassMemberMapping()
+    {
+        // See MappingReader#processClassMemberMapping for the supported
+        // formats.
+
+        int colonIndex1    =                           indexOf(':', 0);
+        int colonIndex2    = colonIndex1    < 0 ? -1 : indexOf(':', colonIndex1    + 1);
+        int spaceIndex     =                           indexOf(' ', colonIndex2    + 2);
+        int argumentIndex1 =                           indexOf('(', spaceIndex     + 1);
+        int argumentIndex2 = argumentIndex1 < 0 ? -1 : indexOf(')', argumentIndex1 + 1);
+        int colonIndex3    = argumentIndex2 < 0 ? -1 : indexOf(':', argumentIndex2 + 1);
+        int colonIndex4    = colonIndex3    < 0 ? -1 : indexOf(':', colonIndex3    + 1);
+        int arrowIndex     =                           indexOfArrow((colonIndex4    >= 0 ? colonIndex4    :
+                                                                     colonIndex3    >= 0 ? colonIndex3    :
+                                                                     argumentIndex2 >= 0 ? argumentIndex2 :
+                                                                                           spaceIndex) + 1);
+
+        if (spaceIndex < 0 ||
+            arrowIndex < 0)
+        {
+            return;
+        }
+
+        // Find the elements.
+        int typeStart    = trimStart(colonIndex2 + 1, spaceIndex);
+        int typeEnd      = trimEnd(typeStart, spaceIndex);
+        int nameLimit    = argumentIndex1 >= 0 ? argumentIndex1 : arrowIndex;
+        int nameStart    = trimStart(spaceIndex + 1, nameLimit);
+        int nameEnd      = trimEnd(nameStart, nameLimit);
+        int newNameStart = trimStart(arrowIndex + 2, lineLength);
+        int newNameEnd   = trimEnd(newNameStart, lineLength);
+
+        // Does the method name contain an explicit original class name?
+        int classNameStart = -1;
+        int classNameEnd   = lastIndexOf('.', nameStart, nameEnd);
+        if (classNameEnd >= 0)
+        {
+            classNameStart = lineOffset + nameStart;
+            nameStart      = classNameEnd + 1;
+            classNameEnd  += lineOffset;
+        }
+
+        // Process this class member mapping.
+        if (typeStart    < typeEnd &&
+            nameStart    < nameEnd &&
+            newNameStart < newNameEnd)
+        {
+            // Is it a field or a method?
+            if (argumentIndex2 < 0)
+            {
+                mappingSliceProcessor.processFieldMapping(line,
+                                                          classNameStart,
+                                                          classNameEnd,
+                                                          lineOffset + typeStart,
+                                                          lineOffset + typeEnd,
+                                                          lineOffset + nameStart,
+                                                          lineOffset + nameEnd,
+                                                          lineOffset + newNameStart,
+                                                          lineOffset + newNameEnd);
+            }
+            else
+            {
+                int firstLineNumber = 0;
+                int lastLineNumber  = 0;
+                int newFirstLineNumber = 0;
+                int newLastLineNumber  = 0;
+
+                if (colonIndex2 >= 0)
+                {
+                    firstLineNumber = newFirstLineNumber = parseInt(0, colonIndex1);
+                    lastLineNumber  = newLastLineNumber  = parseInt(colonIndex1 + 1, colonIndex2);
+                }
+
+                if (colonIndex3 >= 0)
+                {
+                    firstLineNumber = parseInt(colonIndex3 + 1, colonIndex4 > 0 ? colonIndex4 : arrowIndex);
+                    lastLineNumber  = colonIndex4 < 0 ? firstLineNumber :
+                                      parseInt(colonIndex4 + 1, arrowIndex);
+                }
+
+                int argumentsStart = trimStart(argumentIndex1 + 1, argumentIndex2);
+                int argumentsEnd   = trimEnd(argumentsStart, argumentIndex2);
+
+                mappingSliceProcessor.processMethodMapping(line,
+                                                           classNameStart,
+                                                           classNameEnd,
+                                                           firstLineNumber,
+                                                           lastLineNumber,
+                                                           lineOffset + typeStart,
+                                                           lineOffset + typeEnd,
+                                                           lineOffset + nameStart,
+                                                           lineOffset + nameEnd,
+                                                           lineOffset + argumentsStart,
+                                                           lineOffset + argumentsEnd,
+                                                           newFirstLineNumber,
+                                                           newLastLineNumber,
+                                                           lineOffset + newNameStart,
+                                                           lineOffset + newNameEnd);
+            }
+        }
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns the character at the given index of the current line.
+     */
+    private char charAt(int index)
+    {
+        return line.charAt(lineOffset + index);
+    }
+
+
+    /**
+     * Returns the index of the first given character in the current line,
+     * from the given index, like String#indexOf(int, int).
+     */
+    private int indexOf(char c, int fromIndex)
+    {
+        for (int index = Math.max(fromIndex, 0); index < lineLength; index++)
+        {
+            if (charAt(index) == c)
+            {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Returns the index of the first "->" in the current line, from the
+     * given index, like String#indexOf(String, int).
+     */
+    private int indexOfArrow(int fromIndex)
+    {
+        for (int index = Math.max(fromIndex, 0); index < lineLength - 1; index++)
+        {
+            if (charAt(index)     == '-' &&
+                charAt(index + 1) == '>')
+            {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Returns the index of the last given character in the given range of
+     * the current line, or -1 if there isn't any.
+     */
+    private int lastIndexOf(char c, int start, int end)
+    {
+        for (int index = end - 1; index >= start; index--)
+        {
+            if (charAt(index) == c)
+            {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Returns the start of the given range of the current line without its
+     * leading white space and control characters, like String#trim.
+     */
+    private int trimStart(int start, int end)
+    {
+        while (start < end && charAt(start) <= ' ')
+        {
+            start++;
+        }
+
+        return start;
+    }
+
+
+    /**
+     * Returns the end of the given range of the current line without its
+     * trailing white space and control characters, like String#trim.
+     */
+    private int trimEnd(int start, int end)
+    {
+        while (end > start && charAt(end - 1) <= ' ')
+        {
+            end--;
+        }
+
+        return end;
+    }
+
+
+    /**
+     * Parses the given range of the current line, without its surrounding
+     * white space, as a decimal number, like Integer#parseInt(String).
+     */
+    private int parseInt(int start, int end)
+    {
+        start = trimStart(start, end);
+        end   = trimEnd(start, end);
+
+        try
+        {
+            return Integer.parseInt(line, lineOffset + start, lineOffset + end, 10);
+        }
+        catch (NumberFormatException e)
+        {
+            // Throw the same exception as for the substring.
+            return Integer.parseInt(line.subSequence(lineOffset + start, lineOffset + end).toString());
+        }
+    }
+}
@@ -21,22 +21,110 @@
 package proguard.obfuscate;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.zip.*;
 
 
 /**
  * This class can parse mapping files and invoke a processor for each of the
  * mapping entries.
+ * <p>
+ * The mapping can come from a file, a path, a stream, or a buffer, which
+ * contain its UTF-8 encoding, or from a reader. The encoding may also be
+ * compressed, as a gzip file or as the first file in a zip archive, in which
+ * case it is decompressed while it is being parsed. A stream or a reader is
+ * closed after the mapping has been pumped, so it can only be pumped once.
  *
  * @author Eric Lafortune
  */
 public class MappingReader
 {
-    private final File mappingFile;
+    private static final int BUFFER_SIZE = 65536;
 
 
-    public MappingReader(File mappingFile)
+    private final Source source;
+
+
+    public MappingReader(final File mappingFile)
+    {
+        this(new Source()
+        {
+            public Reader openReader() throws IOException
+            {
+                return reader(new FileInputStream(mappingFile));
+            }
+        });
+    }
+
+
+    /**
+     * Creates a new MappingReader for the mapping file at the given path,
+     * which may also be in a non-default file system, like a zip file system.
+     */
+    public MappingReader(final Path mappingPath)
+    {
+        this(new Source()
+        {
+            public Reader openReader() throws IOException
+            {
+                return reader(Files.newInputStream(mappingPath));
+            }
+        });
+    }
+
+
+    /**
+     * Creates a new MappingReader for the mapping in the given stream.
+     */
+    public MappingReader(final InputStream mappingInputStream)
+    {
+        this(new Source()
+        {
+            public Reader openReader() throws IOException
+            {
+                return reader(mappingInputStream);
+            }
+        });
+    }
+
+
+    /**
+     * Creates a new MappingReader for the mapping in the given buffer, from
+     * its position up to its limit. The reader doesn't change the position
+     * of the buffer, so it can pump the mapping repeatedly.
+     */
+    public MappingReader(final ByteBuffer mappingBuffer)
     {
-        this.mappingFile = mappingFile;
+        this(new Source()
+        {
+            public Reader openReader() throws IOException
+            {
+                return reader(new ByteBufferInputStream(mappingBuffer.duplicate()));
+            }
+        });
+    }
+
+
+    /**
+     * Creates a new MappingReader for the mapping in the given reader.
+     */
+    public MappingReader(final Reader mappingReader)
+    {
+        this(new Source()
+        {
+            public Reader openReader()
+            {
+                return mappingReader;
+            }
+        });
+    }
+
+
+    private MappingReader(Source source)
+    {
+        this.source = source;
     }
 
 
@@ -48,9 +136,7 @@ public class MappingReader
     {
         LineNumberReader reader =
             new LineNumberReader(
-            new BufferedReader(
-            new InputStreamReader(
-            new FileInputStream(mappingFile), "UTF-8")));
+            new BufferedReader(source.openReader()));
         try
         {
             String className = null;
@@ -65,25 +151,53 @@ public class MappingReader
                     break;
                 }
 
-                line = line.trim();
+                className = processLine(className, line, mappingProcessor);
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new IOException("Can't process mapping file (" + ex.getMessage() + ")");
+        }
+        finally
+        {
+            try
+            {
+                reader.close();
+            }
+            catch (IOException ex)
+            {
+                // This shouldn't happen.
+            }
+        }
+    }
+
+
+    /**
+     * Reads the mapping file, presenting the lines and the ranges of all of
+     * the encountered mapping entries to the given processor.
+     */
+    public void pump(MappingSliceProcessor mappingSliceProcessor) throws IOException
+    {
+        LineNumberReader reader =
+            new LineNumberReader(
+            new BufferedReader(source.openReader()));
+        try
+        {
+            MappingLineParser parser = new MappingLineParser(mappingSliceProcessor);
+
+            boolean interested = false;
+
+            // Read the subsequent class mappings and class member mappings.
+            while (true)
+            {
+                String line = reader.readLine();
 
-                // Is it a non-comment line?
-                if (!line.startsWith("#"))
+                if (line == null)
                 {
-                    // Is it a class mapping or a class member mapping?
-                    if (line.endsWith(":"))
-                    {
-                        // Process the class mapping and remember the class's
-                        // old name.
-                        className = processClassMapping(line, mappingProcessor);
-                    }
-                    else if (className != null)
-                    {
-                        // Process the class member mapping, in the context of
-                        // the current old class name.
-                        processClassMemberMapping(className, line, mappingProcessor);
-                    }
+                    break;
                 }
+
+                interested = parser.processLine(interested, line, 0, line.length());
             }
         }
         catch (IOException ex)
@@ -104,12 +218,50 @@ public class MappingReader
     }
 
 
+    /**
+     * Parses the given line of a mapping file and processes the results with
+     * the given mapping processor.
+     * @param className the old class name of the preceding class mapping
+     *                  line, or null if any class member lines can be
+     *                  ignored.
+     * @param line      the line to be parsed.
+     * @return the old class name for any subsequent class member lines, or
+     *         null if they can be ignored.
+     */
+    static String processLine(String           className,
+                              String           line,
+                              MappingProcessor mappingProcessor)
+    {
+        line = line.trim();
+
+        // Is it a non-comment line?
+        if (!line.startsWith("#"))
+        {
+            // Is it a class mapping or a class member mapping?
+            if (line.endsWith(":"))
+            {
+                // Process the class mapping and remember the class's
+                // old name.
+                className = processClassMapping(line, mappingProcessor);
+            }
+            else if (className != null)
+            {
+                // Process the class member mapping, in the context of
+                // the current old class name.
+                processClassMemberMapping(className, line, mappingProcessor);
+            }
+        }
+
+        return className;
+    }
+
+
     /**
      * Parses the given line with a class mapping and processes the
      * results with the given mapping processor. Returns the old class name,
      * or null if any subsequent class member lines can be ignored.
      */
-    private String processClassMapping(String           line,
+    private static String processClassMapping(String           line,
                                        MappingProcessor mappingProcessor)
     {
         // See if we can parse "___ -> ___:", containing the original
@@ -142,9 +294,9 @@ public class MappingReader
      * Parses the given line with a class member mapping and processes the
      * results with the given mapping processor.
      */
-    private void processClassMemberMapping(String           className,
-                                           String           line,
-                                           MappingProcessor mappingProcessor)
+    private static void processClassMemberMapping(String           className,
+                                                  String           line,
+                                                  MappingProcessor mappingProcessor)
     {
         // See if we can parse one of
         //     ___ ___ -> ___
@@ -237,4 +389,162 @@ public class MappingReader
             }
         }
     }
+
+
+    /**
+     * Returns whether the given first bytes of a mapping file start a gzip
+     * file or a zip archive, rather than a mapping.
+     */
+    static boolean isCompressed(int b0, int b1, int b2, int b3)
+    {
+        return isGzip(b0, b1) || isZip(b0, b1, b2, b3);
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns a reader for the UTF-8 encoded mapping in the given stream,
+     * decompressing it if necessary.
+     */
+    private static Reader reader(InputStream inputStream) throws IOException
+    {
+        try
+        {
+            return new InputStreamReader(decompressedInputStream(inputStream), StandardCharsets.UTF_8);
+        }
+        catch (IOException ex)
+        {
+            inputStream.close();
+
+            throw ex;
+        }
+    }
+
+
+    /**
+     * Returns a stream with the decompressed contents of the given stream,
+     * if it is a gzip file or a zip archive, or with its plain contents
+     * otherwise.
+     */
+    private static InputStream decompressedInputStream(InputStream inputStream) throws IOException
+    {
+        // Peek at the first bytes.
+        inputStream = new BufferedInputStream(inputStream, BUFFER_SIZE);
+        inputStream.mark(4);
+        int b0 = inputStream.read();
+        int b1 = inputStream.read();
+        int b2 = inputStream.read();
+        int b3 = inputStream.read();
+        inputStream.reset();
+
+        if (isGzip(b0, b1))
+        {
+            return new GZIPInputStream(inputStream, BUFFER_SIZE);
+        }
+
+        if (isZip(b0, b1, b2, b3))
+        {
+            // Position the stream at the first file in the archive.
+            ZipInputStream zipInputStream = new ZipInputStream(inputStream, StandardCharsets.UTF_8);
+            while (true)
+            {
+                ZipEntry zipEntry = zipInputStream.getNextEntry();
+                if (zipEntry == null)
+                {
+                    throw new ZipException("no mapping file in zip archive");
+                }
+
+                if (!zipEntry.isDirectory())
+                {
+                    return zipInputStream;
+                }
+            }
+        }
+
+        return inputStream;
+    }
+
+
+    /**
+     * Returns whether the given first bytes start a gzip file.
+     */
+    private static boolean isGzip(int b0, int b1)
+    {
+        return b0 == 0x1f &&
+               b1 == 0x8b;
+    }
+
+
+    /**
+     * Returns whether the given first bytes start a zip archive.
+     */
+    private static boolean isZip(int b0, int b1, int b2, int b3)
+    {
+        return b0 == 'P' &&
+               b1 == 'K' &&
+               b2 == 3   &&
+               b3 == 4;
+    }
+
+
+    /**
+     * This interface provides the mapping of a MappingReader.
+     */
+    private interface Source
+    {
+        /**
+         * Opens the mapping, as characters.
+         */
+        public Reader openReader() throws IOException;
+    }
+
+
+    /**
+     * This InputStream reads the remaining bytes of a buffer.
+     */
+    private static class ByteBufferInputStream
+    extends              InputStream
+    {
+        private final ByteBuffer buffer;
+
+
+        public ByteBufferInputStream(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+
+        // Implementations for InputStream.
+
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+
+        public int read(byte[] bytes, int offset, int length)
+        {
+            if (length == 0)
+            {
+                return 0;
+            }
+
+            if (!buffer.hasRemaining())
+            {
+                return -1;
+            }
+
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+
+            return length;
+        }
+
+
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
 }
@@ -0,0 +1,238 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.obfuscate;
+
+import java.util.Arrays;
+
+/**
+ * This MappingSliceProcessor creates strings for the elements of the mapping
+ * lines that it receives and presents them to a given MappingProcessor, with
+ * the same results as a {@link MappingReader}. Types and class member names,
+ * which recur throughout a mapping file, share their strings.
+ * <p>
+ * The adapter keeps track of the current class, so it can only process the
+ * lines of a single mapping file at a time.
+ */
+public class MappingSliceAdapter
+implements   MappingSliceProcessor
+{
+    // The maximum length and the maximum number of shared names.
+    private static final int MAXIMUM_SYMBOL_LENGTH = 128;
+    private static final int MAXIMUM_SYMBOL_COUNT  = 1 << 16;
+
+
+    private final MappingProcessor mappingProcessor;
+
+    // The original name of the class of the current class member lines.
+    private String className;
+
+    // The characters of the name that is being copied.
+    private char[] chars = new char[256];
+
+    // The shared names, in an open addressing hash table.
+    private char[][] symbolChars   = new char[1024][];
+    private int[]    symbolHashes  = new int[1024];
+    private String[] symbolStrings = new String[1024];
+    private int      symbolCount;
+
+
+    /**
+     * Creates a new MappingSliceAdapter that presents the mappings to the
+     * given processor.
+     */
+    public MappingSliceAdapter(MappingProcessor mappingProcessor)
+    {
+        this.mappingProcessor = mappingProcessor;
+    }
+
+
+    // Implementations for MappingSliceProcessor.
+
+    public boolean processClassMapping(CharSequence line,
+                                       int          classNameStart,
+                                       int          classNameEnd,
+                                       int          newClassNameStart,
+                                       int          newClassNameEnd)
+    {
+        // Class names are hardly ever repeated, so they aren't shared.
+        String className    = string(line, classNameStart,    classNameEnd,    false);
+        String newClassName = string(line, newClassNameStart, newClassNameEnd, false);
+
+        boolean interested = mappingProcessor.processClassMapping(className, newClassName);
+
+        this.className = interested ? className : null;
+
+        return interested;
+    }
+
+
+    public void processFieldMapping(CharSequence line,
+                                    int          classNameStart,
+                                    int          classNameEnd,
+                                    int          fieldTypeStart,
+                                    int          fieldTypeEnd,
+                                    int          fieldNameStart,
+                                    int          fieldNameEnd,
+                                    int          newFieldNameStart,
+                                    int          newFieldNameEnd)
+    {
+        mappingProcessor.processFieldMapping(className(line, classNameStart, classNameEnd),
+                                             string(line, fieldTypeStart,    fieldTypeEnd,    true),
+                                             string(line, fieldNameStart,    fieldNameEnd,    true),
+                                             className,
+                                             string(line, newFieldNameStart, newFieldNameEnd, true));
+    }
+
+
+    public void processMethodMapping(CharSequence line,
+                                     int          classNameStart,
+                                     int          classNameEnd,
+                                     int          firstLineNumber,
+                                     int          lastLineNumber,
+                                     int          methodReturnTypeStart,
+                                     int          methodReturnTypeEnd,
+                                     int          methodNameStart,
+                                     int          methodNameEnd,
+                                     int          methodArgumentsStart,
+                                     int          methodArgumentsEnd,
+                                     int          newFirstLineNumber,
+                                     int          newLastLineNumber,
+                                     int          newMethodNameStart,
+                                     int          newMethodNameEnd)
+    {
+        mappingProcessor.processMethodMapping(className(line, classNameStart, classNameEnd),
+                                              firstLineNumber,
+                                              lastLineNumber,
+                                              string(line, methodReturnTypeStart, methodReturnTypeEnd, true),
+                                              string(line, methodNameStart,       methodNameEnd,       true),
+                                              string(line, methodArgumentsStart,  methodArgumentsEnd,  true),
+                                              className,
+                                              newFirstLineNumber,
+                                              newLastLineNumber,
+                                              string(line, newMethodNameStart,    newMethodNameEnd,    true));
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns the explicit original class name in the given range, or the
+     * original name of the current class if there isn't any.
+     */
+    private String className(CharSequence line, int start, int end)
+    {
+        return start < 0 ? className : string(line, start, end, true);
+    }
+
+
+    /**
+     * Returns the given range of the given line as a string, optionally as a
+     * shared string.
+     */
+    private String string(CharSequence line, int start, int end, boolean shared)
+    {
+        int length = end - start;
+        if (chars.length < length)
+        {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+
+        int hash = 0;
+        for (int index = 0; index < length; index++)
+        {
+            char c = line.charAt(start + index);
+            chars[index] = c;
+            hash = hash * 31 + c;
+        }
+
+        if (!shared ||
+            length > MAXIMUM_SYMBOL_LENGTH)
+        {
+            return new String(chars, 0, length);
+        }
+
+        // Look up the shared string.
+        int mask  = symbolChars.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        while (symbolChars[index] != null)
+        {
+            if (symbolHashes[index] == hash &&
+                Arrays.equals(symbolChars[index], 0, symbolChars[index].length, chars, 0, length))
+            {
+                return symbolStrings[index];
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        String string = new String(chars, 0, length);
+
+        // Share the new string, if there is still room.
+        if (symbolCount < MAXIMUM_SYMBOL_COUNT)
+        {
+            symbolChars[index]   = Arrays.copyOf(chars, length);
+            symbolHashes[index]  = hash;
+            symbolStrings[index] = string;
+
+            if (++symbolCount * 2 > symbolChars.length)
+            {
+                growSymbols();
+            }
+        }
+
+        return string;
+    }
+
+
+    /**
+     * Doubles the capacity of the hash table with shared strings.
+     */
+    private void growSymbols()
+    {
+        char[][] oldSymbolChars   = symbolChars;
+        int[]    oldSymbolHashes  = symbolHashes;
+        String[] oldSymbolStrings = symbolStrings;
+
+        int capacity = oldSymbolChars.length * 2;
+        int mask     = capacity - 1;
+
+        symbolChars   = new char[capacity][];
+        symbolHashes  = new int[capacity];
+        symbolStrings = new String[capacity];
+
+        for (int oldIndex = 0; oldIndex < oldSymbolChars.length; oldIndex++)
+        {
+            if (oldSymbolChars[oldIndex] != null)
+            {
+                int hash  = oldSymbolHashes[oldIndex];
+                int index = (hash ^ (hash >>> 16)) & mask;
+                while (symbolChars[index] != null)
+                {
+                    index = (index + 1) & mask;
+                }
+
+                symbolChars[index]   = oldSymbolChars[oldIndex];
+                symbolHashes[index]  = hash;
+                symbolStrings[index] = oldSymbolStrings[oldIndex];
+            }
+        }
+    }
+}
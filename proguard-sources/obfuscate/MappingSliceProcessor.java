@@ -0,0 +1,128 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.obfuscate;
+
+/**
+ * This interface specifies methods to process name mappings between original
+ * classes and their obfuscated versions, like a {@link MappingProcessor}, but
+ * without creating strings. Instead of names, types, and arguments, it gets
+ * the mapping line and the ranges of the elements in that line. The line is
+ * only valid during the invocation, so the processor has to copy any elements
+ * that it wants to keep.
+ *
+ * @see MappingReader
+ * @see MappedMappingReader
+ * @see MappingSliceAdapter
+ */
+public interface MappingSliceProcessor
+{
+    /**
+     * Processes the given class name mapping.
+     *
+     * @param line              the mapping line.
+     * @param classNameStart    the start of the original class name.
+     * @param classNameEnd      the end of the original class name.
+     * @param newClassNameStart the start of the new class name.
+     * @param newClassNameEnd   the end of the new class name.
+     * @return whether the processor is interested in receiving mappings of the
+     *         class members of this class.
+     */
+    public boolean processClassMapping(CharSequence line,
+                                       int          classNameStart,
+                                       int          classNameEnd,
+                                       int          newClassNameStart,
+                                       int          newClassNameEnd);
+
+    /**
+     * Processes the given field name mapping, for the class of the preceding
+     * class name mapping.
+     * @param line              the mapping line.
+     * @param classNameStart    the start of the explicit original class name,
+     *                          or -1 if the field belongs to the original
+     *                          class of the preceding class name mapping.
+     * @param classNameEnd      the end of the explicit original class name,
+     *                          or -1.
+     * @param fieldTypeStart    the start of the original external field type.
+     * @param fieldTypeEnd      the end of the original external field type.
+     * @param fieldNameStart    the start of the original field name.
+     * @param fieldNameEnd      the end of the original field name.
+     * @param newFieldNameStart the start of the new field name.
+     * @param newFieldNameEnd   the end of the new field name.
+     */
+    public void processFieldMapping(CharSequence line,
+                                    int          classNameStart,
+                                    int          classNameEnd,
+                                    int          fieldTypeStart,
+                                    int          fieldTypeEnd,
+                                    int          fieldNameStart,
+                                    int          fieldNameEnd,
+                                    int          newFieldNameStart,
+                                    int          newFieldNameEnd);
+
+    /**
+     * Processes the given method name mapping, for the class of the preceding
+     * class name mapping.
+     * @param line                  the mapping line.
+     * @param classNameStart        the start of the explicit original class
+     *                              name, or -1 if the method belongs to the
+     *                              original class of the preceding class name
+     *                              mapping.
+     * @param classNameEnd          the end of the explicit original class
+     *                              name, or -1.
+     * @param firstLineNumber       the first line number of the method, or 0
+     *                              if it is not known.
+     * @param lastLineNumber        the last line number of the method, or 0
+     *                              if it is not known.
+     * @param methodReturnTypeStart the start of the original external method
+     *                              return type.
+     * @param methodReturnTypeEnd   the end of the original external method
+     *                              return type.
+     * @param methodNameStart       the start of the original external method
+     *                              name.
+     * @param methodNameEnd         the end of the original external method
+     *                              name.
+     * @param methodArgumentsStart  the start of the original external method
+     *                              arguments.
+     * @param methodArgumentsEnd    the end of the original external method
+     *                              arguments.
+     * @param newFirstLineNumber    the new first line number of the method, or
+     *                              0 if it is not known.
+     * @param newLastLineNumber     the new last line number of the method, or
+     *                              0 if it is not known.
+     * @param newMethodNameStart    the start of the new method name.
+     * @param newMethodNameEnd      the end of the new method name.
+     */
+    public void processMethodMapping(CharSequence line,
+                                     int          classNameStart,
+                                     int          classNameEnd,
+                                     int          firstLineNumber,
+                                     int          lastLineNumber,
+                                     int          methodReturnTypeStart,
+                                     int          methodReturnTypeEnd,
+                                     int          methodNameStart,
+                                     int          methodNameEnd,
+                                     int          methodArgumentsStart,
+                                     int          methodArgumentsEnd,
+                                     int          newFirstLineNumber,
+                                     int          newLastLineNumber,
+                                     int          newMethodNameStart,
+                                     int          newMethodNameEnd);
+}
@@ -0,0 +1,624 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.obfuscate;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class can parse mapping files on multiple threads and invoke a
+ * processor for each of the mapping entries. It reads the file in chunks
+ * that each start with a class mapping line, parses the chunks in parallel
+ * on a fork-join pool, and presents the entries of each parsed chunk to the
+ * processor on the calling thread, in the same order and with the same
+ * results as a {@link MappingReader}. Only a few chunks per thread of the
+ * pool are in memory at any time, so the size of the file isn't limited.
+ * <p>
+ * A gzip or zip compressed mapping file can't be split into chunks, so it is
+ * decompressed and parsed by a {@link MappingReader} instead.
+ */
+public class ParallelMappingReader
+{
+    private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private static final int READ_SIZE          = 65536;
+
+    private final File         mappingFile;
+    private final ForkJoinPool pool;
+    private final int          chunkSize;
+
+
+    /**
+     * Creates a new ParallelMappingReader that parses the given mapping file
+     * on the common fork-join pool.
+     */
+    public ParallelMappingReader(File mappingFile)
+    {
+        this(mappingFile, ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     * Creates a new ParallelMappingReader that parses the given mapping file
+     * on the given fork-join pool.
+     */
+    public ParallelMappingReader(File         mappingFile,
+                                 ForkJoinPool pool)
+    {
+        this(mappingFile, pool, DEFAULT_CHUNK_SIZE);
+    }
+
+
+    /**
+     * Creates a new ParallelMappingReader.
+     * @param mappingFile the mapping file.
+     * @param pool        the pool on which the chunks are parsed.
+     * @param chunkSize   the approximate minimum size of a chunk, in bytes.
+     */
+    public ParallelMappingReader(File         mappingFile,
+                                 ForkJoinPool pool,
+                                 int          chunkSize)
+    {
+        this.mappingFile = mappingFile;
+        this.pool        = pool;
+        this.chunkSize   = Math.max(chunkSize, 1);
+    }
+
+
+    /**
+     * Reads the mapping file, presenting all of the encountered mapping entries
+     * to the given processor.
+     */
+    public void pump(MappingProcessor mappingProcessor) throws IOException
+    {
+        boolean compressed = false;
+
+        try
+        {
+            FileChannel channel = FileChannel.open(mappingFile.toPath(), StandardOpenOption.READ);
+            try
+            {
+                compressed = isCompressed(channel);
+                if (!compressed)
+                {
+                    pump(channel, mappingProcessor);
+                }
+            }
+            finally
+            {
+                try
+                {
+                    channel.close();
+                }
+                catch (IOException ex)
+                {
+                    // This shouldn't happen.
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new IOException("Can't process mapping file (" + ex.getMessage() + ")");
+        }
+
+        // Let a MappingReader decompress a compressed mapping file while
+        // parsing it.
+        if (compressed)
+        {
+            new MappingReader(mappingFile).pump(mappingProcessor);
+        }
+    }
+
+
+    /**
+     * Reads the mapping file from the given channel, parsing its chunks in
+     * parallel and presenting their entries to the given processor.
+     */
+    private void pump(FileChannel      channel,
+                      MappingProcessor mappingProcessor) throws IOException
+    {
+        // The chunks that are being parsed, in their original order.
+        Deque<Future<MappingRecorder>> pendingChunks =
+            new ArrayDeque<Future<MappingRecorder>>();
+
+        int maximumPendingChunkCount = 2 * pool.getParallelism();
+
+        // The bytes that have been read, with the start of the current chunk
+        // and the start of the first line that hasn't been checked yet.
+        byte[] bytes      = new byte[Math.max(2 * chunkSize, READ_SIZE)];
+        int    chunkStart = 0;
+        int    lineStart  = 0;
+        int    end        = 0;
+
+        try
+        {
+            while (true)
+            {
+                // Make room for more bytes, moving the current chunk to the
+                // front, or growing the array for a large chunk.
+                if (bytes.length - end < READ_SIZE)
+                {
+                    if (chunkStart > 0)
+                    {
+                        System.arraycopy(bytes, chunkStart, bytes, 0, end - chunkStart);
+                        end       -= chunkStart;
+                        lineStart -= chunkStart;
+                        chunkStart = 0;
+                    }
+
+                    if (bytes.length - end < READ_SIZE)
+                    {
+                        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                    }
+                }
+
+                // Read the next bytes.
+                int count = channel.read(ByteBuffer.wrap(bytes, end, bytes.length - end));
+                if (count < 0)
+                {
+                    break;
+                }
+
+                end += count;
+
+                // Split off chunks at the complete class mapping lines that
+                // are far enough into the current chunk.
+                while (true)
+                {
+                    int lineEnd = lineEnd(bytes, lineStart, end);
+
+                    // Wait for the line terminator, and for the '\n' after
+                    // a '\r', so we know where the next line starts.
+                    if (lineEnd >= end - 1)
+                    {
+                        break;
+                    }
+
+                    if (lineStart - chunkStart >= chunkSize &&
+                        isClassMappingLine(bytes, lineStart, lineEnd))
+                    {
+                        // Present the oldest chunk first, if there are too
+                        // many chunks in progress.
+                        if (pendingChunks.size() >= maximumPendingChunkCount)
+                        {
+                            get(pendingChunks.removeFirst()).replay(mappingProcessor);
+                        }
+
+                        pendingChunks.addLast(submit(bytes, chunkStart, lineStart));
+
+                        chunkStart = lineStart;
+                    }
+
+                    lineStart = nextLineStart(bytes, lineEnd);
+                }
+            }
+
+            // Parse the last chunk.
+            if (chunkStart < end)
+            {
+                pendingChunks.addLast(submit(bytes, chunkStart, end));
+            }
+
+            // Present the remaining chunks.
+            while (!pendingChunks.isEmpty())
+            {
+                get(pendingChunks.removeFirst()).replay(mappingProcessor);
+            }
+        }
+        finally
+        {
+            // Don't leave any work behind if something went wrong.
+            for (Future<MappingRecorder> pendingChunk : pendingChunks)
+            {
+                pendingChunk.cancel(true);
+            }
+        }
+    }
+
+
+    /**
+     * Submits a task that parses a copy of the given chunk of a mapping file.
+     */
+    private Future<MappingRecorder> submit(byte[] bytes, int start, int end)
+    {
+        final byte[] chunk = Arrays.copyOfRange(bytes, start, end);
+
+        return pool.submit(new Callable<MappingRecorder>()
+        {
+            public MappingRecorder call()
+            {
+                return parse(new String(chunk, StandardCharsets.UTF_8));
+            }
+        });
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns whether the file of the given channel is a compressed mapping
+     * file, which can't be split into chunks.
+     */
+    private static boolean isCompressed(FileChannel channel) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        while (header.hasRemaining() &&
+               channel.read(header, header.position()) > 0);
+
+        return MappingReader.isCompressed(byteAt(header, 0),
+                                          byteAt(header, 1),
+                                          byteAt(header, 2),
+                                          byteAt(header, 3));
+    }
+
+
+    /**
+     * Returns the unsigned byte at the given index of the given buffer, or
+     * -1 if the buffer doesn't contain it.
+     */
+    private static int byteAt(ByteBuffer buffer, int index)
+    {
+        return index < buffer.position() ? buffer.get(index) & 0xff : -1;
+    }
+
+
+    /**
+     * Returns whether the given line is a class mapping line, which resets
+     * the class context for any subsequent class member lines.
+     */
+    private static boolean isClassMappingLine(byte[] bytes, int start, int end)
+    {
+        // Trim the line like String#trim. Multi-byte UTF-8 characters
+        // never contain such bytes.
+        while (start < end && (bytes[start] & 0xff) <= ' ')
+        {
+            start++;
+        }
+
+        while (end > start && (bytes[end - 1] & 0xff) <= ' ')
+        {
+            end--;
+        }
+
+        return end > start          &&
+               bytes[start]   != '#' &&
+               bytes[end - 1] == ':';
+    }
+
+
+    /**
+     * Returns the offset of the line terminator of the line that starts at
+     * the given offset, or the given end if the line isn't complete yet.
+     */
+    private static int lineEnd(byte[] bytes, int offset, int end)
+    {
+        while (offset < end &&
+               bytes[offset] != '\n' &&
+               bytes[offset] != '\r')
+        {
+            offset++;
+        }
+
+        return offset;
+    }
+
+
+    /**
+     * Returns the offset of the line following the given line terminator,
+     * accepting the same line terminators as BufferedReader#readLine.
+     */
+    private static int nextLineStart(byte[] bytes, int lineEnd)
+    {
+        return lineEnd < bytes.length - 1 &&
+               bytes[lineEnd]     == '\r' &&
+               bytes[lineEnd + 1] == '\n' ?
+            lineEnd + 2 :
+            lineEnd + 1;
+    }
+
+
+    /**
+     * Parses the given chunk of a mapping file into a recorder.
+     */
+    private static MappingRecorder parse(String chunk)
+    {
+        MappingRecorder recorder = new MappingRecorder();
+
+        String className = null;
+
+        int lineStart = 0;
+        while (lineStart < chunk.length())
+        {
+            int lineEnd = lineStart;
+            while (lineEnd < chunk.length() &&
+                   chunk.charAt(lineEnd) != '\n' &&
+                   chunk.charAt(lineEnd) != '\r')
+            {
+                lineEnd++;
+            }
+
+            String line = chunk.substring(lineStart, lineEnd);
+
+            try
+            {
+                className = MappingReader.processLine(className, line, recorder);
+            }
+            catch (RuntimeException ex)
+            {
+                // Postpone the exception until the entries are presented
+                // to the actual processor, which may have lost interest in
+                // the class anyway.
+                recorder.recordException(ex);
+            }
+
+            lineStart = lineEnd < chunk.length() - 1  &&
+                        chunk.charAt(lineEnd)     == '\r' &&
+                        chunk.charAt(lineEnd + 1) == '\n' ?
+                lineEnd + 2 :
+                lineEnd + 1;
+        }
+
+        return recorder;
+    }
+
+
+    /**
+     * Returns the recorder of the given parsing task, waiting for it if
+     * necessary and rethrowing any exception it may have thrown.
+     */
+    private static MappingRecorder get(Future<MappingRecorder> pendingChunk) throws IOException
+    {
+        try
+        {
+            return pendingChunk.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while parsing mapping file");
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+
+
+    /**
+     * This MappingProcessor records all mapping entries, so they can be
+     * presented to another processor later on. It is interested in the class
+     * members of all classes; when replaying, it skips the class members of
+     * classes that the other processor isn't interested in.
+     */
+    private static class MappingRecorder
+    implements           MappingProcessor
+    {
+        private static final byte CLASS     = 0;
+        private static final byte FIELD     = 1;
+        private static final byte METHOD    = 2;
+        private static final byte EXCEPTION = 3;
+
+        // The kinds of the entries.
+        private byte[]                       kinds       = new byte[64];
+        private int                          kindCount;
+
+        // The string arguments of the entries: two per class, five per
+        // field, and six per method.
+        private String[]                     strings     = new String[256];
+        private int                          stringCount;
+
+        // The line numbers of the method entries, four per method.
+        private int[]                        lineNumbers = new int[64];
+        private int                          lineNumberCount;
+
+        // The exceptions that were thrown while parsing.
+        private final List<RuntimeException> exceptions  = new ArrayList<RuntimeException>();
+
+
+        /**
+         * Records the given exception, thrown while parsing a class member
+         * line.
+         */
+        public void recordException(RuntimeException exception)
+        {
+            addKind(EXCEPTION);
+            exceptions.add(exception);
+        }
+
+
+        /**
+         * Presents all recorded entries to the given processor.
+         */
+        public void replay(MappingProcessor mappingProcessor)
+        {
+            // Like MappingReader, skip all class members until the first
+            // class mapping.
+            boolean interested = false;
+
+            int stringIndex     = 0;
+            int lineNumberIndex = 0;
+            int exceptionIndex  = 0;
+
+            for (int index = 0; index < kindCount; index++)
+            {
+                switch (kinds[index])
+                {
+                    case CLASS:
+                    {
+                        interested =
+                            mappingProcessor.processClassMapping(strings[stringIndex],
+                                                                 strings[stringIndex + 1]);
+
+                        stringIndex += 2;
+                        break;
+                    }
+                    case FIELD:
+                    {
+                        if (interested)
+                        {
+                            mappingProcessor.processFieldMapping(strings[stringIndex],
+                                                                 strings[stringIndex + 1],
+                                                                 strings[stringIndex + 2],
+                                                                 strings[stringIndex + 3],
+                                                                 strings[stringIndex + 4]);
+                        }
+
+                        stringIndex += 5;
+                        break;
+                    }
+                    case METHOD:
+                    {
+                        if (interested)
+                        {
+                            mappingProcessor.processMethodMapping(strings[stringIndex],
+                                                                  lineNumbers[lineNumberIndex],
+                                                                  lineNumbers[lineNumberIndex + 1],
+                                                                  strings[stringIndex + 1],
+                                                                  strings[stringIndex + 2],
+                                                                  strings[stringIndex + 3],
+                                                                  strings[stringIndex + 4],
+                                                                  lineNumbers[lineNumberIndex + 2],
+                                                                  lineNumbers[lineNumberIndex + 3],
+                                                                  strings[stringIndex + 5]);
+                        }
+
+                        stringIndex     += 6;
+                        lineNumberIndex += 4;
+                        break;
+                    }
+                    default:
+                    {
+                        RuntimeException exception = exceptions.get(exceptionIndex++);
+                        if (interested)
+                        {
+                            throw exception;
+                        }
+                    }
+                }
+            }
+        }
+
+
+        // Implementations for MappingProcessor.
+
+        public boolean processClassMapping(String className,
+                                           String newClassName)
+        {
+            addKind(CLASS);
+            addStrings(2);
+            strings[stringCount++] = className;
+            strings[stringCount++] = newClassName;
+
+            return true;
+        }
+
+
+        public void processFieldMapping(String className,
+                                        String fieldType,
+                                        String fieldName,
+                                        String newClassName,
+                                        String newFieldName)
+        {
+            addKind(FIELD);
+            addStrings(5);
+            strings[stringCount++] = className;
+            strings[stringCount++] = fieldType;
+            strings[stringCount++] = fieldName;
+            strings[stringCount++] = newClassName;
+            strings[stringCount++] = newFieldName;
+        }
+
+
+        public void processMethodMapping(String className,
+                                         int    firstLineNumber,
+                                         int    lastLineNumber,
+                                         String methodReturnType,
+                                         String methodName,
+                                         String methodArguments,
+                                         String newClassName,
+                                         int    newFirstLineNumber,
+                                         int    newLastLineNumber,
+                                         String newMethodName)
+        {
+            addKind(METHOD);
+            addStrings(6);
+            strings[stringCount++] = className;
+            strings[stringCount++] = methodReturnType;
+            strings[stringCount++] = methodName;
+            strings[stringCount++] = methodArguments;
+            strings[stringCount++] = newClassName;
+            strings[stringCount++] = newMethodName;
+
+            if (lineNumberCount + 4 > lineNumbers.length)
+            {
+                lineNumbers = Arrays.copyOf(lineNumbers, lineNumbers.length * 2);
+            }
+
+            lineNumbers[lineNumberCount++] = firstLineNumber;
+            lineNumbers[lineNumberCount++] = lastLineNumber;
+            lineNumbers[lineNumberCount++] = newFirstLineNumber;
+            lineNumbers[lineNumberCount++] = newLastLineNumber;
+        }
+
+
+        // Small utility methods.
+
+        /**
+         * Adds an entry of the given kind.
+         */
+        private void addKind(byte kind)
+        {
+            if (kindCount == kinds.length)
+            {
+                kinds = Arrays.copyOf(kinds, kinds.length * 2);
+            }
+
+            kinds[kindCount++] = kind;
+        }
+
+
+        /**
+         * Makes room for the given number of additional strings.
+         */
+        private void addStrings(int count)
+        {
+            if (stringCount + count > strings.length)
+            {
+                strings = Arrays.copyOf(strings, strings.length * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.util.*;
+
+/**
+ * This class transforms stack frames based on mapping information. Subclasses
+ * define how the mapping information is stored and looked up.
+ *
+ * @see FrameRemapper
+ * @see FrozenFrameRemapper
+ * @see MappedFrameRemapper
+ */
+public abstract class AbstractFrameRemapper
+{
+    /**
+     * Transforms the given obfuscated frame back to one or more original frames.
+     */
+    public List<FrameInfo> transform(FrameInfo obfuscatedFrame)
+    {
+        // First remap the class name.
+        String originalClassName = originalClassName(obfuscatedFrame.getClassName());
+        if (originalClassName == null)
+        {
+            return null;
+        }
+
+        List<FrameInfo> originalFrames = new ArrayList<FrameInfo>();
+
+        // Create any transformed frames with remapped field names.
+        transformFieldInfo(obfuscatedFrame,
+                           originalClassName,
+                           originalFrames);
+
+        // Create any transformed frames with remapped method names.
+        transformMethodInfo(obfuscatedFrame,
+                            originalClassName,
+                            originalFrames);
+
+        if (originalFrames.isEmpty())
+        {
+            String sourceFile = obfuscatedFrame.getSourceFile();
+            // Create a transformed frame with the remapped class name.
+            originalFrames.add(new FrameInfo(originalClassName,
+                                             sourceFile == null ? sourceFileName(originalClassName) :
+                                                     sourceFile.equals("Unknown Source") ?
+                                                             "Unknown Source" :
+                                                             sourceFileName(originalClassName),
+                                             obfuscatedFrame.getLineNumber(),
+                                             obfuscatedFrame.getType(),
+                                             obfuscatedFrame.getFieldName(),
+                                             obfuscatedFrame.getMethodName(),
+                                             obfuscatedFrame.getArguments()));
+        }
+
+        return originalFrames;
+    }
+
+
+    /**
+     * Returns the original class name.
+     */
+    public abstract String originalClassName(String obfuscatedClassName);
+
+
+    /**
+     * Returns the fields of the given original class that have the given
+     * obfuscated name, in the order of the mapping file, or null if there
+     * aren't any.
+     */
+    abstract Collection<FieldInfo> fieldInfos(String originalClassName,
+                                              String obfuscatedFieldName);
+
+
+    /**
+     * Returns the methods of the given original class that have the given
+     * obfuscated name, in the order of the mapping file, or null if there
+     * aren't any. The methods may already be restricted to the ones that
+     * match the given obfuscated line number, but they don't have to be.
+     */
+    abstract Collection<MethodInfo> methodInfos(String originalClassName,
+                                                String obfuscatedMethodName,
+                                                int    obfuscatedLineNumber);
+
+
+    /**
+     * Transforms the obfuscated frame into one or more original frames,
+     * if the frame contains information about a field that can be remapped.
+     * @param obfuscatedFrame     the obfuscated frame.
+     * @param originalFieldFrames the list in which remapped frames can be
+     *                            collected.
+     */
+    private void transformFieldInfo(FrameInfo       obfuscatedFrame,
+                                    String          originalClassName,
+                                    List<FrameInfo> originalFieldFrames)
+    {
+        // Class name -> obfuscated field names -> fields.
+        String obfuscatedFieldName = obfuscatedFrame.getFieldName();
+        Collection<FieldInfo> fieldSet = fieldInfos(originalClassName, obfuscatedFieldName);
+        if (fieldSet != null)
+        {
+            String obfuscatedType = obfuscatedFrame.getType();
+            String originalType   = obfuscatedType == null ? null :
+                originalType(obfuscatedType);
+
+            // Find all matching fields.
+            Iterator<FieldInfo> fieldInfoIterator = fieldSet.iterator();
+            while (fieldInfoIterator.hasNext())
+            {
+                FieldInfo fieldInfo = fieldInfoIterator.next();
+                if (fieldInfo.matches(originalType))
+                {
+                    originalFieldFrames.add(new FrameInfo(fieldInfo.originalClassName,
+                                                          "Unknown Source".equals(obfuscatedFrame.getSourceFile()) ?
+                                                                  "Unknown Source" :
+                                                                  sourceFileName(fieldInfo.originalClassName),
+                                                          obfuscatedFrame.getLineNumber(),
+                                                          fieldInfo.originalType,
+                                                          fieldInfo.originalName,
+                                                          obfuscatedFrame.getMethodName(),
+                                                          obfuscatedFrame.getArguments()));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Transforms the obfuscated frame into one or more original frames,
+     * if the frame contains information about a method that can be remapped.
+     * @param obfuscatedFrame      the obfuscated frame.
+     * @param originalMethodFrames the list in which remapped frames can be
+     *                             collected.
+     */
+    private void transformMethodInfo(FrameInfo       obfuscatedFrame,
+                                     String          originalClassName,
+                                     List<FrameInfo> originalMethodFrames)
+    {
+        // Class name -> obfuscated method names -> methods.
+        String obfuscatedMethodName = obfuscatedFrame.getMethodName();
+        int    obfuscatedLineNumber = obfuscatedFrame.getLineNumber();
+        Collection<MethodInfo> methodSet = methodInfos(originalClassName,
+                                                       obfuscatedMethodName,
+                                                       obfuscatedLineNumber);
+        if (methodSet != null)
+        {
+            String obfuscatedType = obfuscatedFrame.getType();
+            String originalType   = obfuscatedType == null ? null :
+                originalType(obfuscatedType);
+
+            String obfuscatedArguments = obfuscatedFrame.getArguments();
+            String originalArguments   = obfuscatedArguments == null ? null :
+                originalArguments(obfuscatedArguments);
+
+            // Find all matching methods.
+            Iterator<MethodInfo> methodInfoIterator = methodSet.iterator();
+            while (methodInfoIterator.hasNext())
+            {
+                MethodInfo methodInfo = methodInfoIterator.next();
+                if (methodInfo.matches(obfuscatedLineNumber,
+                                       originalType,
+                                       originalArguments))
+                {
+                    // Do we have a different original first line number?
+                    // We're allowing unknown values, represented as 0.
+                    int lineNumber = obfuscatedFrame.getLineNumber();
+                    if (methodInfo.originalFirstLineNumber != methodInfo.obfuscatedFirstLineNumber)
+                    {
+                        // Do we have an original line number range and
+                        // sufficient information to shift the line number?
+                        lineNumber = methodInfo.originalLastLineNumber    != 0                                  &&
+                                     methodInfo.originalLastLineNumber    != methodInfo.originalFirstLineNumber &&
+                                     methodInfo.obfuscatedFirstLineNumber != 0                                  &&
+                                     lineNumber                           != 0 ?
+                            methodInfo.originalFirstLineNumber - methodInfo.obfuscatedFirstLineNumber + lineNumber :
+                            methodInfo.originalFirstLineNumber;
+                    }
+
+                    originalMethodFrames.add(new FrameInfo(methodInfo.originalClassName,
+                                                           "Unknown Source".equals(obfuscatedFrame.getSourceFile()) ?
+                                                                   "Unknown Source" :
+                                                                   sourceFileName(methodInfo.originalClassName),
+                                                           lineNumber,
+                                                           methodInfo.originalType,
+                                                           obfuscatedFrame.getFieldName(),
+                                                           methodInfo.originalName,
+                                                           methodInfo.originalArguments));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the original argument types.
+     */
+    private String originalArguments(String obfuscatedArguments)
+    {
+        StringBuilder originalArguments = new StringBuilder();
+
+        int startIndex = 0;
+        while (true)
+        {
+            int endIndex = obfuscatedArguments.indexOf(',', startIndex);
+            if (endIndex < 0)
+            {
+                break;
+            }
+
+            originalArguments.append(originalType(obfuscatedArguments.substring(startIndex, endIndex).trim())).append(',');
+
+            startIndex = endIndex + 1;
+        }
+
+        originalArguments.append(originalType(obfuscatedArguments.substring(startIndex).trim()));
+
+        return originalArguments.toString();
+    }
+
+
+    /**
+     * Returns the original type.
+     */
+    private String originalType(String obfuscatedType)
+    {
+        int index = obfuscatedType.indexOf('[');
+
+        return index >= 0 ?
+            originalClassName(obfuscatedType.substring(0, index)) + obfuscatedType.substring(index) :
+            originalClassName(obfuscatedType);
+    }
+
+
+    /**
+     * Returns the Java source file name that typically corresponds to the
+     * given class name.
+     */
+    private String sourceFileName(String className)
+    {
+        int index1 = className.lastIndexOf('.') + 1;
+        int index2 = className.indexOf('$', index1);
+
+        return (index2 > 0 ?
+            className.substring(index1, index2) :
+            className.substring(index1)) +
+            ".java";
+    }
+
+
+    /**
+     * Information about the original version and the obfuscated version of
+     * a field (without the obfuscated class name or field name).
+     */
+    static class FieldInfo
+    {
+        final String originalClassName;
+        final String originalType;
+        final String originalName;
+
+
+        /**
+         * Creates a new FieldInfo with the given properties.
+         */
+        FieldInfo(String originalClassName,
+                  String originalType,
+                  String originalName)
+        {
+            this.originalClassName = originalClassName;
+            this.originalType      = originalType;
+            this.originalName      = originalName;
+        }
+
+
+        /**
+         * Returns whether the given type matches the original type of this field.
+         * The given type may be a null wildcard.
+         */
+        boolean matches(String originalType)
+        {
+            return
+                originalType == null || originalType.equals(this.originalType);
+        }
+    }
+
+
+    /**
+     * Information about the original version and the obfuscated version of
+     * a method (without the obfuscated class name or method name).
+     */
+    static class MethodInfo
+    {
+        final int    obfuscatedFirstLineNumber;
+        final int    obfuscatedLastLineNumber;
+        final String originalClassName;
+        final int    originalFirstLineNumber;
+        final int    originalLastLineNumber;
+        final String originalType;
+        final String originalName;
+        final String originalArguments;
+
+
+        /**
+         * Creates a new MethodInfo with the given properties.
+         */
+        MethodInfo(int    obfuscatedFirstLineNumber,
+                   int    obfuscatedLastLineNumber,
+                   String originalClassName,
+                   int    originalFirstLineNumber,
+                   int    originalLastLineNumber,
+                   String originalType,
+                   String originalName,
+                   String originalArguments)
+        {
+            this.obfuscatedFirstLineNumber = obfuscatedFirstLineNumber;
+            this.obfuscatedLastLineNumber  = obfuscatedLastLineNumber;
+            this.originalType              = originalType;
+            this.originalArguments         = originalArguments;
+            this.originalClassName         = originalClassName;
+            this.originalName              = originalName;
+            this.originalFirstLineNumber   = originalFirstLineNumber;
+            this.originalLastLineNumber    = originalLastLineNumber;
+        }
+
+
+        /**
+         * Returns whether the given properties match the properties of this
+         * method. The given properties may be null wildcards.
+         */
+        boolean matches(int    obfuscatedLineNumber,
+                        String originalType,
+                        String originalArguments)
+        {
+            return
+                // We're allowing unknown values, represented as 0.
+                (obfuscatedLineNumber     == 0 ||
+                 obfuscatedLastLineNumber == 0 ||
+                (obfuscatedFirstLineNumber <= obfuscatedLineNumber  &&
+                 obfuscatedLineNumber      <= obfuscatedLastLineNumber))                 &&
+                (originalType         == null || originalType.equals(this.originalType)) &&
+                (originalArguments    == null || originalArguments.equals(this.originalArguments));
+        }
+    }
+}
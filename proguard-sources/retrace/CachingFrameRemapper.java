@@ -0,0 +1,331 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class transforms stack frames with another remapper, caching the
+ * results for the most recently transformed frames. Stack traces tend to
+ * repeat the same frames over and over, so most of them can then be
+ * retraced without looking up their mappings again.
+ * <p>
+ * The cache holds at most a given number of frames. It is split into
+ * segments, each discarding its least recently used frames, so threads
+ * sharing an instance rarely wait for each other. It keeps counts of
+ * hits, misses, and evictions, to help choosing its size.
+ */
+public class CachingFrameRemapper
+extends      AbstractFrameRemapper
+{
+    private static final int MAXIMUM_SEGMENT_COUNT = 16;
+
+
+    private final AbstractFrameRemapper frameRemapper;
+    private final Segment[]             segments;
+
+    private final AtomicLong hitCount      = new AtomicLong();
+    private final AtomicLong missCount     = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+
+    /**
+     * Creates a new CachingFrameRemapper.
+     * @param frameRemapper the remapper that transforms frames that aren't
+     *                      cached yet. It must not change afterwards.
+     * @param maximumSize   the maximum number of cached frames.
+     */
+    public CachingFrameRemapper(AbstractFrameRemapper frameRemapper,
+                                int                   maximumSize)
+    {
+        if (maximumSize < 1)
+        {
+            throw new IllegalArgumentException("Maximum cache size must be positive ["+maximumSize+"]");
+        }
+
+        this.frameRemapper = frameRemapper;
+
+        // Give each segment the same share, without exceeding the maximum.
+        int segmentCount   = Math.min(MAXIMUM_SEGMENT_COUNT,
+                                      Integer.highestOneBit(maximumSize));
+        int segmentSize    = maximumSize / segmentCount;
+
+        segments = new Segment[segmentCount];
+        for (int index = 0; index < segmentCount; index++)
+        {
+            segments[index] = new Segment(segmentSize);
+        }
+    }
+
+
+    /**
+     * Returns the number of frames that were found in the cache.
+     */
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+
+    /**
+     * Returns the number of frames that were not found in the cache and had
+     * to be transformed.
+     */
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+
+    /**
+     * Returns the number of frames that were discarded from the cache to
+     * make room for other frames.
+     */
+    public long getEvictionCount()
+    {
+        return evictionCount.get();
+    }
+
+
+    /**
+     * Returns the number of frames that are currently cached.
+     */
+    public int getSize()
+    {
+        int size = 0;
+        for (int index = 0; index < segments.length; index++)
+        {
+            Segment segment = segments[index];
+            synchronized (segment)
+            {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+
+    /**
+     * Discards all cached frames. The counts remain unchanged.
+     */
+    public void clear()
+    {
+        for (int index = 0; index < segments.length; index++)
+        {
+            Segment segment = segments[index];
+            synchronized (segment)
+            {
+                segment.clear();
+            }
+        }
+    }
+
+
+    // Implementations for AbstractFrameRemapper.
+
+    public List<FrameInfo> transform(FrameInfo obfuscatedFrame)
+    {
+        FrameKey key     = new FrameKey(obfuscatedFrame);
+        Segment  segment = segments[(key.hashCode() & 0x7fffffff) % segments.length];
+
+        List<FrameInfo> originalFrames;
+        synchronized (segment)
+        {
+            originalFrames = segment.get(key);
+        }
+
+        if (originalFrames != null)
+        {
+            hitCount.incrementAndGet();
+
+            return originalFrames;
+        }
+
+        missCount.incrementAndGet();
+
+        // Transform the frame outside of the lock. Another thread may be
+        // doing the same, in which case the results are the same anyway.
+        originalFrames = frameRemapper.transform(obfuscatedFrame);
+        if (originalFrames != null)
+        {
+            originalFrames = Collections.unmodifiableList(originalFrames);
+
+            synchronized (segment)
+            {
+                segment.put(key, originalFrames);
+            }
+        }
+
+        return originalFrames;
+    }
+
+
+    public String originalClassName(String obfuscatedClassName)
+    {
+        return frameRemapper.originalClassName(obfuscatedClassName);
+    }
+
+
+    Collection<FieldInfo> fieldInfos(String originalClassName,
+                                     String obfuscatedFieldName)
+    {
+        return frameRemapper.fieldInfos(originalClassName,
+                                        obfuscatedFieldName);
+    }
+
+
+    Collection<MethodInfo> methodInfos(String originalClassName,
+                                       String obfuscatedMethodName,
+                                       int    obfuscatedLineNumber)
+    {
+        return frameRemapper.methodInfos(originalClassName,
+                                         obfuscatedMethodName,
+                                         obfuscatedLineNumber);
+    }
+
+
+    /**
+     * This class holds the most recently used frames of a segment of the
+     * cache. Accesses must be synchronized on the segment.
+     */
+    private class Segment
+    {
+        // Frame key -> transformed frames, in order of access.
+        private final LinkedHashMap<FrameKey,List<FrameInfo>> frames;
+
+
+        public Segment(final int maximumSize)
+        {
+            frames = new LinkedHashMap<FrameKey,List<FrameInfo>>(16, 0.75f, true)
+            {
+                protected boolean removeEldestEntry(Map.Entry<FrameKey,List<FrameInfo>> eldest)
+                {
+                    if (size() > maximumSize)
+                    {
+                        evictionCount.incrementAndGet();
+
+                        return true;
+                    }
+
+                    return false;
+                }
+            };
+        }
+
+
+        public List<FrameInfo> get(FrameKey key)
+        {
+            return frames.get(key);
+        }
+
+
+        public void put(FrameKey key, List<FrameInfo> originalFrames)
+        {
+            frames.put(key, originalFrames);
+        }
+
+
+        public int size()
+        {
+            return frames.size();
+        }
+
+
+        public void clear()
+        {
+            frames.clear();
+        }
+    }
+
+
+    /**
+     * This class represents the parts of an obfuscated frame that determine
+     * its transformed frames.
+     */
+    private static class FrameKey
+    {
+        private final String  className;
+        private final int     lineNumber;
+        private final String  type;
+        private final String  fieldName;
+        private final String  methodName;
+        private final String  arguments;
+        private final boolean unknownSource;
+        private final int     hashCode;
+
+
+        public FrameKey(FrameInfo frameInfo)
+        {
+            className  = frameInfo.getClassName();
+            lineNumber = frameInfo.getLineNumber();
+            type       = frameInfo.getType();
+            fieldName  = frameInfo.getFieldName();
+            methodName = frameInfo.getMethodName();
+            arguments  = frameInfo.getArguments();
+
+            // Only the absence of a source file name matters, not the name.
+            unknownSource = "Unknown Source".equals(frameInfo.getSourceFile());
+
+            hashCode = Objects.hash(className,
+                                    lineNumber,
+                                    type,
+                                    fieldName,
+                                    methodName,
+                                    arguments,
+                                    unknownSource);
+        }
+
+
+        // Implementations for Object.
+
+        public boolean equals(Object object)
+        {
+            if (this == object)
+            {
+                return true;
+            }
+
+            if (!(object instanceof FrameKey))
+            {
+                return false;
+            }
+
+            FrameKey other = (FrameKey)object;
+
+            return hashCode      == other.hashCode             &&
+                   lineNumber    == other.lineNumber           &&
+                   unknownSource == other.unknownSource        &&
+                   Objects.equals(className,  other.className)  &&
+                   Objects.equals(type,       other.type)       &&
+                   Objects.equals(fieldName,  other.fieldName)  &&
+                   Objects.equals(methodName, other.methodName) &&
+                   Objects.equals(arguments,  other.arguments);
+        }
+
+
+        public int hashCode()
+        {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,663 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.util.Arrays;
+
+/**
+ * This class recognizes the most common lines for the default regular
+ * expressions of ReTrace without running the regular expressions: stack
+ * frames like "at a.b.c(SourceFile:12)" and exception headers like
+ * "a.b.c: message" or "Caused by: a.b.c". It records the same group offsets
+ * as the regular expressions. For any line that it isn't certain about, it
+ * returns {@link #UNKNOWN}, so the caller can fall back to the regular
+ * expression.
+ *
+ * @see ReTrace#REGULAR_EXPRESSION
+ * @see ReTrace#REGULAR_EXPRESSION2
+ */
+final class DefaultFrameScanner
+{
+    static final int UNKNOWN  = -1;
+    static final int NO_MATCH = 0;
+    static final int MATCH    = 1;
+
+    // The expression types of the default regular expressions, as parsed
+    // by FramePattern.
+    private static final String EXPRESSION_TYPES  = "cmslcctcftcftcmacmacfc";
+    private static final String EXPRESSION_TYPES2 = "cma";
+
+    // The numbers of groups in the default regular expressions.
+    static final int GROUP_COUNT  = EXPRESSION_TYPES.length();
+    static final int GROUP_COUNT2 = EXPRESSION_TYPES2.length();
+
+    // Group indices in the primary regular expression.
+    private static final int AT_CLASS                 = 0;
+    private static final int AT_METHOD                = 1;
+    private static final int AT_SOURCE_FILE           = 2;
+    private static final int AT_LINE_NUMBER           = 3;
+    private static final int RETURN_VALUE_NULL1_CLASS = 16;
+    private static final int THROW_CLASS              = 21;
+
+    // Group indices in the secondary regular expression.
+    private static final int RETURN_VALUE_NULL2_CLASS = 0;
+
+    // The literals of the helpful NullPointerException messages with
+    // return values.
+    private static final String CANNOT_INVOKE   = "java.lang.NullPointerException: Cannot invoke \"";
+    static final String         RETURN_VALUE_OF = "\" because the return value of \"";
+    static final String         IS_NULL         = "\" is null";
+
+    private final boolean secondary;
+
+
+    /**
+     * Returns a scanner for the given regular expression with the given
+     * expression types, or null if it isn't one of the default regular
+     * expressions.
+     */
+    static DefaultFrameScanner forExpression(String regularExpression,
+                                             String expressionTypes)
+    {
+        return
+            regularExpression.equals(ReTrace.REGULAR_EXPRESSION) &&
+            expressionTypes.equals(EXPRESSION_TYPES)                ? new DefaultFrameScanner(false) :
+            regularExpression.equals(ReTrace.REGULAR_EXPRESSION2) &&
+            expressionTypes.equals(EXPRESSION_TYPES2)               ? new DefaultFrameScanner(true) :
+                                                                      null;
+    }
+
+
+    private DefaultFrameScanner(boolean secondary)
+    {
+        this.secondary = secondary;
+    }
+
+
+    /**
+     * Scans the given line, recording the start and end offsets of the
+     * groups in the given arrays, with -1 for groups that don't participate.
+     * @return {@link #MATCH}, {@link #NO_MATCH}, or {@link #UNKNOWN} if the
+     *         regular expression should decide.
+     */
+    int scan(String line, int[] startIndices, int[] endIndices)
+    {
+        if (secondary)
+        {
+            // The secondary expression only matches helpful
+            // NullPointerException messages.
+            return line.indexOf("NullPointerException") < 0 ?
+                NO_MATCH :
+                UNKNOWN;
+        }
+
+        // The regular expression treats line terminators specially.
+        if (containsLineTerminator(line))
+        {
+            return UNKNOWN;
+        }
+
+        Arrays.fill(startIndices, -1);
+        Arrays.fill(endIndices,   -1);
+
+        int result = scanAt(line, startIndices, endIndices);
+        if (result == UNKNOWN)
+        {
+            result = scanThrow(line, startIndices, endIndices);
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Scans a helpful NullPointerException message with two invocations,
+     * like 'java.lang.NullPointerException: Cannot invoke "a.b(int)" because
+     * the return value of "c.d()" is null', which the primary regular
+     * expression matches for the second invocation, and the secondary regular
+     * expression for the first invocation. Since the invocations don't
+     * overlap, the second one can be remapped without changing the offsets of
+     * the first one.
+     * @param line          the line.
+     * @param startIndices1 the start offsets of the groups of the primary
+     *                      regular expression, to be filled out.
+     * @param endIndices1   the end offsets of the groups of the primary
+     *                      regular expression, to be filled out.
+     * @param startIndices2 the start offsets of the groups of the secondary
+     *                      regular expression, to be filled out.
+     * @param endIndices2   the end offsets of the groups of the secondary
+     *                      regular expression, to be filled out.
+     * @return an offset in the line that separates the groups of the
+     *         secondary regular expression from the groups of the primary
+     *         regular expression, or -1 if the line doesn't have the expected
+     *         shape.
+     */
+    static int scanReturnValueNull(String line,
+                                   int[]  startIndices1,
+                                   int[]  endIndices1,
+                                   int[]  startIndices2,
+                                   int[]  endIndices2)
+    {
+        // Make sure none of the earlier alternatives of the primary regular
+        // expression can match, and that the message is the first one.
+        int messageStart = line.indexOf(CANNOT_INVOKE);
+        if (messageStart < 0                                   ||
+            line.indexOf("NullPointerException") !=
+            messageStart + "java.lang.".length()               ||
+            line.indexOf("ClassCastException")   >= 0          ||
+            line.indexOf("Attempt to")           >= 0          ||
+            containsAt(line)                                   ||
+            containsLineTerminator(line))
+        {
+            return -1;
+        }
+
+        // The message must start at a word boundary.
+        if (messageStart > 0)
+        {
+            char c = line.charAt(messageStart - 1);
+            if (c != ' '  &&
+                c != '\t' &&
+                c != ':'  &&
+                c != '"')
+            {
+                return -1;
+            }
+        }
+
+        // Find the two invocations, without any quotes.
+        int invocation1Start = messageStart + CANNOT_INVOKE.length();
+        int invocation1End   = line.indexOf('"', invocation1Start);
+        if (invocation1End < 0 ||
+            !line.startsWith(RETURN_VALUE_OF, invocation1End))
+        {
+            return -1;
+        }
+
+        int invocation2Start = invocation1End + RETURN_VALUE_OF.length();
+        int invocation2End   = line.indexOf('"', invocation2Start);
+        if (invocation2End < 0 ||
+            invocation2End + IS_NULL.length() != line.length() ||
+            !line.startsWith(IS_NULL, invocation2End))
+        {
+            return -1;
+        }
+
+        Arrays.fill(startIndices1, -1);
+        Arrays.fill(endIndices1,   -1);
+        Arrays.fill(startIndices2, -1);
+        Arrays.fill(endIndices2,   -1);
+
+        return
+            scanInvocation(line, invocation1Start, invocation1End, startIndices2, endIndices2, RETURN_VALUE_NULL2_CLASS) &&
+            scanInvocation(line, invocation2Start, invocation2End, startIndices1, endIndices1, RETURN_VALUE_NULL1_CLASS) ?
+                invocation1End :
+                -1;
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Scans an invocation like "a.b.c(int, java.lang.String)" in the given
+     * piece of the given line, recording the offsets of its class, method, and
+     * arguments in the given arrays, starting at the given group index.
+     * @return whether the piece is a simple invocation.
+     */
+    private static boolean scanInvocation(String line,
+                                          int    start,
+                                          int    end,
+                                          int[]  startIndices,
+                                          int[]  endIndices,
+                                          int    groupIndex)
+    {
+        // Find the class name and the method name, up to the parenthesis.
+        int index     = start;
+        int lastDot   = -1;
+        int partStart = start;
+        while (index < end)
+        {
+            char c = line.charAt(index);
+            if (c == '.')
+            {
+                if (index == partStart)
+                {
+                    return false;
+                }
+
+                lastDot   = index;
+                partStart = index + 1;
+            }
+            else if (!isClassCharacter(c))
+            {
+                break;
+            }
+
+            index++;
+        }
+
+        if (lastDot < 0          ||
+            index   == partStart ||
+            index   == end       ||
+            line.charAt(index)   != '(' ||
+            line.charAt(end - 1) != ')')
+        {
+            return false;
+        }
+
+        int openIndex  = index;
+        int closeIndex = end - 1;
+
+        // Check the arguments: class names separated by a comma and a
+        // space. Commas can be part of class names too.
+        partStart = openIndex + 1;
+        for (index = openIndex + 1; index < closeIndex; index++)
+        {
+            char c = line.charAt(index);
+            if (c == '.' || c == ' ')
+            {
+                // A space must follow a comma, which must follow a
+                // non-empty part.
+                if (index == partStart ||
+                    c == ' ' &&
+                    (line.charAt(index - 1) != ',' ||
+                     index - 1 == partStart))
+                {
+                    return false;
+                }
+
+                partStart = index + 1;
+            }
+            else if (!isClassCharacter(c))
+            {
+                return false;
+            }
+        }
+
+        if (index == partStart &&
+            closeIndex > openIndex + 1)
+        {
+            return false;
+        }
+
+        startIndices[groupIndex]     = start;
+        endIndices[groupIndex]       = lastDot;
+        startIndices[groupIndex + 1] = lastDot + 1;
+        endIndices[groupIndex + 1]   = openIndex;
+        startIndices[groupIndex + 2] = openIndex + 1;
+        endIndices[groupIndex + 2]   = closeIndex;
+
+        return true;
+    }
+
+
+    /**
+     * Scans a line like "    at a.b.c(SourceFile:12)", which the first
+     * alternative of the regular expression always matches.
+     * @return {@link #MATCH} or {@link #UNKNOWN}.
+     */
+    private int scanAt(String line, int[] startIndices, int[] endIndices)
+    {
+        int length = line.length();
+
+        // Skip any leading indentation.
+        int index = 0;
+        while (index < length &&
+               (line.charAt(index) == ' ' ||
+                line.charAt(index) == '\t'))
+        {
+            index++;
+        }
+
+        if (!line.startsWith("at", index))
+        {
+            return UNKNOWN;
+        }
+
+        index += 2;
+
+        int whitespaceStart = index;
+        while (index < length &&
+               isWhitespace(line.charAt(index)))
+        {
+            index++;
+        }
+
+        if (index == whitespaceStart)
+        {
+            return UNKNOWN;
+        }
+
+        // Find the class name and the method name, up to the parenthesis.
+        int classStart = index;
+        int lastDot    = -1;
+        int partStart  = index;
+        while (index < length)
+        {
+            char c = line.charAt(index);
+            if (c == '.')
+            {
+                if (index == partStart)
+                {
+                    return UNKNOWN;
+                }
+
+                lastDot   = index;
+                partStart = index + 1;
+            }
+            else if (!isClassCharacter(c))
+            {
+                break;
+            }
+
+            index++;
+        }
+
+        if (lastDot < 0          ||
+            index   == partStart ||
+            index   == length    ||
+            line.charAt(index) != '(')
+        {
+            return UNKNOWN;
+        }
+
+        int openIndex  = index;
+        int closeIndex = line.indexOf(')', openIndex + 1);
+        if (closeIndex < 0 ||
+            line.indexOf('(', openIndex + 1) >= 0 &&
+            line.indexOf('(', openIndex + 1) < closeIndex)
+        {
+            return UNKNOWN;
+        }
+
+        // Only allow trailing whitespace.
+        for (index = closeIndex + 1; index < length; index++)
+        {
+            if (!isWhitespace(line.charAt(index)))
+            {
+                return UNKNOWN;
+            }
+        }
+
+        // Parse the source file and the line number, if any.
+        int sourceFileStart = -1;
+        int sourceFileEnd   = -1;
+        int lineNumberStart = -1;
+        int lineNumberEnd   = -1;
+
+        index = openIndex + 1;
+        if (index < closeIndex)
+        {
+            char c = line.charAt(index);
+            if (isDigit(c))
+            {
+                // Just a line number. The source file group still matches,
+                // with an empty source file.
+                sourceFileStart = index;
+                sourceFileEnd   = index;
+                lineNumberStart = index;
+                lineNumberEnd   = digitsEnd(line, index, closeIndex);
+                if (lineNumberEnd != closeIndex)
+                {
+                    return UNKNOWN;
+                }
+            }
+            else if (c != ':')
+            {
+                // A source file, optionally with a line number.
+                sourceFileStart = index;
+                sourceFileEnd   = line.indexOf(':', index);
+                if (sourceFileEnd < 0 ||
+                    sourceFileEnd > closeIndex)
+                {
+                    sourceFileEnd = closeIndex;
+                }
+                else
+                {
+                    lineNumberStart = sourceFileEnd + 1;
+                    index = lineNumberStart < closeIndex &&
+                            line.charAt(lineNumberStart) == '-' ?
+                        lineNumberStart + 1 :
+                        lineNumberStart;
+
+                    lineNumberEnd = digitsEnd(line, index, closeIndex);
+                    if (lineNumberEnd == index ||
+                        lineNumberEnd != closeIndex)
+                    {
+                        return UNKNOWN;
+                    }
+                }
+            }
+            else
+            {
+                return UNKNOWN;
+            }
+        }
+
+        startIndices[AT_CLASS]       = classStart;
+        endIndices[AT_CLASS]         = lastDot;
+        startIndices[AT_METHOD]      = lastDot + 1;
+        endIndices[AT_METHOD]        = openIndex;
+        startIndices[AT_SOURCE_FILE] = sourceFileStart;
+        endIndices[AT_SOURCE_FILE]   = sourceFileEnd;
+        startIndices[AT_LINE_NUMBER] = lineNumberStart;
+        endIndices[AT_LINE_NUMBER]   = lineNumberEnd;
+
+        return MATCH;
+    }
+
+
+    /**
+     * Scans a line like "a.b.c: message" or "Caused by: a.b.c", which only
+     * the last alternative of the regular expression can match, if the
+     * line doesn't contain any of the literals of the other alternatives.
+     * @return {@link #MATCH}, {@link #NO_MATCH}, or {@link #UNKNOWN}.
+     */
+    private int scanThrow(String line, int[] startIndices, int[] endIndices)
+    {
+        if (line.indexOf("ClassCastException")   >= 0 ||
+            line.indexOf("NullPointerException") >= 0 ||
+            line.indexOf("because")              >= 0 ||
+            containsAt(line))
+        {
+            return UNKNOWN;
+        }
+
+        int length = line.length();
+
+        // Try the optional prefix up to a colon or quote and whitespace,
+        // as short as possible.
+        for (int index = 0; index < length - 1; index++)
+        {
+            char c = line.charAt(index);
+            if ((c == ':' || c == '"') &&
+                isWhitespace(line.charAt(index + 1)))
+            {
+                int classStart = index + 1;
+                while (classStart < length &&
+                       isWhitespace(line.charAt(classStart)))
+                {
+                    classStart++;
+                }
+
+                int classEnd = throwClassEnd(line, classStart);
+                if (classEnd >= 0)
+                {
+                    startIndices[THROW_CLASS] = classStart;
+                    endIndices[THROW_CLASS]   = classEnd;
+
+                    return MATCH;
+                }
+            }
+        }
+
+        // Try without prefix.
+        int classEnd = throwClassEnd(line, 0);
+        if (classEnd >= 0)
+        {
+            startIndices[THROW_CLASS] = 0;
+            endIndices[THROW_CLASS]   = classEnd;
+
+            return MATCH;
+        }
+
+        return NO_MATCH;
+    }
+
+
+    /**
+     * Returns the end of the class name at the given offset, if it is
+     * followed by the end of the line or by a colon, or -1 otherwise.
+     */
+    private static int throwClassEnd(String line, int index)
+    {
+        int length    = line.length();
+        int partStart = index;
+        while (index < length)
+        {
+            char c = line.charAt(index);
+            if (c == '.')
+            {
+                if (index == partStart)
+                {
+                    return -1;
+                }
+
+                partStart = index + 1;
+            }
+            else if (!isClassCharacter(c))
+            {
+                break;
+            }
+
+            index++;
+        }
+
+        return index > partStart &&
+               (index == length || line.charAt(index) == ':') ?
+            index :
+            -1;
+    }
+
+
+    /**
+     * Returns whether the given line contains "at" followed by whitespace.
+     */
+    private static boolean containsAt(String line)
+    {
+        int index = 0;
+        while (true)
+        {
+            index = line.indexOf("at", index);
+            if (index < 0 || index + 2 >= line.length())
+            {
+                return false;
+            }
+
+            if (isWhitespace(line.charAt(index + 2)))
+            {
+                return true;
+            }
+
+            index++;
+        }
+    }
+
+
+    /**
+     * Returns whether the given line contains any characters that the
+     * regular expression doesn't consider as part of a line.
+     */
+    static boolean containsLineTerminator(String line)
+    {
+        for (int index = 0; index < line.length(); index++)
+        {
+            char c = line.charAt(index);
+            if (c == '\n'     ||
+                c == '\r'     ||
+                c == '\u0085' ||
+                c == '\u2028' ||
+                c == '\u2029')
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Returns the end of the run of digits at the given offset, before the
+     * given limit.
+     */
+    private static int digitsEnd(String line, int index, int limit)
+    {
+        while (index < limit &&
+               isDigit(line.charAt(index)))
+        {
+            index++;
+        }
+
+        return index;
+    }
+
+
+    /**
+     * Returns whether the given character can be part of a class name or of
+     * a class member name, like in FramePattern.
+     */
+    private static boolean isClassCharacter(char c)
+    {
+        return !isWhitespace(c) &&
+               c != '"'         &&
+               c != ':'         &&
+               c != '.'         &&
+               c != '/'         &&
+               c != '('         &&
+               c != ')';
+    }
+
+
+    /**
+     * Returns whether the given character is whitespace, like \s in a
+     * regular expression.
+     */
+    private static boolean isWhitespace(char c)
+    {
+        return c == ' '    ||
+               c == '\t'   ||
+               c == '\n'   ||
+               c == '\013' ||
+               c == '\f'   ||
+               c == '\r';
+    }
+
+
+    /**
+     * Returns whether the given character is a digit, like \d in a regular
+     * expression.
+     */
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+}
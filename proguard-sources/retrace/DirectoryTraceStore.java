@@ -0,0 +1,211 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * This TraceStore keeps retraced stack traces as files in a directory, so
+ * they are preserved between runs. It holds about a given maximum number of
+ * them, discarding the least recently used ones, based on the modification
+ * times of the files. It only prunes the directory once the number of stack
+ * traces exceeds the maximum by a tenth, so adding a stack trace doesn't
+ * need to list the directory each time.
+ * <p>
+ * Several processes can share the same directory. Each file is written
+ * completely before it becomes visible, so a reader never sees a partial
+ * stack trace.
+ */
+public class DirectoryTraceStore
+implements   TraceStore
+{
+    private static final String FILE_EXTENSION      = ".txt";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+
+    private final File directory;
+    private final int  maximumCount;
+    private final int  pruneCount;
+
+    // The estimated number of stack traces in the directory. Other
+    // processes may add or delete files in the meantime.
+    private int count;
+
+
+    /**
+     * Creates a new DirectoryTraceStore.
+     * @param directory    the directory for the stack traces. It is created
+     *                     if it doesn't exist yet.
+     * @param maximumCount the maximum number of stack traces to keep.
+     */
+    public DirectoryTraceStore(File directory,
+                               int  maximumCount) throws IOException
+    {
+        this.directory    = directory;
+        this.maximumCount = maximumCount;
+        this.pruneCount   = maximumCount + maximumCount / 10;
+
+        Files.createDirectories(directory.toPath());
+
+        File[] files = listFiles();
+        this.count = files == null ? 0 : files.length;
+    }
+
+
+    // Implementations for TraceStore.
+
+    public String get(String fingerprint) throws IOException
+    {
+        File file = file(fingerprint);
+
+        byte[] bytes;
+        try
+        {
+            bytes = Files.readAllBytes(file.toPath());
+        }
+        catch (NoSuchFileException e)
+        {
+            return null;
+        }
+
+        // Mark the stack trace as recently used.
+        file.setLastModified(System.currentTimeMillis());
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    public void put(String fingerprint, String retracedTrace) throws IOException
+    {
+        File    file  = file(fingerprint);
+        boolean added = !file.exists();
+
+        // Write a temporary file and then move it in place.
+        File tempFile = File.createTempFile(fingerprint, TEMP_FILE_EXTENSION, directory);
+        try
+        {
+            Files.write(tempFile.toPath(),
+                        retracedTrace.getBytes(StandardCharsets.UTF_8));
+
+            Files.move(tempFile.toPath(),
+                       file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            tempFile.delete();
+        }
+
+        if (added)
+        {
+            countAdded();
+        }
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns the file for the stack trace with the given fingerprint.
+     */
+    private File file(String fingerprint)
+    {
+        return new File(directory, fingerprint + FILE_EXTENSION);
+    }
+
+
+    /**
+     * Counts an added stack trace, and deletes the least recently used stack
+     * traces if there are too many.
+     */
+    private synchronized void countAdded()
+    {
+        if (++count > pruneCount)
+        {
+            discardOldest();
+        }
+    }
+
+
+    /**
+     * Deletes the least recently used stack traces while there are more
+     * than the maximum number, and updates the count.
+     */
+    private void discardOldest()
+    {
+        File[] files = listFiles();
+        if (files == null)
+        {
+            count = 0;
+            return;
+        }
+
+        count = Math.min(files.length, maximumCount);
+
+        if (files.length <= maximumCount)
+        {
+            return;
+        }
+
+        // Sort the files from least recently used to most recently used.
+        final long[] lastModified = new long[files.length];
+        Integer[]    indices      = new Integer[files.length];
+        for (int index = 0; index < files.length; index++)
+        {
+            lastModified[index] = files[index].lastModified();
+            indices[index]      = index;
+        }
+
+        Arrays.sort(indices, new Comparator<Integer>()
+        {
+            public int compare(Integer index1, Integer index2)
+            {
+                return Long.compare(lastModified[index1], lastModified[index2]);
+            }
+        });
+
+        // Another process may delete the same files, which is fine.
+        for (int index = 0; index < files.length - maximumCount; index++)
+        {
+            files[indices[index]].delete();
+        }
+    }
+
+
+    /**
+     * Returns the files of the stack traces in the directory, or null if
+     * the directory can't be listed.
+     */
+    private File[] listFiles()
+    {
+        return directory.listFiles(new FileFilter()
+        {
+            public boolean accept(File file)
+            {
+                return file.getName().endsWith(FILE_EXTENSION);
+            }
+        });
+    }
+}
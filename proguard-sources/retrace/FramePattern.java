@@ -27,6 +27,14 @@ import java.util.regex.*;
 /**
  * This class can parse and format lines that represent stack frames
  * matching a given regular expression.
+ * <p>
+ * Each thread reuses a single matcher, and remembers the offsets of the
+ * groups in the last line that it has matched, so formatting a line right
+ * after parsing it doesn't need to match it again. For the default regular
+ * expressions of ReTrace, a DefaultFrameScanner recognizes the most common
+ * lines without running the regular expression at all. For other lines, a
+ * LinePrefilter first checks that they contain the literal text that the
+ * regular expression requires. Instances can be shared between threads.
  *
  * @author Eric Lafortune
  */
@@ -44,11 +52,28 @@ public class FramePattern
     private static final String REGEX_MEMBER      = "<?[^\\s\":./()]+>?";
     private static final String REGEX_ARGUMENTS   = "(?:" + REGEX_TYPE + "(?:\\s*,\\s*" + REGEX_TYPE + ")*)?";
 
+    private final String   regularExpression;
     private final char[]   expressionTypes     = new char[32];
     private final int      expressionTypeCount;
     private final Pattern  pattern;
     private final boolean  verbose;
 
+    // Optional scanner that avoids the regular expression for common lines.
+    private final DefaultFrameScanner scanner;
+
+    // Optional filter that rejects lines without the required literals.
+    private final LinePrefilter       prefilter;
+
+    // The match context of each thread. The contexts don't refer back to
+    // this pattern, so the thread-local entries don't keep it alive.
+    private final ThreadLocal<MatchContext> matchContexts = new ThreadLocal<MatchContext>()
+    {
+        protected MatchContext initialValue()
+        {
+            return new MatchContext(pattern, expressionTypeCount);
+        }
+    };
+
 
     /**
      * Creates a new FramePattern.
@@ -120,9 +145,14 @@ public class FramePattern
         // Copy the last literal piece of the input line.
         expressionBuffer.append(regularExpression.substring(index));
 
+        this.regularExpression   = regularExpression;
         this.expressionTypeCount = expressionTypeCount;
         this.pattern             = Pattern.compile(expressionBuffer.toString());
         this.verbose             = verbose;
+        this.scanner             =
+            DefaultFrameScanner.forExpression(regularExpression,
+                                              new String(expressionTypes, 0, expressionTypeCount));
+        this.prefilter           = LinePrefilter.create(regularExpression);
     }
 
 
@@ -135,13 +165,51 @@ public class FramePattern
     public FrameInfo parse(String line)
     {
         // Try to match it against the regular expression.
-        Matcher matcher = pattern.matcher(line);
-
-        if (!matcher.matches())
+        MatchContext matchContext = match(line);
+        if (matchContext == null)
         {
             return null;
         }
 
+        return parse(line,
+                     matchContext.startIndices,
+                     matchContext.endIndices);
+    }
+
+
+    /**
+     * Records the given group offsets as the match of the given line in the
+     * current thread, so parsing or formatting the line doesn't need to
+     * match it again. The caller must be sure that the regular expression
+     * would match the line with these offsets.
+     */
+    void remember(String line, int[] startIndices, int[] endIndices)
+    {
+        MatchContext matchContext = matchContexts.get();
+
+        matchContext.line    = line;
+        matchContext.matches = true;
+
+        System.arraycopy(startIndices, 0, matchContext.startIndices, 0, expressionTypeCount);
+        System.arraycopy(endIndices,   0, matchContext.endIndices,   0, expressionTypeCount);
+    }
+
+
+    /**
+     * Returns the regular expression from which this pattern was created.
+     */
+    String getRegularExpression()
+    {
+        return regularExpression;
+    }
+
+
+    /**
+     * Parses all frame information from a given line, with the given offsets
+     * of the groups of the regular expression.
+     */
+    FrameInfo parse(String line, int[] startIndices, int[] endIndices)
+    {
         // The line matched the regular expression.
         String className  = null;
         String sourceFile = null;
@@ -155,44 +223,44 @@ public class FramePattern
         // arguments.
         for (int expressionTypeIndex = 0; expressionTypeIndex < expressionTypeCount; expressionTypeIndex++)
         {
-            int startIndex = matcher.start(expressionTypeIndex + 1);
+            int startIndex = startIndices[expressionTypeIndex];
             if (startIndex >= 0)
             {
-                String match = matcher.group(expressionTypeIndex + 1);
+                int endIndex = endIndices[expressionTypeIndex];
 
                 char expressionType = expressionTypes[expressionTypeIndex];
                 switch (expressionType)
                 {
                     case 'c':
-                        className = match;
+                        className = line.substring(startIndex, endIndex);
                         break;
 
                     case 'C':
-                        className = ClassUtil.externalClassName(match);
+                        className = ClassUtil.externalClassName(line.substring(startIndex, endIndex));
                         break;
 
                     case 's':
-                        sourceFile = match;
+                        sourceFile = line.substring(startIndex, endIndex);
                         break;
 
                     case 'l':
-                        lineNumber = Integer.parseInt(match);
+                        lineNumber = Integer.parseInt(line, startIndex, endIndex, 10);
                         break;
 
                     case 't':
-                        type = match;
+                        type = line.substring(startIndex, endIndex);
                         break;
 
                     case 'f':
-                        fieldName = match;
+                        fieldName = line.substring(startIndex, endIndex);
                         break;
 
                     case 'm':
-                        methodName = match;
+                        methodName = line.substring(startIndex, endIndex);
                         break;
 
                     case 'a':
-                        arguments = match;
+                        arguments = line.substring(startIndex, endIndex);
                         break;
                 }
             }
@@ -219,27 +287,61 @@ public class FramePattern
      */
     public String format(String line, FrameInfo frameInfo)
     {
-        // Try to match it against the regular expression.
-        Matcher matcher = pattern.matcher(line);
-
-        if (!matcher.matches())
+        // Try to match it against the regular expression, unless we've
+        // just done so.
+        MatchContext matchContext = match(line);
+        if (matchContext == null)
         {
             return null;
         }
 
-        StringBuffer formattedBuffer = new StringBuffer();
+        StringBuilder formattedBuffer = new StringBuilder(line.length() + 64);
+
+        format(formattedBuffer,
+               line,
+               0,
+               line.length(),
+               matchContext.startIndices,
+               matchContext.endIndices,
+               frameInfo);
 
-        int lineIndex = 0;
+        // Return the formatted line.
+        return formattedBuffer.toString();
+    }
+
+
+    /**
+     * Appends the given piece of the given template line to the given buffer,
+     * with the groups of the regular expression in that piece replaced by
+     * the given frame information.
+     * @param formattedBuffer the buffer to which the result is appended.
+     * @param line            the template line.
+     * @param lineStartIndex  the start offset of the piece in the line.
+     * @param lineEndIndex    the end offset of the piece in the line.
+     * @param startIndices    the start offsets of the groups in the line.
+     * @param endIndices      the end offsets of the groups in the line.
+     * @param frameInfo       information about a stack frame.
+     */
+    void format(StringBuilder formattedBuffer,
+                String        line,
+                int           lineStartIndex,
+                int           lineEndIndex,
+                int[]         startIndices,
+                int[]         endIndices,
+                FrameInfo     frameInfo)
+    {
+        int lineIndex = lineStartIndex;
         for (int expressionTypeIndex = 0; expressionTypeIndex < expressionTypeCount; expressionTypeIndex++)
         {
-            int startIndex = matcher.start(expressionTypeIndex + 1);
-            if (startIndex >= 0)
+            int startIndex = startIndices[expressionTypeIndex];
+            if (startIndex >= lineStartIndex &&
+                (startIndex < lineEndIndex ||
+                 lineEndIndex == line.length()))
             {
-                int    endIndex = matcher.end(expressionTypeIndex + 1);
-                String match    = matcher.group(expressionTypeIndex + 1);
+                int endIndex = endIndices[expressionTypeIndex];
 
                 // Copy a literal piece of the input line.
-                formattedBuffer.append(line.substring(lineIndex, startIndex));
+                formattedBuffer.append(line, lineIndex, startIndex);
 
                 // Copy a matched and translated piece of the input line.
                 char expressionType = expressionTypes[expressionTypeIndex];
@@ -302,9 +404,96 @@ public class FramePattern
         }
 
         // Copy the last literal piece of the input line.
-        formattedBuffer.append(line.substring(lineIndex));
+        formattedBuffer.append(line, lineIndex, lineEndIndex);
+    }
 
-        // Return the formatted line.
-        return formattedBuffer.toString();
+
+    // Small utility methods.
+
+    /**
+     * Matches the given line against the regular expression, reusing the
+     * match of this thread if it was for an equal line.
+     * @return the match context of this thread, with the offsets of the
+     *         groups, or null if the line doesn't match a stack frame.
+     */
+    private MatchContext match(String line)
+    {
+        MatchContext matchContext = matchContexts.get();
+
+        if (!line.equals(matchContext.line))
+        {
+            matchContext.match(line, expressionTypeCount, scanner, prefilter);
+        }
+
+        return matchContext.matches ? matchContext : null;
+    }
+
+
+    /**
+     * This class contains the matcher of a thread, and the offsets of the
+     * groups in the line that it has matched last.
+     */
+    private static class MatchContext
+    {
+        private final Matcher matcher;
+        private final int[]   startIndices;
+        private final int[]   endIndices;
+
+        private String  line;
+        private boolean matches;
+
+
+        /**
+         * Creates a new MatchContext for the given pattern.
+         */
+        MatchContext(Pattern pattern, int expressionTypeCount)
+        {
+            this.matcher      = pattern.matcher("");
+            this.startIndices = new int[expressionTypeCount];
+            this.endIndices   = new int[expressionTypeCount];
+        }
+
+
+        /**
+         * Matches the given line and records the offsets of the groups,
+         * trying the given optional scanner and prefilter first.
+         */
+        void match(String              line,
+                   int                 expressionTypeCount,
+                   DefaultFrameScanner scanner,
+                   LinePrefilter       prefilter)
+        {
+            this.line = line;
+
+            // Try the scanner first, if any.
+            int result = scanner == null ?
+                DefaultFrameScanner.UNKNOWN :
+                scanner.scan(line, startIndices, endIndices);
+
+            if (result != DefaultFrameScanner.UNKNOWN)
+            {
+                matches = result == DefaultFrameScanner.MATCH;
+                return;
+            }
+
+            // Skip the regular expression if the line lacks its literals.
+            if (prefilter != null &&
+                !prefilter.accepts(line))
+            {
+                matches = false;
+                return;
+            }
+
+            matches = matcher.reset(line).matches();
+
+            if (matches)
+            {
+                for (int index = 0; index < expressionTypeCount; index++)
+                {
+                    startIndices[index] = matcher.start(index + 1);
+                    endIndices[index]   = matcher.end(index + 1);
+                }
+            }
+        }
     }
 }
@@ -27,225 +27,129 @@ import java.util.*;
 /**
  * This class accumulates mapping information and then transforms stack frames
  * accordingly.
+ * <p>
+ * Instances must not be accessed by other threads while they are being
+ * filled out. Once they are complete, {@link #freeze()} hands their mapping
+ * information over to an immutable remapper that can be shared between any
+ * number of threads.
  *
  * @author Eric Lafortune
  */
-public class FrameRemapper implements MappingProcessor
+public class FrameRemapper
+extends      AbstractFrameRemapper
+implements   MappingProcessor
 {
     // Obfuscated class name -> original class name.
     private final Map<String,String>                      classMap       = new HashMap<String,String>();
 
-    // Original class name -> obfuscated member name -> member info set.
+    // Original class name -> obfuscated field name -> field info set.
     private final Map<String,Map<String,Set<FieldInfo>>>  classFieldMap  = new HashMap<String,Map<String,Set<FieldInfo>>>();
-    private final Map<String,Map<String,Set<MethodInfo>>> classMethodMap = new HashMap<String,Map<String,Set<MethodInfo>>>();
 
+    // Original class name -> method table builder.
+    private final Map<String,MethodTableBuilder>          classMethodMap = new HashMap<String,MethodTableBuilder>();
 
-    /**
-     * Transforms the given obfuscated frame back to one or more original frames.
-     */
-    public List<FrameInfo> transform(FrameInfo obfuscatedFrame)
-    {
-        // First remap the class name.
-        String originalClassName = originalClassName(obfuscatedFrame.getClassName());
-        if (originalClassName == null)
-        {
-            return null;
-        }
-
-        List<FrameInfo> originalFrames = new ArrayList<FrameInfo>();
-
-        // Create any transformed frames with remapped field names.
-        transformFieldInfo(obfuscatedFrame,
-                           originalClassName,
-                           originalFrames);
-
-        // Create any transformed frames with remapped method names.
-        transformMethodInfo(obfuscatedFrame,
-                            originalClassName,
-                            originalFrames);
-
-        if (originalFrames.isEmpty())
-        {
-            String sourceFile = obfuscatedFrame.getSourceFile();
-            // Create a transformed frame with the remapped class name.
-            originalFrames.add(new FrameInfo(originalClassName,
-                                             sourceFile == null ? sourceFileName(originalClassName) :
-                                                     sourceFile.equals("Unknown Source") ?
-                                                             "Unknown Source" :
-                                                             sourceFileName(originalClassName),
-                                             obfuscatedFrame.getLineNumber(),
-                                             obfuscatedFrame.getType(),
-                                             obfuscatedFrame.getFieldName(),
-                                             obfuscatedFrame.getMethodName(),
-                                             obfuscatedFrame.getArguments()));
-        }
+    // The strings of all method tables.
+    private final StringPool                              stringPool     = new StringPool();
 
-        return originalFrames;
-    }
+    private int     memberCount;
+    private boolean frozen;
 
 
     /**
-     * Transforms the obfuscated frame into one or more original frames,
-     * if the frame contains information about a field that can be remapped.
-     * @param obfuscatedFrame     the obfuscated frame.
-     * @param originalFieldFrames the list in which remapped frames can be
-     *                            collected.
+     * Returns the number of class mappings that have been processed.
      */
-    private void transformFieldInfo(FrameInfo       obfuscatedFrame,
-                                    String          originalClassName,
-                                    List<FrameInfo> originalFieldFrames)
+    public int getClassCount()
     {
-        // Class name -> obfuscated field names.
-        Map<String,Set<FieldInfo>> fieldMap = classFieldMap.get(originalClassName);
-        if (fieldMap != null)
-        {
-            // Obfuscated field names -> fields.
-            String obfuscatedFieldName = obfuscatedFrame.getFieldName();
-            Set<FieldInfo> fieldSet = fieldMap.get(obfuscatedFieldName);
-            if (fieldSet != null)
-            {
-                String obfuscatedType = obfuscatedFrame.getType();
-                String originalType   = obfuscatedType == null ? null :
-                    originalType(obfuscatedType);
-
-                // Find all matching fields.
-                Iterator<FieldInfo> fieldInfoIterator = fieldSet.iterator();
-                while (fieldInfoIterator.hasNext())
-                {
-                    FieldInfo fieldInfo = fieldInfoIterator.next();
-                    if (fieldInfo.matches(originalType))
-                    {
-                        originalFieldFrames.add(new FrameInfo(fieldInfo.originalClassName,
-                                                              "Unknown Source".equals(obfuscatedFrame.getSourceFile()) ?
-                                                                      "Unknown Source" :
-                                                                      sourceFileName(fieldInfo.originalClassName),
-                                                              obfuscatedFrame.getLineNumber(),
-                                                              fieldInfo.originalType,
-                                                              fieldInfo.originalName,
-                                                              obfuscatedFrame.getMethodName(),
-                                                              obfuscatedFrame.getArguments()));
-                    }
-                }
-            }
-        }
+        return classMap.size();
     }
 
 
     /**
-     * Transforms the obfuscated frame into one or more original frames,
-     * if the frame contains information about a method that can be remapped.
-     * @param obfuscatedFrame      the obfuscated frame.
-     * @param originalMethodFrames the list in which remapped frames can be
-     *                             collected.
+     * Returns the number of field mappings and method mappings that have
+     * been processed.
      */
-    private void transformMethodInfo(FrameInfo       obfuscatedFrame,
-                                     String          originalClassName,
-                                     List<FrameInfo> originalMethodFrames)
+    public int getMemberCount()
     {
-        // Class name -> obfuscated method names.
-        Map<String,Set<MethodInfo>> methodMap = classMethodMap.get(originalClassName);
-        if (methodMap != null)
-        {
-            // Obfuscated method names -> methods.
-            String obfuscatedMethodName = obfuscatedFrame.getMethodName();
-            Set<MethodInfo> methodSet = methodMap.get(obfuscatedMethodName);
-            if (methodSet != null)
-            {
-                int obfuscatedLineNumber = obfuscatedFrame.getLineNumber();
-
-                String obfuscatedType = obfuscatedFrame.getType();
-                String originalType   = obfuscatedType == null ? null :
-                    originalType(obfuscatedType);
-
-                String obfuscatedArguments = obfuscatedFrame.getArguments();
-                String originalArguments   = obfuscatedArguments == null ? null :
-                    originalArguments(obfuscatedArguments);
-
-                // Find all matching methods.
-                Iterator<MethodInfo> methodInfoIterator = methodSet.iterator();
-                while (methodInfoIterator.hasNext())
-                {
-                    MethodInfo methodInfo = methodInfoIterator.next();
-                    if (methodInfo.matches(obfuscatedLineNumber,
-                                           originalType,
-                                           originalArguments))
-                    {
-                        // Do we have a different original first line number?
-                        // We're allowing unknown values, represented as 0.
-                        int lineNumber = obfuscatedFrame.getLineNumber();
-                        if (methodInfo.originalFirstLineNumber != methodInfo.obfuscatedFirstLineNumber)
-                        {
-                            // Do we have an original line number range and
-                            // sufficient information to shift the line number?
-                            lineNumber = methodInfo.originalLastLineNumber    != 0                                  &&
-                                         methodInfo.originalLastLineNumber    != methodInfo.originalFirstLineNumber &&
-                                         methodInfo.obfuscatedFirstLineNumber != 0                                  &&
-                                         lineNumber                           != 0 ?
-                                methodInfo.originalFirstLineNumber - methodInfo.obfuscatedFirstLineNumber + lineNumber :
-                                methodInfo.originalFirstLineNumber;
-                        }
-
-                        originalMethodFrames.add(new FrameInfo(methodInfo.originalClassName,
-                                                               "Unknown Source".equals(obfuscatedFrame.getSourceFile()) ?
-                                                                       "Unknown Source" :
-                                                                       sourceFileName(methodInfo.originalClassName),
-                                                               lineNumber,
-                                                               methodInfo.originalType,
-                                                               obfuscatedFrame.getFieldName(),
-                                                               methodInfo.originalName,
-                                                               methodInfo.originalArguments));
-                    }
-                }
-            }
-        }
+        return memberCount;
     }
 
 
     /**
-     * Returns the original argument types.
+     * Returns an immutable remapper with the mapping information that has
+     * been processed. The immutable remapper takes over the mapping
+     * information instead of copying it, so this remapper can't be used
+     * anymore afterwards.
      */
-    private String originalArguments(String obfuscatedArguments)
+    public FrozenFrameRemapper freeze()
     {
-        StringBuilder originalArguments = new StringBuilder();
+        checkNotFrozen();
+
+        frozen = true;
+
+        // Convert the fields to lists that preserve their order, releasing
+        // the sets of each class as we go.
+        Map<String,Map<String,List<FieldInfo>>> frozenClassFieldMap =
+            new HashMap<String,Map<String,List<FieldInfo>>>(classFieldMap.size() * 2);
+
+        Iterator<Map.Entry<String,Map<String,Set<FieldInfo>>>> classFieldIterator =
+            classFieldMap.entrySet().iterator();
 
-        int startIndex = 0;
-        while (true)
+        while (classFieldIterator.hasNext())
         {
-            int endIndex = obfuscatedArguments.indexOf(',', startIndex);
-            if (endIndex < 0)
+            Map.Entry<String,Map<String,Set<FieldInfo>>> classEntry = classFieldIterator.next();
+
+            Map<String,Set<FieldInfo>> fieldMap = classEntry.getValue();
+
+            Map<String,List<FieldInfo>> frozenFieldMap =
+                new HashMap<String,List<FieldInfo>>(fieldMap.size() * 2);
+
+            for (Map.Entry<String,Set<FieldInfo>> fieldEntry : fieldMap.entrySet())
             {
-                break;
+                frozenFieldMap.put(fieldEntry.getKey(),
+                                   Collections.unmodifiableList(new ArrayList<FieldInfo>(fieldEntry.getValue())));
             }
 
-            originalArguments.append(originalType(obfuscatedArguments.substring(startIndex, endIndex).trim())).append(',');
+            frozenClassFieldMap.put(classEntry.getKey(), frozenFieldMap);
 
-            startIndex = endIndex + 1;
+            classFieldIterator.remove();
         }
 
-        originalArguments.append(originalType(obfuscatedArguments.substring(startIndex).trim()));
+        // Convert the methods to tables that share the string pool,
+        // releasing the builder of each class as we go.
+        Map<String,MethodTable> frozenClassMethodMap =
+            new HashMap<String,MethodTable>(classMethodMap.size() * 2);
 
-        return originalArguments.toString();
-    }
+        Iterator<Map.Entry<String,MethodTableBuilder>> classMethodIterator =
+            classMethodMap.entrySet().iterator();
 
+        while (classMethodIterator.hasNext())
+        {
+            Map.Entry<String,MethodTableBuilder> classEntry = classMethodIterator.next();
 
-    /**
-     * Returns the original type.
-     */
-    private String originalType(String obfuscatedType)
-    {
-        int index = obfuscatedType.indexOf('[');
+            frozenClassMethodMap.put(classEntry.getKey(),
+                                     classEntry.getValue().methodTable());
+
+            classMethodIterator.remove();
+        }
 
-        return index >= 0 ?
-            originalClassName(obfuscatedType.substring(0, index)) + obfuscatedType.substring(index) :
-            originalClassName(obfuscatedType);
+        // Hand over the class names and the strings as they are.
+        return new FrozenFrameRemapper(classMap,
+                                       frozenClassFieldMap,
+                                       frozenClassMethodMap,
+                                       stringPool,
+                                       memberCount);
     }
 
 
+    // Implementations for AbstractFrameRemapper.
+
     /**
      * Returns the original class name.
      */
     public String originalClassName(String obfuscatedClassName)
     {
+        checkNotFrozen();
+
         String originalClassName = classMap.get(obfuscatedClassName);
 
         return originalClassName != null ?
@@ -254,19 +158,33 @@ public class FrameRemapper implements MappingProcessor
     }
 
 
-    /**
-     * Returns the Java source file name that typically corresponds to the
-     * given class name.
-     */
-    private String sourceFileName(String className)
+    Collection<FieldInfo> fieldInfos(String originalClassName,
+                                     String obfuscatedFieldName)
     {
-        int index1 = className.lastIndexOf('.') + 1;
-        int index2 = className.indexOf('$', index1);
+        checkNotFrozen();
 
-        return (index2 > 0 ?
-            className.substring(index1, index2) :
-            className.substring(index1)) +
-            ".java";
+        // Class name -> obfuscated field names.
+        Map<String,Set<FieldInfo>> fieldMap = classFieldMap.get(originalClassName);
+
+        // Obfuscated field names -> fields.
+        return fieldMap == null ? null :
+            fieldMap.get(obfuscatedFieldName);
+    }
+
+
+    Collection<MethodInfo> methodInfos(String originalClassName,
+                                       String obfuscatedMethodName,
+                                       int    obfuscatedLineNumber)
+    {
+        checkNotFrozen();
+
+        // Class name -> methods.
+        MethodTableBuilder methodTableBuilder = classMethodMap.get(originalClassName);
+
+        // Obfuscated method name -> methods.
+        return methodTableBuilder == null ? null :
+            methodTableBuilder.methodTable().methodInfos(stringPool.find(obfuscatedMethodName),
+                                                         obfuscatedLineNumber);
     }
 
 
@@ -275,6 +193,8 @@ public class FrameRemapper implements MappingProcessor
     public boolean processClassMapping(String className,
                                        String newClassName)
     {
+        checkNotFrozen();
+
         // Obfuscated class name -> original class name.
         classMap.put(newClassName, className);
 
@@ -288,6 +208,8 @@ public class FrameRemapper implements MappingProcessor
                                     String newClassName,
                                     String newFieldName)
     {
+        checkNotFrozen();
+
         // Obfuscated class name -> obfuscated field names.
         Map<String,Set<FieldInfo>> fieldMap = classFieldMap.get(newClassName);
         if (fieldMap == null)
@@ -308,6 +230,8 @@ public class FrameRemapper implements MappingProcessor
         fieldSet.add(new FieldInfo(className,
                                    fieldType,
                                    fieldName));
+
+        memberCount++;
     }
 
 
@@ -322,125 +246,143 @@ public class FrameRemapper implements MappingProcessor
                                      int    newLastLineNumber,
                                      String newMethodName)
     {
-        // Original class name -> obfuscated method names.
-        Map<String,Set<MethodInfo>> methodMap = classMethodMap.get(newClassName);
-        if (methodMap == null)
-        {
-            methodMap = new HashMap<String,Set<MethodInfo>>();
-            classMethodMap.put(newClassName, methodMap);
-        }
+        checkNotFrozen();
 
-        // Obfuscated method name -> methods.
-        Set<MethodInfo> methodSet = methodMap.get(newMethodName);
-        if (methodSet == null)
+        // Original class name -> methods.
+        MethodTableBuilder methodTableBuilder = classMethodMap.get(newClassName);
+        if (methodTableBuilder == null)
         {
-            methodSet = new LinkedHashSet<MethodInfo>();
-            methodMap.put(newMethodName, methodSet);
+            methodTableBuilder = new MethodTableBuilder();
+            classMethodMap.put(newClassName, methodTableBuilder);
         }
 
         // Add the method information.
-        methodSet.add(new MethodInfo(newFirstLineNumber,
-                                     newLastLineNumber,
-                                     className,
-                                     firstLineNumber,
-                                     lastLineNumber,
-                                     methodReturnType,
-                                     methodName,
-                                     methodArguments));
+        methodTableBuilder.add(stringPool.index(newMethodName),
+                               newFirstLineNumber,
+                               newLastLineNumber,
+                               stringPool.index(className),
+                               firstLineNumber,
+                               lastLineNumber,
+                               stringPool.index(methodReturnType),
+                               stringPool.index(methodName),
+                               stringPool.index(methodArguments));
+
+        memberCount++;
     }
 
 
+    // Small utility methods.
+
     /**
-     * Information about the original version and the obfuscated version of
-     * a field (without the obfuscated class name or field name).
+     * Throws an IllegalStateException if this remapper has handed over its
+     * mapping information to a frozen remapper.
      */
-    private static class FieldInfo
+    private void checkNotFrozen()
     {
-        private final String originalClassName;
-        private final String originalType;
-        private final String originalName;
-
-
-        /**
-         * Creates a new FieldInfo with the given properties.
-         */
-        private FieldInfo(String originalClassName,
-                          String originalType,
-                          String originalName)
+        if (frozen)
         {
-            this.originalClassName = originalClassName;
-            this.originalType      = originalType;
-            this.originalName      = originalName;
+            throw new IllegalStateException("The frame remapper has already been frozen");
         }
+    }
+
+
+    /**
+     * This class collects the methods of a class in growing parallel arrays,
+     * from which it creates MethodTable instances.
+     */
+    private class MethodTableBuilder
+    {
+        private int   size;
+        private int[] obfuscatedNames            = new int[4];
+        private int[] obfuscatedFirstLineNumbers = new int[4];
+        private int[] obfuscatedLastLineNumbers  = new int[4];
+        private int[] originalClassNames         = new int[4];
+        private int[] originalFirstLineNumbers   = new int[4];
+        private int[] originalLastLineNumbers    = new int[4];
+        private int[] originalTypes              = new int[4];
+        private int[] originalNames              = new int[4];
+        private int[] originalArguments          = new int[4];
+
+        // Table with the current methods, created on demand. Tables are
+        // immutable, so concurrent lookups at worst create one each.
+        private MethodTable methodTable;
 
 
         /**
-         * Returns whether the given type matches the original type of this field.
-         * The given type may be a null wildcard.
+         * Adds a method with the given properties.
          */
-        private boolean matches(String originalType)
+        void add(int obfuscatedName,
+                 int obfuscatedFirstLineNumber,
+                 int obfuscatedLastLineNumber,
+                 int originalClassName,
+                 int originalFirstLineNumber,
+                 int originalLastLineNumber,
+                 int originalType,
+                 int originalName,
+                 int originalArguments)
         {
-            return
-                originalType == null || originalType.equals(this.originalType);
-        }
-    }
+            if (size == obfuscatedNames.length)
+            {
+                int newLength = size * 2;
+
+                obfuscatedNames            = Arrays.copyOf(obfuscatedNames,            newLength);
+                obfuscatedFirstLineNumbers = Arrays.copyOf(obfuscatedFirstLineNumbers, newLength);
+                obfuscatedLastLineNumbers  = Arrays.copyOf(obfuscatedLastLineNumbers,  newLength);
+                originalClassNames         = Arrays.copyOf(originalClassNames,         newLength);
+                originalFirstLineNumbers   = Arrays.copyOf(originalFirstLineNumbers,   newLength);
+                originalLastLineNumbers    = Arrays.copyOf(originalLastLineNumbers,    newLength);
+                originalTypes              = Arrays.copyOf(originalTypes,              newLength);
+                originalNames              = Arrays.copyOf(originalNames,              newLength);
+                this.originalArguments     = Arrays.copyOf(this.originalArguments,     newLength);
+            }
 
+            obfuscatedNames[size]            = obfuscatedName;
+            obfuscatedFirstLineNumbers[size] = obfuscatedFirstLineNumber;
+            obfuscatedLastLineNumbers[size]  = obfuscatedLastLineNumber;
+            originalClassNames[size]         = originalClassName;
+            originalFirstLineNumbers[size]   = originalFirstLineNumber;
+            originalLastLineNumbers[size]    = originalLastLineNumber;
+            originalTypes[size]              = originalType;
+            originalNames[size]              = originalName;
+            this.originalArguments[size]     = originalArguments;
 
-    /**
-     * Information about the original version and the obfuscated version of
-     * a method (without the obfuscated class name or method name).
-     */
-    private static class MethodInfo
-    {
-        private final int    obfuscatedFirstLineNumber;
-        private final int    obfuscatedLastLineNumber;
-        private final String originalClassName;
-        private final int    originalFirstLineNumber;
-        private final int    originalLastLineNumber;
-        private final String originalType;
-        private final String originalName;
-        private final String originalArguments;
+            size++;
+
+            // Any table is outdated now.
+            methodTable = null;
+        }
 
 
         /**
-         * Creates a new MethodInfo with the given properties.
+         * Returns a table with the current methods.
          */
-        private MethodInfo(int    obfuscatedFirstLineNumber,
-                           int    obfuscatedLastLineNumber,
-                           String originalClassName,
-                           int    originalFirstLineNumber,
-                           int    originalLastLineNumber,
-                           String originalType,
-                           String originalName,
-                           String originalArguments)
+        MethodTable methodTable()
         {
-            this.obfuscatedFirstLineNumber = obfuscatedFirstLineNumber;
-            this.obfuscatedLastLineNumber  = obfuscatedLastLineNumber;
-            this.originalType              = originalType;
-            this.originalArguments         = originalArguments;
-            this.originalClassName         = originalClassName;
-            this.originalName              = originalName;
-            this.originalFirstLineNumber   = originalFirstLineNumber;
-            this.originalLastLineNumber    = originalLastLineNumber;
+            if (methodTable == null)
+            {
+                methodTable = createMethodTable();
+            }
+
+            return methodTable;
         }
 
 
         /**
-         * Returns whether the given properties match the properties of this
-         * method. The given properties may be null wildcards.
+         * Creates a new table with the current methods.
          */
-        private boolean matches(int    obfuscatedLineNumber,
-                                String originalType,
-                                String originalArguments)
+        private MethodTable createMethodTable()
         {
-            return
-                // We're allowing unknown values, represented as 0.
-                (obfuscatedLineNumber     == 0 ||
-                 obfuscatedLastLineNumber == 0 ||
-                (obfuscatedFirstLineNumber <= obfuscatedLineNumber  &&
-                 obfuscatedLineNumber      <= obfuscatedLastLineNumber))                 &&
-                (originalType         == null || originalType.equals(this.originalType)) &&
-                (originalArguments    == null || originalArguments.equals(this.originalArguments));
+            return new MethodTable(stringPool,
+                                   size,
+                                   obfuscatedNames,
+                                   obfuscatedFirstLineNumbers,
+                                   obfuscatedLastLineNumbers,
+                                   originalClassNames,
+                                   originalFirstLineNumbers,
+                                   originalLastLineNumbers,
+                                   originalTypes,
+                                   originalNames,
+                                   originalArguments);
         }
     }
 }
@@ -0,0 +1,276 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import proguard.obfuscate.MappedMappingReader;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class provides immutable frame remappers for any number of mapping
+ * files, for instance one for each build of an application. The mapping
+ * files can be plain mapping files or binary mapping indices. The registry
+ * reads each mapping file on demand, the first time its key is requested. If
+ * several threads request the same key at the same time, only one of them
+ * reads the mapping file, and the others wait for it.
+ * <p>
+ * The registry keeps the remappers until their estimated total size exceeds
+ * a given maximum. It then discards the least recently used ones. The size
+ * of a remapper is estimated from its numbers of classes and class members.
+ * Mapping indices are mapped outside of the heap, so they only count for a
+ * small fixed size.
+ * The most recently loaded remapper is always kept, even if it is larger than
+ * the maximum by itself.
+ */
+public class FrameRemapperRegistry
+{
+    // Estimated retained sizes in a FrameRemapper.
+    private static final long CLASS_SIZE  = 160L;
+    private static final long MEMBER_SIZE = 72L;
+
+    // Estimated retained size of a MappedFrameRemapper.
+    private static final long INDEX_SIZE  = 256L;
+
+
+    private final MappingFileLocator mappingFileLocator;
+    private final long               maximumSize;
+
+    // Mapping key -> loaded remapper, in order of access.
+    private final LinkedHashMap<String,AbstractFrameRemapper>   frameRemappers = new LinkedHashMap<String,AbstractFrameRemapper>(16, 0.75f, true);
+
+    // Mapping key -> remapper that is still being loaded.
+    private final Map<String,FutureTask<AbstractFrameRemapper>> pendingLoads   = new HashMap<String,FutureTask<AbstractFrameRemapper>>();
+
+    private long size;
+
+
+    /**
+     * Creates a new FrameRemapperRegistry.
+     * @param mappingFileLocator the locator that returns the mapping file for
+     *                           each key.
+     * @param maximumSize        the maximum estimated size of all remappers
+     *                           together, in bytes.
+     */
+    public FrameRemapperRegistry(MappingFileLocator mappingFileLocator,
+                                 long               maximumSize)
+    {
+        this.mappingFileLocator = mappingFileLocator;
+        this.maximumSize        = maximumSize;
+    }
+
+
+    /**
+     * Returns the remapper for the given mapping key, reading its mapping file
+     * if necessary. This method can be invoked concurrently from multiple
+     * threads.
+     */
+    public AbstractFrameRemapper frameRemapper(final String mappingKey) throws IOException
+    {
+        FutureTask<AbstractFrameRemapper> pendingLoad;
+        boolean                           loading = false;
+
+        synchronized (this)
+        {
+            AbstractFrameRemapper frameRemapper = frameRemappers.get(mappingKey);
+            if (frameRemapper != null)
+            {
+                return frameRemapper;
+            }
+
+            // Is another thread already loading the mapping file?
+            pendingLoad = pendingLoads.get(mappingKey);
+            if (pendingLoad == null)
+            {
+                pendingLoad = new FutureTask<AbstractFrameRemapper>(new Callable<AbstractFrameRemapper>()
+                {
+                    public AbstractFrameRemapper call() throws IOException
+                    {
+                        return readMapping(mappingKey);
+                    }
+                });
+
+                pendingLoads.put(mappingKey, pendingLoad);
+                loading = true;
+            }
+        }
+
+        // Read the mapping file outside of the lock, so other keys remain
+        // accessible in the meantime.
+        if (loading)
+        {
+            pendingLoad.run();
+        }
+
+        AbstractFrameRemapper frameRemapper = null;
+        try
+        {
+            frameRemapper = get(pendingLoad);
+
+            return frameRemapper;
+        }
+        finally
+        {
+            if (loading)
+            {
+                synchronized (this)
+                {
+                    pendingLoads.remove(mappingKey);
+
+                    // Only keep a successfully loaded remapper, so a next
+                    // request can try again otherwise.
+                    if (frameRemapper != null)
+                    {
+                        add(mappingKey, frameRemapper);
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Discards the remapper for the given mapping key, if it is present.
+     */
+    public synchronized void remove(String mappingKey)
+    {
+        AbstractFrameRemapper frameRemapper = frameRemappers.remove(mappingKey);
+        if (frameRemapper != null)
+        {
+            size -= estimatedSize(frameRemapper);
+        }
+    }
+
+
+    /**
+     * Returns the number of remappers that are currently present.
+     */
+    public synchronized int getCount()
+    {
+        return frameRemappers.size();
+    }
+
+
+    /**
+     * Returns the estimated size of the remappers that are currently present,
+     * in bytes.
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Reads the mapping file for the given key into a new remapper, or maps
+     * it into memory if it is a binary mapping index.
+     */
+    private AbstractFrameRemapper readMapping(String mappingKey) throws IOException
+    {
+        File mappingFile = mappingFileLocator.mappingFile(mappingKey);
+        if (MappedFrameRemapper.isMappingIndex(mappingFile))
+        {
+            return new MappedFrameRemapper(mappingFile);
+        }
+
+        FrameRemapper frameRemapper = new FrameRemapper();
+
+        MappedMappingReader mappingReader = new MappedMappingReader(mappingFile);
+        mappingReader.pump(frameRemapper);
+
+        return frameRemapper.freeze();
+    }
+
+
+    /**
+     * Adds the given remapper and discards the least recently used remappers
+     * while the total size exceeds the maximum.
+     */
+    private void add(String mappingKey, AbstractFrameRemapper frameRemapper)
+    {
+        frameRemappers.put(mappingKey, frameRemapper);
+        size += estimatedSize(frameRemapper);
+
+        Iterator<AbstractFrameRemapper> iterator = frameRemappers.values().iterator();
+        while (size > maximumSize &&
+               frameRemappers.size() > 1)
+        {
+            size -= estimatedSize(iterator.next());
+            iterator.remove();
+        }
+    }
+
+
+    /**
+     * Returns the result of the given load, unwrapping any exception.
+     */
+    private AbstractFrameRemapper get(FutureTask<AbstractFrameRemapper> pendingLoad) throws IOException
+    {
+        try
+        {
+            return pendingLoad.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while waiting for mapping file");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+
+
+    /**
+     * Returns the estimated retained size of the given remapper.
+     */
+    private static long estimatedSize(AbstractFrameRemapper frameRemapper)
+    {
+        if (!(frameRemapper instanceof FrozenFrameRemapper))
+        {
+            return INDEX_SIZE;
+        }
+
+        FrozenFrameRemapper frozenFrameRemapper = (FrozenFrameRemapper)frameRemapper;
+
+        return frozenFrameRemapper.getClassCount()  * CLASS_SIZE +
+               frozenFrameRemapper.getMemberCount() * MEMBER_SIZE;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.util.*;
+
+/**
+ * This class transforms stack frames based on the mapping information that
+ * a FrameRemapper has handed over when it was frozen. Instances can be
+ * shared between any number of threads, without any locking.
+ *
+ * @see FrameRemapper#freeze()
+ */
+public final class FrozenFrameRemapper
+extends            AbstractFrameRemapper
+{
+    // Obfuscated class name -> original class name.
+    private final Map<String,String>                      classMap;
+
+    // Original class name -> obfuscated field name -> field infos.
+    private final Map<String,Map<String,List<FieldInfo>>> classFieldMap;
+
+    // Original class name -> method table.
+    private final Map<String,MethodTable>                 classMethodMap;
+
+    // The strings of all method tables.
+    private final StringPool                              stringPool;
+
+    private final int memberCount;
+
+
+    /**
+     * Creates a new FrozenFrameRemapper with the given mapping information,
+     * which must not be changed anymore afterwards.
+     */
+    FrozenFrameRemapper(Map<String,String>                      classMap,
+                        Map<String,Map<String,List<FieldInfo>>> classFieldMap,
+                        Map<String,MethodTable>                 classMethodMap,
+                        StringPool                              stringPool,
+                        int                                     memberCount)
+    {
+        this.classMap       = classMap;
+        this.classFieldMap  = classFieldMap;
+        this.classMethodMap = classMethodMap;
+        this.stringPool     = stringPool;
+        this.memberCount    = memberCount;
+    }
+
+
+    /**
+     * Returns the number of class mappings in this remapper.
+     */
+    public int getClassCount()
+    {
+        return classMap.size();
+    }
+
+
+    /**
+     * Returns the number of field mappings and method mappings in this
+     * remapper.
+     */
+    public int getMemberCount()
+    {
+        return memberCount;
+    }
+
+
+    // Implementations for AbstractFrameRemapper.
+
+    /**
+     * Returns the original class name.
+     */
+    public String originalClassName(String obfuscatedClassName)
+    {
+        String originalClassName = classMap.get(obfuscatedClassName);
+
+        return originalClassName != null ?
+            originalClassName :
+            obfuscatedClassName;
+    }
+
+
+    Collection<FieldInfo> fieldInfos(String originalClassName,
+                                     String obfuscatedFieldName)
+    {
+        // Class name -> obfuscated field names.
+        Map<String,List<FieldInfo>> fieldMap = classFieldMap.get(originalClassName);
+
+        // Obfuscated field names -> fields.
+        return fieldMap == null ? null :
+            fieldMap.get(obfuscatedFieldName);
+    }
+
+
+    Collection<MethodInfo> methodInfos(String originalClassName,
+                                       String obfuscatedMethodName,
+                                       int    obfuscatedLineNumber)
+    {
+        // Class name -> methods.
+        MethodTable methodTable = classMethodMap.get(originalClassName);
+
+        // Obfuscated method name -> methods.
+        return methodTable == null ? null :
+            methodTable.methodInfos(stringPool.find(obfuscatedMethodName),
+                                    obfuscatedLineNumber);
+    }
+}
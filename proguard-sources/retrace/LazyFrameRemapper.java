@@ -0,0 +1,179 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import proguard.obfuscate.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class transforms stack frames based on a mapping file that it only
+ * reads as far as necessary. Initially, it only reads the class mappings. It
+ * then reads the class member mappings of each class when a stack frame
+ * first refers to it, and caches them. Memory usage and start-up time then
+ * depend on the classes in the stack traces, rather than on the size of the
+ * mapping file.
+ * <p>
+ * Instances can be shared between threads. Since class member mappings are
+ * only parsed when they are needed, any problems with them only surface
+ * while transforming frames, as runtime exceptions.
+ */
+public class LazyFrameRemapper
+extends      AbstractFrameRemapper
+{
+    private final LazyMappingReader mappingReader;
+
+    // Obfuscated class name -> original class name.
+    private final Map<String,String> classMap = new HashMap<String,String>();
+
+    // Original class name -> remapper with the class's member mappings.
+    private final ConcurrentMap<String,FrozenFrameRemapper> classRemappers = new ConcurrentHashMap<String,FrozenFrameRemapper>();
+
+
+    /**
+     * Creates a new LazyFrameRemapper, reading the class mappings from the
+     * given mapping file.
+     */
+    public LazyFrameRemapper(File mappingFile) throws IOException
+    {
+        mappingReader = new LazyMappingReader(mappingFile);
+        mappingReader.pumpClassMappings(new MyClassMappingCollector());
+    }
+
+
+    // Implementations for AbstractFrameRemapper.
+
+    public String originalClassName(String obfuscatedClassName)
+    {
+        String originalClassName = classMap.get(obfuscatedClassName);
+
+        return originalClassName != null ?
+            originalClassName :
+            obfuscatedClassName;
+    }
+
+
+    Collection<FieldInfo> fieldInfos(String originalClassName,
+                                     String obfuscatedFieldName)
+    {
+        FrozenFrameRemapper classRemapper = classRemapper(originalClassName);
+
+        return classRemapper == null ? null :
+            classRemapper.fieldInfos(originalClassName,
+                                     obfuscatedFieldName);
+    }
+
+
+    Collection<MethodInfo> methodInfos(String originalClassName,
+                                       String obfuscatedMethodName,
+                                       int    obfuscatedLineNumber)
+    {
+        FrozenFrameRemapper classRemapper = classRemapper(originalClassName);
+
+        return classRemapper == null ? null :
+            classRemapper.methodInfos(originalClassName,
+                                      obfuscatedMethodName,
+                                      obfuscatedLineNumber);
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns a remapper with the member mappings of the given original
+     * class, reading them if necessary, or null if the class doesn't have
+     * any.
+     */
+    private FrozenFrameRemapper classRemapper(String originalClassName)
+    {
+        if (!mappingReader.containsClass(originalClassName))
+        {
+            return null;
+        }
+
+        FrozenFrameRemapper classRemapper = classRemappers.get(originalClassName);
+        if (classRemapper == null)
+        {
+            // Read the class member mappings. Another thread may be doing
+            // the same, in which case we use whichever remapper is first.
+            FrameRemapper frameRemapper = new FrameRemapper();
+            try
+            {
+                mappingReader.pumpClass(originalClassName, frameRemapper);
+            }
+            catch (IOException ex)
+            {
+                throw new UncheckedIOException(ex);
+            }
+
+            classRemapper = frameRemapper.freeze();
+
+            FrozenFrameRemapper otherClassRemapper =
+                classRemappers.putIfAbsent(originalClassName, classRemapper);
+            if (otherClassRemapper != null)
+            {
+                classRemapper = otherClassRemapper;
+            }
+        }
+
+        return classRemapper;
+    }
+
+
+    /**
+     * This MappingProcessor collects the class mappings.
+     */
+    private class MyClassMappingCollector
+    implements    MappingProcessor
+    {
+        // Implementations for MappingProcessor.
+
+        public boolean processClassMapping(String className,
+                                           String newClassName)
+        {
+            // Obfuscated class name -> original class name.
+            classMap.put(newClassName, className);
+
+            return true;
+        }
+
+
+        public void processFieldMapping(String className,
+                                        String fieldType,
+                                        String fieldName,
+                                        String newClassName,
+                                        String newFieldName) {}
+
+
+        public void processMethodMapping(String className,
+                                         int    firstLineNumber,
+                                         int    lastLineNumber,
+                                         String methodReturnType,
+                                         String methodName,
+                                         String methodArguments,
+                                         String newClassName,
+                                         int    newFirstLineNumber,
+                                         int    newLastLineNumber,
+                                         String newMethodName) {}
+    }
+}
@@ -0,0 +1,507 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.util.*;
+
+/**
+ * This class quickly rejects lines that can't match a FramePattern, because
+ * they don't contain the literal text that the pattern requires. It derives
+ * the required literals from the regular expression of the pattern, with
+ * its %c, %m,... placeholders: for each top-level alternative, the literals
+ * that any matching line must contain. A line that doesn't contain all
+ * literals of at least one alternative can't match.
+ * <p>
+ * The analysis is conservative. For regular expressions with constructs
+ * that it doesn't understand, or with an alternative without any required
+ * literals, there is no filter.
+ */
+final class LinePrefilter
+{
+    // Safe escape sequences that don't match literal text or that are
+    // simply treated as if they don't.
+    private static final String NON_LITERAL_ESCAPES = "sSdDwWbBAGZzhHvVRXtnrfea";
+
+    // The required literals of each alternative.
+    private final String[][] alternativeLiterals;
+
+
+    /**
+     * Returns a filter for the given FramePattern regular expression, or
+     * null if it can't reject any lines.
+     */
+    static LinePrefilter create(String regularExpression)
+    {
+        List<List<String>> alternatives =
+            new Parser(regularExpression).parseTopLevel();
+
+        if (alternatives == null)
+        {
+            return null;
+        }
+
+        String[][] alternativeLiterals = new String[alternatives.size()][];
+        for (int index = 0; index < alternativeLiterals.length; index++)
+        {
+            List<String> literals = alternatives.get(index);
+            if (literals.isEmpty())
+            {
+                return null;
+            }
+
+            alternativeLiterals[index] = literals.toArray(new String[literals.size()]);
+        }
+
+        return new LinePrefilter(alternativeLiterals);
+    }
+
+
+    private LinePrefilter(String[][] alternativeLiterals)
+    {
+        this.alternativeLiterals = alternativeLiterals;
+    }
+
+
+    /**
+     * Returns whether the given line may match the regular expression.
+     */
+    boolean accepts(String line)
+    {
+        for (int alternativeIndex = 0; alternativeIndex < alternativeLiterals.length; alternativeIndex++)
+        {
+            if (containsAll(line, alternativeLiterals[alternativeIndex]))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns whether the given line contains all given literals.
+     */
+    private static boolean containsAll(String line, String[] literals)
+    {
+        for (int index = 0; index < literals.length; index++)
+        {
+            if (line.indexOf(literals[index]) < 0)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * This class parses a regular expression just enough to collect its
+     * required literals.
+     */
+    private static class Parser
+    {
+        private final String expression;
+        private int          index;
+
+
+        Parser(String expression)
+        {
+            this.expression = expression;
+        }
+
+
+        /**
+         * Returns the required literals of each top-level alternative, or
+         * null if the expression isn't supported.
+         */
+        List<List<String>> parseTopLevel()
+        {
+            try
+            {
+                List<List<String>> alternatives = parseAlternatives();
+
+                return index == expression.length() ?
+                    alternatives :
+                    null;
+            }
+            catch (UnsupportedRegexException e)
+            {
+                return null;
+            }
+        }
+
+
+        /**
+         * Parses alternatives up to a closing parenthesis or the end.
+         */
+        private List<List<String>> parseAlternatives()
+        {
+            List<List<String>> alternatives = new ArrayList<List<String>>();
+
+            while (true)
+            {
+                alternatives.add(parseSequence());
+
+                if (index < expression.length() &&
+                    expression.charAt(index) == '|')
+                {
+                    index++;
+                }
+                else
+                {
+                    return alternatives;
+                }
+            }
+        }
+
+
+        /**
+         * Parses a sequence up to an alternation, a closing parenthesis, or
+         * the end, returning its required literals.
+         */
+        private List<String> parseSequence()
+        {
+            List<String>  literals = new ArrayList<String>();
+            StringBuilder literal  = new StringBuilder();
+
+            while (index < expression.length())
+            {
+                char c = expression.charAt(index);
+                if (c == '|' || c == ')')
+                {
+                    break;
+                }
+
+                switch (c)
+                {
+                    case '(':
+                    {
+                        flush(literal, literals);
+                        List<String> groupLiterals = parseGroup();
+                        if (!parseOptionalQuantifier())
+                        {
+                            literals.addAll(groupLiterals);
+                        }
+                        break;
+                    }
+                    case '[':
+                        flush(literal, literals);
+                        skipCharacterClass();
+                        parseOptionalQuantifier();
+                        break;
+
+                    case '.':
+                    case '^':
+                    case '$':
+                        flush(literal, literals);
+                        index++;
+                        parseOptionalQuantifier();
+                        break;
+
+                    case '%':
+                        // A placeholder, unless it's the last character.
+                        if (index + 1 < expression.length())
+                        {
+                            flush(literal, literals);
+                            index += 2;
+                            parseOptionalQuantifier();
+                        }
+                        else
+                        {
+                            index++;
+                            addLiteral('%', literal, literals);
+                        }
+                        break;
+
+                    case '\\':
+                    {
+                        if (index + 1 >= expression.length())
+                        {
+                            throw new UnsupportedRegexException();
+                        }
+
+                        char escaped = expression.charAt(index + 1);
+                        index += 2;
+                        if (Character.isLetterOrDigit(escaped))
+                        {
+                            if (NON_LITERAL_ESCAPES.indexOf(escaped) < 0)
+                            {
+                                throw new UnsupportedRegexException();
+                            }
+
+                            flush(literal, literals);
+                            parseOptionalQuantifier();
+                        }
+                        else
+                        {
+                            addLiteral(escaped, literal, literals);
+                        }
+                        break;
+                    }
+                    case '*':
+                    case '+':
+                    case '?':
+                    case '{':
+                        throw new UnsupportedRegexException();
+
+                    default:
+                        index++;
+                        addLiteral(c, literal, literals);
+                        break;
+                }
+            }
+
+            flush(literal, literals);
+
+            return literals;
+        }
+
+
+        /**
+         * Parses a group, returning its required literals.
+         */
+        private List<String> parseGroup()
+        {
+            // Skip the opening parenthesis.
+            index++;
+
+            boolean lookaround = false;
+            if (expression.startsWith("?", index))
+            {
+                if (expression.startsWith("?:", index) ||
+                    expression.startsWith("?>", index))
+                {
+                    index += 2;
+                }
+                else if (expression.startsWith("?=",  index) ||
+                         expression.startsWith("?!",  index))
+                {
+                    index += 2;
+                    lookaround = true;
+                }
+                else if (expression.startsWith("?<=", index) ||
+                         expression.startsWith("?<!", index))
+                {
+                    index += 3;
+                    lookaround = true;
+                }
+                else if (expression.startsWith("?<", index))
+                {
+                    // A named group.
+                    int end = expression.indexOf('>', index);
+                    if (end < 0)
+                    {
+                        throw new UnsupportedRegexException();
+                    }
+
+                    index = end + 1;
+                }
+                else
+                {
+                    // Flags, for instance.
+                    throw new UnsupportedRegexException();
+                }
+            }
+
+            List<List<String>> alternatives = parseAlternatives();
+
+            if (index >= expression.length() ||
+                expression.charAt(index) != ')')
+            {
+                throw new UnsupportedRegexException();
+            }
+
+            index++;
+
+            // Only a plain group with a single alternative requires its
+            // literals.
+            return !lookaround && alternatives.size() == 1 ?
+                alternatives.get(0) :
+                Collections.<String>emptyList();
+        }
+
+
+        /**
+         * Skips a character class, including any nested classes.
+         */
+        private void skipCharacterClass()
+        {
+            int depth = 0;
+            do
+            {
+                if (index >= expression.length())
+                {
+                    throw new UnsupportedRegexException();
+                }
+
+                char c = expression.charAt(index++);
+                if (c == '\\')
+                {
+                    index++;
+                }
+                else if (c == '[')
+                {
+                    depth++;
+
+                    // A leading closing bracket is part of the class.
+                    if (expression.startsWith("^", index))
+                    {
+                        index++;
+                    }
+                    if (expression.startsWith("]", index))
+                    {
+                        index++;
+                    }
+                }
+                else if (c == ']')
+                {
+                    depth--;
+                }
+            }
+            while (depth > 0);
+        }
+
+
+        /**
+         * Parses an optional quantifier, returning whether it allows zero
+         * occurrences.
+         */
+        private boolean parseOptionalQuantifier()
+        {
+            if (index >= expression.length())
+            {
+                return false;
+            }
+
+            boolean optional;
+
+            char c = expression.charAt(index);
+            switch (c)
+            {
+                case '?':
+                case '*':
+                    optional = true;
+                    index++;
+                    break;
+
+                case '+':
+                    optional = false;
+                    index++;
+                    break;
+
+                case '{':
+                {
+                    int end = expression.indexOf('}', index);
+                    if (end < 0)
+                    {
+                        throw new UnsupportedRegexException();
+                    }
+
+                    String bounds = expression.substring(index + 1, end);
+                    int    comma  = bounds.indexOf(',');
+                    try
+                    {
+                        optional = Integer.parseInt(comma < 0 ? bounds : bounds.substring(0, comma)) == 0;
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        throw new UnsupportedRegexException();
+                    }
+
+                    index = end + 1;
+                    break;
+                }
+                default:
+                    return false;
+            }
+
+            // Skip any reluctant or possessive modifier.
+            if (index < expression.length() &&
+                (expression.charAt(index) == '?' ||
+                 expression.charAt(index) == '+'))
+            {
+                index++;
+            }
+
+            return optional;
+        }
+
+
+        /**
+         * Adds the given literal character to the current literal, taking
+         * into account any quantifier that follows it.
+         */
+        private void addLiteral(char c, StringBuilder literal, List<String> literals)
+        {
+            int start = index;
+            if (parseOptionalQuantifier())
+            {
+                // The character is optional.
+                flush(literal, literals);
+            }
+            else
+            {
+                literal.append(c);
+
+                // Any repeated character ends the literal.
+                if (index > start)
+                {
+                    flush(literal, literals);
+                }
+            }
+        }
+
+
+        /**
+         * Adds the current literal, if any, to the given list, and clears it.
+         */
+        private void flush(StringBuilder literal, List<String> literals)
+        {
+            if (literal.length() > 0)
+            {
+                literals.add(literal.toString());
+                literal.setLength(0);
+            }
+        }
+    }
+
+
+    /**
+     * This exception signals that the parser doesn't support a construct in
+     * the regular expression. It never leaves the parser.
+     */
+    private static class UnsupportedRegexException
+    extends              RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+
+        public UnsupportedRegexException()
+        {
+            // Skip the stack trace, which is never printed.
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,471 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * This class transforms stack frames based on a binary mapping index, as
+ * written out by a {@link MappingIndexCompiler}. It maps the index into memory
+ * and looks up the mapping information straight from the mapped bytes, so
+ * opening even a large index doesn't require any parsing.
+ * <p>
+ * The index consists of big-endian ints, apart from the string data:
+ * <pre>
+ * header:        magic, version, string count, class count, owner count,
+ *                field group count, field count, method group count,
+ *                method count, string data size
+ * string table:  (string count + 1) offsets, followed by the UTF-8 string
+ *                data, padded to a multiple of 4 bytes
+ * classes:       [hash, obfuscated name, original name], sorted by hash
+ * owners:        [hash, original class name, first field group, field group
+ *                count, first method group, method group count], sorted by
+ *                hash
+ * field groups:  [hash, obfuscated name, first field, field count], sorted
+ *                by hash within each owner
+ * fields:        [original class name, original type, original name]
+ * method groups: [hash, obfuscated name, first method, method count], sorted
+ *                by hash within each owner
+ * methods:       [obfuscated first line, obfuscated last line, original
+ *                class name, original first line, original last line,
+ *                original type, original name, original arguments]
+ * </pre>
+ * Hashes are the hash codes of the corresponding names. Names are indices
+ * in the string table. Fields and methods are kept in the order of the
+ * mapping file within their groups. Opening an index checks that the tables
+ * of its header exactly fill it, so a truncated index is rejected up front.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public class MappedFrameRemapper
+extends      AbstractFrameRemapper
+{
+    static final int MAGIC   = 0x50475249;
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 10 * 4;
+    private static final int CLASS_SIZE  =  3 * 4;
+    private static final int OWNER_SIZE  =  6 * 4;
+    private static final int GROUP_SIZE  =  4 * 4;
+    private static final int FIELD_SIZE  =  3 * 4;
+    private static final int METHOD_SIZE =  8 * 4;
+
+    private final ByteBuffer buffer;
+
+    private final int classCount;
+    private final int ownerCount;
+
+    private final int stringOffsetsStart;
+    private final int stringDataStart;
+    private final int classesStart;
+    private final int ownersStart;
+    private final int fieldGroupsStart;
+    private final int fieldsStart;
+    private final int methodGroupsStart;
+    private final int methodsStart;
+
+
+    /**
+     * Creates a new MappedFrameRemapper for the given index file.
+     */
+    public MappedFrameRemapper(File indexFile) throws IOException
+    {
+        this(map(indexFile));
+    }
+
+
+    /**
+     * Creates a new MappedFrameRemapper for the given index data, between
+     * the position and the limit of the given buffer. The position and the
+     * limit of the buffer itself remain unchanged.
+     */
+    public MappedFrameRemapper(ByteBuffer indexBuffer) throws IOException
+    {
+        ByteBuffer buffer = indexBuffer.slice().order(ByteOrder.BIG_ENDIAN);
+
+        if (buffer.limit() < HEADER_SIZE ||
+            buffer.getInt(0) != MAGIC)
+        {
+            throw new IOException("Not a mapping index");
+        }
+
+        if (buffer.getInt(4) != VERSION)
+        {
+            throw new IOException("Unsupported mapping index version ["+buffer.getInt(4)+"]");
+        }
+
+        if (!hasValidCounts(buffer))
+        {
+            throw new IOException("Corrupt mapping index (negative counts in header)");
+        }
+
+        int stringCount      = buffer.getInt(8);
+        int classCount       = buffer.getInt(12);
+        int ownerCount       = buffer.getInt(16);
+        int fieldGroupCount  = buffer.getInt(20);
+        int fieldCount       = buffer.getInt(24);
+        int methodGroupCount = buffer.getInt(28);
+        int methodCount      = buffer.getInt(32);
+        int stringDataSize   = buffer.getInt(36);
+
+        // Compute the offsets of the tables as longs, so large counts can't
+        // overflow, and check that the tables exactly fill the index.
+        long stringDataStart   = HEADER_SIZE        + (stringCount + 1L) * 4;
+        long classesStart      = stringDataStart    + (stringDataSize + 3L) / 4 * 4;
+        long ownersStart       = classesStart       + (long)classCount       * CLASS_SIZE;
+        long fieldGroupsStart  = ownersStart        + (long)ownerCount       * OWNER_SIZE;
+        long fieldsStart       = fieldGroupsStart   + (long)fieldGroupCount  * GROUP_SIZE;
+        long methodGroupsStart = fieldsStart        + (long)fieldCount       * FIELD_SIZE;
+        long methodsStart      = methodGroupsStart  + (long)methodGroupCount * GROUP_SIZE;
+        long end               = methodsStart       + (long)methodCount      * METHOD_SIZE;
+
+        if (end != buffer.limit())
+        {
+            throw new IOException("Corrupt mapping index (expecting ["+end+"] bytes, but found ["+buffer.limit()+"])");
+        }
+
+        // The last string offset is the end of the string data.
+        if (buffer.getInt((int)stringDataStart - 4) != stringDataSize)
+        {
+            throw new IOException("Corrupt mapping index (inconsistent string table)");
+        }
+
+        this.buffer             = buffer;
+        this.classCount         = classCount;
+        this.ownerCount         = ownerCount;
+        this.stringOffsetsStart = HEADER_SIZE;
+        this.stringDataStart    = (int)stringDataStart;
+        this.classesStart       = (int)classesStart;
+        this.ownersStart        = (int)ownersStart;
+        this.fieldGroupsStart   = (int)fieldGroupsStart;
+        this.fieldsStart        = (int)fieldsStart;
+        this.methodGroupsStart  = (int)methodGroupsStart;
+        this.methodsStart       = (int)methodsStart;
+    }
+
+
+    /**
+     * Returns whether the given file starts like a binary mapping index,
+     * with its magic number, a plausible version, and valid counts. Text
+     * mapping files never contain the zero bytes of the version.
+     */
+    public static boolean isMappingIndex(File file) throws IOException
+    {
+        byte[] header = new byte[HEADER_SIZE];
+
+        DataInputStream input = new DataInputStream(new FileInputStream(file));
+        try
+        {
+            input.readFully(header);
+        }
+        catch (EOFException ex)
+        {
+            return false;
+        }
+        finally
+        {
+            input.close();
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+
+        int version = buffer.getInt(4);
+
+        return buffer.getInt(0) == MAGIC &&
+               version > 0               &&
+               version < 0x10000         &&
+               hasValidCounts(buffer);
+    }
+
+
+    // Implementations for AbstractFrameRemapper.
+
+    public String originalClassName(String obfuscatedClassName)
+    {
+        int classOffset = find(classesStart,
+                               CLASS_SIZE,
+                               0,
+                               classCount,
+                               obfuscatedClassName);
+
+        return classOffset < 0 ?
+            obfuscatedClassName :
+            string(buffer.getInt(classOffset + 8));
+    }
+
+
+    Collection<FieldInfo> fieldInfos(String originalClassName,
+                                     String obfuscatedFieldName)
+    {
+        int groupOffset = findGroup(originalClassName,
+                                    obfuscatedFieldName,
+                                    8,
+                                    fieldGroupsStart);
+        if (groupOffset < 0)
+        {
+            return null;
+        }
+
+        int fieldIndex = buffer.getInt(groupOffset + 8);
+        int fieldCount = buffer.getInt(groupOffset + 12);
+
+        List<FieldInfo> fieldInfos = new ArrayList<FieldInfo>(fieldCount);
+        for (int index = 0; index < fieldCount; index++)
+        {
+            int fieldOffset = fieldsStart + (fieldIndex + index) * FIELD_SIZE;
+
+            fieldInfos.add(new FieldInfo(string(buffer.getInt(fieldOffset)),
+                                         string(buffer.getInt(fieldOffset + 4)),
+                                         string(buffer.getInt(fieldOffset + 8))));
+        }
+
+        return fieldInfos;
+    }
+
+
+    Collection<MethodInfo> methodInfos(String originalClassName,
+                                       String obfuscatedMethodName,
+                                       int    obfuscatedLineNumber)
+    {
+        int groupOffset = findGroup(originalClassName,
+                                    obfuscatedMethodName,
+                                    16,
+                                    methodGroupsStart);
+        if (groupOffset < 0)
+        {
+            return null;
+        }
+
+        int methodIndex = buffer.getInt(groupOffset + 8);
+        int methodCount = buffer.getInt(groupOffset + 12);
+
+        List<MethodInfo> methodInfos = new ArrayList<MethodInfo>();
+        for (int index = 0; index < methodCount; index++)
+        {
+            int methodOffset = methodsStart + (methodIndex + index) * METHOD_SIZE;
+
+            int obfuscatedFirstLineNumber = buffer.getInt(methodOffset);
+            int obfuscatedLastLineNumber  = buffer.getInt(methodOffset + 4);
+
+            // Only decode the strings of methods with matching line numbers.
+            // We're allowing unknown values, represented as 0.
+            if (obfuscatedLineNumber     == 0 ||
+                obfuscatedLastLineNumber == 0 ||
+                (obfuscatedFirstLineNumber <= obfuscatedLineNumber &&
+                 obfuscatedLineNumber      <= obfuscatedLastLineNumber))
+            {
+                methodInfos.add(new MethodInfo(obfuscatedFirstLineNumber,
+                                               obfuscatedLastLineNumber,
+                                               string(buffer.getInt(methodOffset + 8)),
+                                               buffer.getInt(methodOffset + 12),
+                                               buffer.getInt(methodOffset + 16),
+                                               string(buffer.getInt(methodOffset + 20)),
+                                               string(buffer.getInt(methodOffset + 24)),
+                                               string(buffer.getInt(methodOffset + 28))));
+            }
+        }
+
+        return methodInfos;
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns the offset of the member group with the given obfuscated name,
+     * in the given original class, or -1 if it can't be found.
+     * @param groupCountOffset the offset of the first group index and the
+     *                         group count inside an owner entry.
+     * @param groupsStart      the offset of the group table.
+     */
+    private int findGroup(String originalClassName,
+                          String obfuscatedMemberName,
+                          int    groupCountOffset,
+                          int    groupsStart)
+    {
+        if (obfuscatedMemberName == null)
+        {
+            return -1;
+        }
+
+        int ownerOffset = find(ownersStart,
+                               OWNER_SIZE,
+                               0,
+                               ownerCount,
+                               originalClassName);
+        if (ownerOffset < 0)
+        {
+            return -1;
+        }
+
+        return find(groupsStart,
+                    GROUP_SIZE,
+                    buffer.getInt(ownerOffset + groupCountOffset),
+                    buffer.getInt(ownerOffset + groupCountOffset + 4),
+                    obfuscatedMemberName);
+    }
+
+
+    /**
+     * Returns the offset of the entry with the given name, in the given
+     * range of entries that are sorted by the hash codes of their names,
+     * or -1 if it can't be found. Each entry starts with the hash code and
+     * the string index of its name.
+     */
+    private int find(int    tableStart,
+                     int    entrySize,
+                     int    firstIndex,
+                     int    count,
+                     String name)
+    {
+        int hashCode = name.hashCode();
+
+        // Find the first entry with the hash code.
+        int low  = firstIndex;
+        int high = firstIndex + count;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (buffer.getInt(tableStart + middle * entrySize) < hashCode)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        // Compare the names of all entries with the hash code.
+        for (int index = low; index < firstIndex + count; index++)
+        {
+            int entryOffset = tableStart + index * entrySize;
+            if (buffer.getInt(entryOffset) != hashCode)
+            {
+                break;
+            }
+
+            if (stringEquals(buffer.getInt(entryOffset + 4), name))
+            {
+                return entryOffset;
+            }
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Returns whether the string with the given index in the string table
+     * is equal to the given string. ASCII strings are compared byte by byte,
+     * without decoding them.
+     */
+    private boolean stringEquals(int stringIndex, String string)
+    {
+        int offset = stringDataStart + buffer.getInt(stringOffsetsStart + stringIndex * 4);
+        int end    = stringDataStart + buffer.getInt(stringOffsetsStart + stringIndex * 4 + 4);
+
+        // UTF-8 never has fewer bytes than the string has chars.
+        int length = string.length();
+        if (end - offset < length)
+        {
+            return false;
+        }
+
+        for (int index = 0; index < length; index++)
+        {
+            byte b = buffer.get(offset + index);
+            if (b < 0)
+            {
+                // Fall back to decoding non-ASCII strings.
+                return string.equals(string(stringIndex));
+            }
+
+            if (b != string.charAt(index))
+            {
+                return false;
+            }
+        }
+
+        return end - offset == length;
+    }
+
+
+    /**
+     * Returns the string with the given index in the string table.
+     */
+    private String string(int stringIndex)
+    {
+        int offset = buffer.getInt(stringOffsetsStart + stringIndex * 4);
+        int length = buffer.getInt(stringOffsetsStart + stringIndex * 4 + 4) - offset;
+
+        byte[] bytes = new byte[length];
+        ByteBuffer stringBuffer = buffer.duplicate();
+        stringBuffer.position(stringDataStart + offset);
+        stringBuffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Returns whether the counts in the given index header aren't negative.
+     */
+    private static boolean hasValidCounts(ByteBuffer header)
+    {
+        for (int offset = 8; offset < HEADER_SIZE; offset += 4)
+        {
+            if (header.getInt(offset) < 0)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Maps the given file into memory.
+     */
+    private static ByteBuffer map(File file) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException("Mapping index too large ["+file+"]");
+            }
+
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+}
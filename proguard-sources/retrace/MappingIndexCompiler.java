@@ -0,0 +1,438 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import proguard.obfuscate.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * This MappingProcessor collects mapping information and writes it out as a
+ * compact binary index, which a {@link MappedFrameRemapper} can then look up
+ * without parsing. The index contains a string table, a table of class name
+ * mappings, and tables of fields and methods, grouped by their original
+ * classes and their obfuscated names. See {@link MappedFrameRemapper} for the
+ * exact layout.
+ */
+public class MappingIndexCompiler
+implements   MappingProcessor
+{
+    private static final String USAGE = "Usage: java proguard.retrace.MappingIndexCompiler <mapping_file> <index_file>";
+
+    // String -> string index.
+    private final Map<String,Integer> stringIndices = new HashMap<String,Integer>();
+    private final List<String>        strings       = new ArrayList<String>();
+
+    // Obfuscated class name -> original class name.
+    private final Map<String,String> classMap = new HashMap<String,String>();
+
+    // Original class name -> obfuscated member name -> member entries.
+    private final Map<String,Map<String,List<int[]>>> classFieldMap  = new HashMap<String,Map<String,List<int[]>>>();
+    private final Map<String,Map<String,List<int[]>>> classMethodMap = new HashMap<String,Map<String,List<int[]>>>();
+
+
+    /**
+     * Reads the given mapping file and writes it out as a binary index.
+     */
+    public static void compile(File mappingFile, File indexFile) throws IOException
+    {
+        MappingIndexCompiler compiler = new MappingIndexCompiler();
+
+        new MappingReader(mappingFile).pump(compiler);
+
+        compiler.write(indexFile);
+    }
+
+
+    /**
+     * Writes out the collected mapping information as a binary index.
+     */
+    public void write(File indexFile) throws IOException
+    {
+        DataOutputStream output =
+            new DataOutputStream(
+            new BufferedOutputStream(
+            new FileOutputStream(indexFile)));
+        try
+        {
+            write(output);
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+
+
+    /**
+     * Writes out the collected mapping information as a binary index.
+     */
+    public void write(DataOutputStream output) throws IOException
+    {
+        // Collect the classes, sorted by the hash codes of their obfuscated
+        // names.
+        List<String> obfuscatedClassNames = sortedByHashCode(classMap.keySet());
+
+        // Collect the original classes that have members, sorted by the hash
+        // codes of their names.
+        Set<String> ownerSet = new HashSet<String>(classFieldMap.keySet());
+        ownerSet.addAll(classMethodMap.keySet());
+        List<String> ownerNames = sortedByHashCode(ownerSet);
+
+        // Make sure all names are in the string table.
+        for (String name : obfuscatedClassNames)
+        {
+            stringIndex(name);
+            stringIndex(classMap.get(name));
+        }
+        for (String name : ownerNames)
+        {
+            stringIndex(name);
+        }
+
+        // Encode the strings.
+        byte[][] stringBytes = new byte[strings.size()][];
+        int stringDataSize = 0;
+        for (int index = 0; index < stringBytes.length; index++)
+        {
+            stringBytes[index] = strings.get(index).getBytes(StandardCharsets.UTF_8);
+            stringDataSize    += stringBytes[index].length;
+        }
+
+        int fieldGroupCount  = groupCount(classFieldMap);
+        int fieldCount       = entryCount(classFieldMap);
+        int methodGroupCount = groupCount(classMethodMap);
+        int methodCount      = entryCount(classMethodMap);
+
+        // Write the header.
+        output.writeInt(MappedFrameRemapper.MAGIC);
+        output.writeInt(MappedFrameRemapper.VERSION);
+        output.writeInt(strings.size());
+        output.writeInt(obfuscatedClassNames.size());
+        output.writeInt(ownerNames.size());
+        output.writeInt(fieldGroupCount);
+        output.writeInt(fieldCount);
+        output.writeInt(methodGroupCount);
+        output.writeInt(methodCount);
+        output.writeInt(stringDataSize);
+
+        // Write the string table: the offsets, followed by the UTF-8 data,
+        // padded to a multiple of 4 bytes.
+        int offset = 0;
+        for (int index = 0; index < stringBytes.length; index++)
+        {
+            output.writeInt(offset);
+            offset += stringBytes[index].length;
+        }
+        output.writeInt(offset);
+
+        for (int index = 0; index < stringBytes.length; index++)
+        {
+            output.write(stringBytes[index]);
+        }
+
+        for (int index = stringDataSize; index % 4 != 0; index++)
+        {
+            output.writeByte(0);
+        }
+
+        // Write the class table.
+        for (String name : obfuscatedClassNames)
+        {
+            output.writeInt(name.hashCode());
+            output.writeInt(stringIndex(name));
+            output.writeInt(stringIndex(classMap.get(name)));
+        }
+
+        // Write the owner table.
+        int fieldGroupIndex  = 0;
+        int methodGroupIndex = 0;
+        for (String name : ownerNames)
+        {
+            Map<String,List<int[]>> fieldMap  = classFieldMap.get(name);
+            Map<String,List<int[]>> methodMap = classMethodMap.get(name);
+
+            int ownerFieldGroupCount  = fieldMap  == null ? 0 : fieldMap.size();
+            int ownerMethodGroupCount = methodMap == null ? 0 : methodMap.size();
+
+            output.writeInt(name.hashCode());
+            output.writeInt(stringIndex(name));
+            output.writeInt(fieldGroupIndex);
+            output.writeInt(ownerFieldGroupCount);
+            output.writeInt(methodGroupIndex);
+            output.writeInt(ownerMethodGroupCount);
+
+            fieldGroupIndex  += ownerFieldGroupCount;
+            methodGroupIndex += ownerMethodGroupCount;
+        }
+
+        // Write the field groups and the fields.
+        writeGroups(output, ownerNames, classFieldMap);
+        writeEntries(output, ownerNames, classFieldMap);
+
+        // Write the method groups and the methods.
+        writeGroups(output, ownerNames, classMethodMap);
+        writeEntries(output, ownerNames, classMethodMap);
+    }
+
+
+    // Implementations for MappingProcessor.
+
+    public boolean processClassMapping(String className,
+                                       String newClassName)
+    {
+        // Obfuscated class name -> original class name.
+        classMap.put(newClassName, className);
+
+        return true;
+    }
+
+
+    public void processFieldMapping(String className,
+                                    String fieldType,
+                                    String fieldName,
+                                    String newClassName,
+                                    String newFieldName)
+    {
+        memberEntries(classFieldMap, newClassName, newFieldName)
+            .add(new int[]
+            {
+                stringIndex(className),
+                stringIndex(fieldType),
+                stringIndex(fieldName),
+            });
+    }
+
+
+    public void processMethodMapping(String className,
+                                     int    firstLineNumber,
+                                     int    lastLineNumber,
+                                     String methodReturnType,
+                                     String methodName,
+                                     String methodArguments,
+                                     String newClassName,
+                                     int    newFirstLineNumber,
+                                     int    newLastLineNumber,
+                                     String newMethodName)
+    {
+        memberEntries(classMethodMap, newClassName, newMethodName)
+            .add(new int[]
+            {
+                newFirstLineNumber,
+                newLastLineNumber,
+                stringIndex(className),
+                firstLineNumber,
+                lastLineNumber,
+                stringIndex(methodReturnType),
+                stringIndex(methodName),
+                stringIndex(methodArguments),
+            });
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns the list of member entries for the given original class name
+     * and obfuscated member name, creating it if necessary.
+     */
+    private List<int[]> memberEntries(Map<String,Map<String,List<int[]>>> classMemberMap,
+                                      String                              className,
+                                      String                              newMemberName)
+    {
+        // Original class name -> obfuscated member names.
+        Map<String,List<int[]>> memberMap = classMemberMap.get(className);
+        if (memberMap == null)
+        {
+            memberMap = new HashMap<String,List<int[]>>();
+            classMemberMap.put(className, memberMap);
+        }
+
+        // Obfuscated member name -> members.
+        List<int[]> entries = memberMap.get(newMemberName);
+        if (entries == null)
+        {
+            entries = new ArrayList<int[]>();
+            memberMap.put(newMemberName, entries);
+
+            // Make sure the member name is in the string table.
+            stringIndex(newMemberName);
+        }
+
+        return entries;
+    }
+
+
+    /**
+     * Writes out the member groups of the given owners, each sorted by the
+     * hash codes of their obfuscated member names.
+     */
+    private void writeGroups(DataOutputStream                    output,
+                             List<String>                        ownerNames,
+                             Map<String,Map<String,List<int[]>>> classMemberMap)
+    throws IOException
+    {
+        int entryIndex = 0;
+        for (String ownerName : ownerNames)
+        {
+            Map<String,List<int[]>> memberMap = classMemberMap.get(ownerName);
+            if (memberMap != null)
+            {
+                for (String name : sortedByHashCode(memberMap.keySet()))
+                {
+                    int count = memberMap.get(name).size();
+
+                    output.writeInt(name.hashCode());
+                    output.writeInt(stringIndex(name));
+                    output.writeInt(entryIndex);
+                    output.writeInt(count);
+
+                    entryIndex += count;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Writes out the member entries of the given owners, in the same order
+     * as their groups.
+     */
+    private void writeEntries(DataOutputStream                    output,
+                              List<String>                        ownerNames,
+                              Map<String,Map<String,List<int[]>>> classMemberMap)
+    throws IOException
+    {
+        for (String ownerName : ownerNames)
+        {
+            Map<String,List<int[]>> memberMap = classMemberMap.get(ownerName);
+            if (memberMap != null)
+            {
+                for (String name : sortedByHashCode(memberMap.keySet()))
+                {
+                    for (int[] entry : memberMap.get(name))
+                    {
+                        for (int index = 0; index < entry.length; index++)
+                        {
+                            output.writeInt(entry[index]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the total number of member groups in the given map.
+     */
+    private static int groupCount(Map<String,Map<String,List<int[]>>> classMemberMap)
+    {
+        int count = 0;
+        for (Map<String,List<int[]>> memberMap : classMemberMap.values())
+        {
+            count += memberMap.size();
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Returns the total number of member entries in the given map.
+     */
+    private static int entryCount(Map<String,Map<String,List<int[]>>> classMemberMap)
+    {
+        int count = 0;
+        for (Map<String,List<int[]>> memberMap : classMemberMap.values())
+        {
+            for (List<int[]> entries : memberMap.values())
+            {
+                count += entries.size();
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Returns the given names, sorted by their hash codes.
+     */
+    private static List<String> sortedByHashCode(Collection<String> names)
+    {
+        List<String> sortedNames = new ArrayList<String>(names);
+        Collections.sort(sortedNames, new Comparator<String>()
+        {
+            public int compare(String name1, String name2)
+            {
+                return Integer.compare(name1.hashCode(), name2.hashCode());
+            }
+        });
+
+        return sortedNames;
+    }
+
+
+    /**
+     * Returns the index of the given string in the string table, adding it
+     * if necessary.
+     */
+    private int stringIndex(String string)
+    {
+        Integer index = stringIndices.get(string);
+        if (index == null)
+        {
+            index = Integer.valueOf(strings.size());
+            stringIndices.put(string, index);
+            strings.add(string);
+        }
+
+        return index.intValue();
+    }
+
+
+    /**
+     * The main program for the MappingIndexCompiler.
+     */
+    public static void main(String[] args)
+    {
+        if (args.length != 2)
+        {
+            System.err.println(USAGE);
+            System.exit(-1);
+        }
+
+        try
+        {
+            compile(new File(args[0]), new File(args[1]));
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Error: "+ex.getMessage());
+            System.exit(1);
+        }
+
+        System.exit(0);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.util.*;
+
+/**
+ * This TraceStore keeps retraced stack traces in memory. It holds at most a
+ * given number of them, discarding the least recently used ones. Instances
+ * can be shared between threads.
+ */
+public class MemoryTraceStore
+implements   TraceStore
+{
+    // Fingerprint -> retraced stack trace, in order of access.
+    private final LinkedHashMap<String,String> retracedTraces;
+
+
+    /**
+     * Creates a new MemoryTraceStore.
+     * @param maximumCount the maximum number of stack traces to keep.
+     */
+    public MemoryTraceStore(final int maximumCount)
+    {
+        retracedTraces = new LinkedHashMap<String,String>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<String,String> eldest)
+            {
+                return size() > maximumCount;
+            }
+        };
+    }
+
+
+    /**
+     * Returns the number of stack traces that are currently present.
+     */
+    public synchronized int getCount()
+    {
+        return retracedTraces.size();
+    }
+
+
+    // Implementations for TraceStore.
+
+    public synchronized String get(String fingerprint)
+    {
+        return retracedTraces.get(fingerprint);
+    }
+
+
+    public synchronized void put(String fingerprint, String retracedTrace)
+    {
+        retracedTraces.put(fingerprint, retracedTrace);
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import proguard.retrace.AbstractFrameRemapper.MethodInfo;
+
+import java.util.*;
+
+/**
+ * This class contains the methods of a class, in parallel arrays. Line
+ * numbers are stored as they are, and strings as indices in a string pool.
+ * The methods are also indexed by obfuscated name and obfuscated line range,
+ * so a lookup only needs binary searches instead of a scan over all methods.
+ * Methods without obfuscated line range (with last line number 0) match any
+ * line number, so they are indexed separately.
+ * <p>
+ * Instances are immutable, so they can be shared between threads.
+ */
+final class MethodTable
+{
+    private final StringPool stringPool;
+
+    private final int[] obfuscatedNames;
+    private final int[] obfuscatedFirstLineNumbers;
+    private final int[] obfuscatedLastLineNumbers;
+    private final int[] originalClassNames;
+    private final int[] originalFirstLineNumbers;
+    private final int[] originalLastLineNumbers;
+    private final int[] originalTypes;
+    private final int[] originalNames;
+    private final int[] originalArguments;
+
+    // Methods with line ranges, sorted by obfuscated name and by obfuscated
+    // first line number.
+    private final int[] rangeMethods;
+
+    // The maximum obfuscated last line number of the methods with the same
+    // obfuscated name, up to each position in the sorted methods.
+    private final int[] rangeMaxLastLineNumbers;
+
+    // Methods without line ranges, sorted by obfuscated name and by their
+    // order in the mapping file.
+    private final int[] wildcardMethods;
+
+
+    /**
+     * Creates a new MethodTable with copies of the first given number of
+     * elements of the given arrays. The string indices refer to the given
+     * string pool.
+     */
+    MethodTable(StringPool stringPool,
+                int        size,
+                int[]      obfuscatedNames,
+                int[]      obfuscatedFirstLineNumbers,
+                int[]      obfuscatedLastLineNumbers,
+                int[]      originalClassNames,
+                int[]      originalFirstLineNumbers,
+                int[]      originalLastLineNumbers,
+                int[]      originalTypes,
+                int[]      originalNames,
+                int[]      originalArguments)
+    {
+        this.stringPool                 = stringPool;
+        this.obfuscatedNames            = Arrays.copyOf(obfuscatedNames,            size);
+        this.obfuscatedFirstLineNumbers = Arrays.copyOf(obfuscatedFirstLineNumbers, size);
+        this.obfuscatedLastLineNumbers  = Arrays.copyOf(obfuscatedLastLineNumbers,  size);
+        this.originalClassNames         = Arrays.copyOf(originalClassNames,         size);
+        this.originalFirstLineNumbers   = Arrays.copyOf(originalFirstLineNumbers,   size);
+        this.originalLastLineNumbers    = Arrays.copyOf(originalLastLineNumbers,    size);
+        this.originalTypes              = Arrays.copyOf(originalTypes,              size);
+        this.originalNames              = Arrays.copyOf(originalNames,              size);
+        this.originalArguments          = Arrays.copyOf(originalArguments,          size);
+
+        List<Integer> rangeMethodList    = new ArrayList<Integer>();
+        List<Integer> wildcardMethodList = new ArrayList<Integer>();
+
+        for (int index = 0; index < size; index++)
+        {
+            (obfuscatedLastLineNumbers[index] == 0 ?
+                 wildcardMethodList :
+                 rangeMethodList).add(Integer.valueOf(index));
+        }
+
+        // The sort is stable, so methods with the same keys stay in the
+        // order of the mapping file.
+        Collections.sort(rangeMethodList, new Comparator<Integer>()
+        {
+            public int compare(Integer index1, Integer index2)
+            {
+                int name1 = MethodTable.this.obfuscatedNames[index1.intValue()];
+                int name2 = MethodTable.this.obfuscatedNames[index2.intValue()];
+
+                return name1 != name2 ?
+                    Integer.compare(name1, name2) :
+                    Integer.compare(MethodTable.this.obfuscatedFirstLineNumbers[index1.intValue()],
+                                    MethodTable.this.obfuscatedFirstLineNumbers[index2.intValue()]);
+            }
+        });
+
+        Collections.sort(wildcardMethodList, new Comparator<Integer>()
+        {
+            public int compare(Integer index1, Integer index2)
+            {
+                return Integer.compare(MethodTable.this.obfuscatedNames[index1.intValue()],
+                                       MethodTable.this.obfuscatedNames[index2.intValue()]);
+            }
+        });
+
+        rangeMethods            = toIntArray(rangeMethodList);
+        rangeMaxLastLineNumbers = new int[rangeMethods.length];
+        wildcardMethods         = toIntArray(wildcardMethodList);
+
+        for (int position = 0; position < rangeMethods.length; position++)
+        {
+            int index = rangeMethods[position];
+
+            rangeMaxLastLineNumbers[position] =
+                position > 0 &&
+                obfuscatedNames[rangeMethods[position-1]] == obfuscatedNames[index] ?
+                    Math.max(rangeMaxLastLineNumbers[position-1],
+                             obfuscatedLastLineNumbers[index]) :
+                    obfuscatedLastLineNumbers[index];
+        }
+    }
+
+
+    /**
+     * Returns the methods with the given obfuscated name that match the given
+     * obfuscated line number, in the order of the mapping file, or null if
+     * there aren't any.
+     */
+    List<MethodInfo> methodInfos(int obfuscatedName,
+                                 int obfuscatedLineNumber)
+    {
+        int rangeStart    = firstPosition(rangeMethods,    obfuscatedName);
+        int rangeEnd      = firstPosition(rangeMethods,    obfuscatedName + 1);
+        int wildcardStart = firstPosition(wildcardMethods, obfuscatedName);
+        int wildcardEnd   = firstPosition(wildcardMethods, obfuscatedName + 1);
+
+        int[] methodIndices =
+            new int[rangeEnd - rangeStart + wildcardEnd - wildcardStart];
+        int   count         = 0;
+
+        // Collect the wildcard methods, which match any line number.
+        for (int position = wildcardStart; position < wildcardEnd; position++)
+        {
+            methodIndices[count++] = wildcardMethods[position];
+        }
+
+        // We're allowing unknown line numbers, represented as 0.
+        if (obfuscatedLineNumber == 0)
+        {
+            for (int position = rangeStart; position < rangeEnd; position++)
+            {
+                methodIndices[count++] = rangeMethods[position];
+            }
+        }
+        else
+        {
+            // Find the end of the methods that start at or before the line
+            // number.
+            int low  = rangeStart;
+            int high = rangeEnd;
+            while (low < high)
+            {
+                int middle = (low + high) >>> 1;
+                if (obfuscatedFirstLineNumbers[rangeMethods[middle]] <= obfuscatedLineNumber)
+                {
+                    low = middle + 1;
+                }
+                else
+                {
+                    high = middle;
+                }
+            }
+
+            // Collect the methods that still end at or after the line number,
+            // stopping as soon as none of the remaining methods can.
+            for (int position = low - 1;
+                 position >= rangeStart &&
+                 rangeMaxLastLineNumbers[position] >= obfuscatedLineNumber;
+                 position--)
+            {
+                int index = rangeMethods[position];
+                if (obfuscatedLastLineNumbers[index] >= obfuscatedLineNumber)
+                {
+                    methodIndices[count++] = index;
+                }
+            }
+        }
+
+        if (count == 0)
+        {
+            return null;
+        }
+
+        // Restore the order of the mapping file.
+        Arrays.sort(methodIndices, 0, count);
+
+        List<MethodInfo> methodInfos = new ArrayList<MethodInfo>(count);
+
+        for (int position = 0; position < count; position++)
+        {
+            methodInfos.add(methodInfo(methodIndices[position]));
+        }
+
+        return methodInfos;
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Creates a MethodInfo for the method at the given index.
+     */
+    private MethodInfo methodInfo(int index)
+    {
+        return new MethodInfo(obfuscatedFirstLineNumbers[index],
+                              obfuscatedLastLineNumbers[index],
+                              stringPool.string(originalClassNames[index]),
+                              originalFirstLineNumbers[index],
+                              originalLastLineNumbers[index],
+                              stringPool.string(originalTypes[index]),
+                              stringPool.string(originalNames[index]),
+                              stringPool.string(originalArguments[index]));
+    }
+
+
+    /**
+     * Returns the first position in the given sorted methods with at least
+     * the given obfuscated name.
+     */
+    private int firstPosition(int[] methods, int obfuscatedName)
+    {
+        int low  = 0;
+        int high = methods.length;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (obfuscatedNames[methods[middle]] < obfuscatedName)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+
+    /**
+     * Returns the given list of integers as an array.
+     */
+    private static int[] toIntArray(List<Integer> list)
+    {
+        int[] array = new int[list.size()];
+        for (int index = 0; index < array.length; index++)
+        {
+            array[index] = list.get(index).intValue();
+        }
+
+        return array;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class de-obfuscates large stack traces or log files on multiple
+ * threads. It reads the input in chunks of lines, retraces the chunks in
+ * parallel with a shared session, and writes out the results in the
+ * original order, with the same results as the session by itself.
+ * <p>
+ * Only a limited number of chunks are in progress at any time, so memory
+ * usage doesn't depend on the size of the input.
+ */
+public class ParallelReTracer
+{
+    private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+
+    private final ReTraceSession  session;
+    private final ExecutorService executor;
+    private final int             maximumPendingChunkCount;
+    private final int             chunkSize;
+
+
+    /**
+     * Creates a new ParallelReTracer with a default chunk size.
+     * @param session     the session that retraces the lines. It is shared
+     *                    between all threads.
+     * @param executor    the executor on which the chunks are retraced.
+     * @param parallelism the number of threads of the executor that
+     *                    should be kept busy.
+     */
+    public ParallelReTracer(ReTraceSession  session,
+                            ExecutorService executor,
+                            int             parallelism)
+    {
+        this(session, executor, parallelism, DEFAULT_CHUNK_SIZE);
+    }
+
+
+    /**
+     * Creates a new ParallelReTracer.
+     * @param session     the session that retraces the lines. It is shared
+     *                    between all threads.
+     * @param executor    the executor on which the chunks are retraced.
+     * @param parallelism the number of threads of the executor that
+     *                    should be kept busy.
+     * @param chunkSize   the approximate minimum size of a chunk, in
+     *                    characters.
+     */
+    public ParallelReTracer(ReTraceSession  session,
+                            ExecutorService executor,
+                            int             parallelism,
+                            int             chunkSize)
+    {
+        this.session                  = session;
+        this.executor                 = executor;
+        this.maximumPendingChunkCount = 2 * Math.max(parallelism, 1);
+        this.chunkSize                = chunkSize;
+    }
+
+
+    /**
+     * De-obfuscates a given stack trace.
+     * @param stackTraceReader a reader for the obfuscated stack trace.
+     * @param stackTraceWriter a writer for the de-obfuscated stack trace.
+     */
+    public void retrace(LineNumberReader stackTraceReader,
+                        PrintWriter      stackTraceWriter) throws IOException
+    {
+        // The chunks that are being retraced, in their original order.
+        Deque<Future<String>> pendingChunks = new ArrayDeque<Future<String>>();
+
+        try
+        {
+            while (true)
+            {
+                final List<String> obfuscatedLines = readChunk(stackTraceReader);
+                if (obfuscatedLines == null)
+                {
+                    break;
+                }
+
+                // Write out the oldest chunk first, if there are too many
+                // chunks in progress.
+                if (pendingChunks.size() >= maximumPendingChunkCount)
+                {
+                    stackTraceWriter.print(get(pendingChunks.removeFirst()));
+                }
+
+                pendingChunks.addLast(executor.submit(new Callable<String>()
+                {
+                    public String call()
+                    {
+                        return retrace(obfuscatedLines);
+                    }
+                }));
+            }
+
+            // Write out the remaining chunks.
+            while (!pendingChunks.isEmpty())
+            {
+                stackTraceWriter.print(get(pendingChunks.removeFirst()));
+            }
+        }
+        finally
+        {
+            // Don't leave any work behind if something went wrong.
+            for (Future<String> pendingChunk : pendingChunks)
+            {
+                pendingChunk.cancel(true);
+            }
+        }
+
+        stackTraceWriter.flush();
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Reads the next chunk of lines, or returns null if there aren't any
+     * more lines.
+     */
+    private List<String> readChunk(LineNumberReader stackTraceReader) throws IOException
+    {
+        List<String> obfuscatedLines = new ArrayList<String>();
+
+        int size = 0;
+        while (size < chunkSize)
+        {
+            String obfuscatedLine = stackTraceReader.readLine();
+            if (obfuscatedLine == null)
+            {
+                break;
+            }
+
+            obfuscatedLines.add(obfuscatedLine);
+            size += obfuscatedLine.length() + 1;
+        }
+
+        return obfuscatedLines.isEmpty() ? null : obfuscatedLines;
+    }
+
+
+    /**
+     * Retraces the given lines, returning the result as the session would
+     * print it.
+     */
+    private String retrace(List<String> obfuscatedLines)
+    {
+        StringBuilder retracedLines = new StringBuilder();
+
+        for (int index = 0; index < obfuscatedLines.size(); index++)
+        {
+            retracedLines.append(session.retraceLine(obfuscatedLines.get(index)))
+                         .append(LINE_SEPARATOR);
+        }
+
+        return retracedLines.toString();
+    }
+
+
+    /**
+     * Returns the result of the given chunk, unwrapping any exception.
+     */
+    private String get(Future<String> pendingChunk) throws IOException
+    {
+        try
+        {
+            return pendingChunk.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while retracing stack trace");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class de-obfuscates a stack trace in a pipeline of three stages: a
+ * thread that reads and decodes the input lines, a thread that retraces
+ * them, and the calling thread, which encodes and writes out the results.
+ * Reading, retracing, and writing can then overlap, for instance when
+ * retracing a stream from the standard input.
+ * <p>
+ * The stages pass batches of lines through bounded queues, so a slow stage
+ * holds up the earlier ones. A batch ends early whenever no more input is
+ * ready, and the output is flushed whenever no more results are ready, so
+ * interactive streams aren't delayed.
+ */
+public class PipelinedReTracer
+{
+    private static final int DEFAULT_BATCH_SIZE  = 1024;
+    private static final int DEFAULT_QUEUE_SIZE  = 4;
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    // Markers for the ends of the streams, compared by identity.
+    private static final List<String> END_OF_INPUT  = Collections.unmodifiableList(new ArrayList<String>());
+    private static final String       END_OF_OUTPUT = new String();
+
+
+    private final ReTraceSession session;
+    private final int            batchSize;
+    private final int            queueSize;
+
+
+    /**
+     * Creates a new PipelinedReTracer with default batch and queue sizes.
+     * @param session the session that retraces the lines.
+     */
+    public PipelinedReTracer(ReTraceSession session)
+    {
+        this(session, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_SIZE);
+    }
+
+
+    /**
+     * Creates a new PipelinedReTracer.
+     * @param session   the session that retraces the lines.
+     * @param batchSize the maximum number of lines in a batch.
+     * @param queueSize the maximum number of batches waiting between two
+     *                  stages.
+     */
+    public PipelinedReTracer(ReTraceSession session,
+                             int            batchSize,
+                             int            queueSize)
+    {
+        this.session   = session;
+        this.batchSize = batchSize;
+        this.queueSize = queueSize;
+    }
+
+
+    /**
+     * De-obfuscates a given stack trace.
+     * @param stackTraceReader a reader for the obfuscated stack trace.
+     * @param stackTraceWriter a writer for the de-obfuscated stack trace.
+     */
+    public void retrace(final LineNumberReader stackTraceReader,
+                        PrintWriter            stackTraceWriter) throws IOException
+    {
+        final BlockingQueue<List<String>> inputQueue  = new ArrayBlockingQueue<List<String>>(queueSize);
+        final BlockingQueue<String>       outputQueue = new ArrayBlockingQueue<String>(queueSize);
+
+        // The first exception in any of the stages.
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Thread readerThread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    try
+                    {
+                        while (true)
+                        {
+                            List<String> obfuscatedLines = readBatch(stackTraceReader);
+                            if (obfuscatedLines == null)
+                            {
+                                break;
+                            }
+
+                            inputQueue.put(obfuscatedLines);
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                    catch (Throwable e)
+                    {
+                        failure.compareAndSet(null, e);
+                    }
+
+                    inputQueue.put(END_OF_INPUT);
+                }
+                catch (InterruptedException e)
+                {
+                    // The pipeline is being stopped.
+                }
+            }
+        }, "ReTrace reader");
+
+        Thread retracerThread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    try
+                    {
+                        while (true)
+                        {
+                            List<String> obfuscatedLines = inputQueue.take();
+                            if (obfuscatedLines == END_OF_INPUT)
+                            {
+                                break;
+                            }
+
+                            outputQueue.put(retrace(obfuscatedLines));
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                    catch (Throwable e)
+                    {
+                        failure.compareAndSet(null, e);
+                    }
+
+                    outputQueue.put(END_OF_OUTPUT);
+                }
+                catch (InterruptedException e)
+                {
+                    // The pipeline is being stopped.
+                }
+            }
+        }, "ReTrace retracer");
+
+        // Don't let a reader that is blocked on its input keep the virtual
+        // machine alive.
+        readerThread.setDaemon(true);
+        retracerThread.setDaemon(true);
+
+        readerThread.start();
+        retracerThread.start();
+
+        try
+        {
+            // Write out the results on this thread.
+            while (true)
+            {
+                String retracedLines = outputQueue.take();
+                if (retracedLines == END_OF_OUTPUT)
+                {
+                    break;
+                }
+
+                stackTraceWriter.print(retracedLines);
+
+                if (outputQueue.isEmpty())
+                {
+                    stackTraceWriter.flush();
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while retracing stack trace");
+        }
+        finally
+        {
+            // Stop the other stages, in case this stage failed.
+            readerThread.interrupt();
+            retracerThread.interrupt();
+        }
+
+        stackTraceWriter.flush();
+
+        Throwable cause = failure.get();
+        if (cause instanceof IOException)
+        {
+            throw (IOException)cause;
+        }
+        if (cause instanceof RuntimeException)
+        {
+            throw (RuntimeException)cause;
+        }
+        if (cause instanceof Error)
+        {
+            throw (Error)cause;
+        }
+        if (cause != null)
+        {
+            throw new IOException(cause);
+        }
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Reads the next batch of lines, up to the batch size or as far as
+     * input is ready, or returns null if there aren't any more lines.
+     */
+    private List<String> readBatch(LineNumberReader stackTraceReader) throws IOException
+    {
+        List<String> obfuscatedLines = new ArrayList<String>();
+
+        do
+        {
+            String obfuscatedLine = stackTraceReader.readLine();
+            if (obfuscatedLine == null)
+            {
+                break;
+            }
+
+            obfuscatedLines.add(obfuscatedLine);
+        }
+        while (obfuscatedLines.size() < batchSize &&
+               stackTraceReader.ready());
+
+        return obfuscatedLines.isEmpty() ? null : obfuscatedLines;
+    }
+
+
+    /**
+     * Retraces the given lines, returning the result as the session would
+     * print it.
+     */
+    private String retrace(List<String> obfuscatedLines)
+    {
+        StringBuilder retracedLines = new StringBuilder();
+
+        for (int index = 0; index < obfuscatedLines.size(); index++)
+        {
+            retracedLines.append(session.retraceLine(obfuscatedLines.get(index)))
+                         .append(LINE_SEPARATOR);
+        }
+
+        return retracedLines.toString();
+    }
+}
@@ -20,10 +20,11 @@
  */
 package proguard.retrace;
 
-import proguard.obfuscate.MappingReader;
+import proguard.obfuscate.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Tool for de-obfuscating stack traces of applications that were obfuscated
@@ -33,11 +34,19 @@ import java.util.*;
  */
 public class ReTrace
 {
-    private static final String USAGE                  = "Usage: java proguard.retrace.ReTrace [-regex <regex>] [-allclassnames] [-verbose] <mapping_file> [<stacktrace_file>]";
-    private static final String DEFAULT_REGEX          = "Default regex: ";
-    private static final String REGEX_OPTION           = "-regex";
-    private static final String ALL_CLASS_NAMES_OPTION = "-allclassnames";
-    private static final String VERBOSE_OPTION         = "-verbose";
+    private static final String USAGE                        = "Usage: java proguard.retrace.ReTrace [-regex <regex>] [-allclassnames] [-tracedclassesonly] [-tracecache <directory>] [-threads <n>] [-pipeline] [-daemon <socket_file>] [-verbose] <mapping_file> [<stacktrace_file>]";
+    private static final String DEFAULT_REGEX                = "Default regex: ";
+    private static final String REGEX_OPTION                 = "-regex";
+    private static final String ALL_CLASS_NAMES_OPTION       = "-allclassnames";
+    private static final String TRACED_CLASSES_ONLY_OPTION   = "-tracedclassesonly";
+    private static final String TRACE_CACHE_OPTION           = "-tracecache";
+    private static final String THREADS_OPTION               = "-threads";
+    private static final String PIPELINE_OPTION              = "-pipeline";
+    private static final String DAEMON_OPTION                = "-daemon";
+    private static final String VERBOSE_OPTION               = "-verbose";
+
+    // The maximum number of stack traces in a trace cache directory.
+    private static final int    TRACE_CACHE_SIZE             = 10000;
 
     // For example: "com.example.Foo.bar"
     private static final String REGULAR_EXPRESSION_CLASS_METHOD     = "%c\\.%m";
@@ -102,6 +111,7 @@ public class ReTrace
     private final String  regularExpression2;
     private final boolean allClassNames;
     private final boolean verbose;
+    private final boolean tracedClassesOnly;
     private final File    mappingFile;
 
 
@@ -133,15 +143,57 @@ public class ReTrace
                    boolean allClassNames,
                    boolean verbose,
                    File    mappingFile)
+    {
+        this(regularExpression, regularExpression2, allClassNames, verbose, false, mappingFile);
+    }
+
+
+    /**
+     * Creates a new ReTrace instance.
+     * @param regularExpression the regular expression for parsing the lines in
+     *                          the stack trace.
+     * @param allClassNames     specifies whether all words that match class
+     *                          names should be de-obfuscated, even if they
+     *                          aren't matching the regular expression.
+     * @param verbose           specifies whether the de-obfuscated stack trace
+     *                          should be verbose.
+     * @param tracedClassesOnly specifies whether the stack trace should first
+     *                          be scanned for class names, so only the class
+     *                          member mappings of those classes are read.
+     * @param mappingFile       the mapping file that was written out by
+     *                          ProGuard.
+     */
+    public ReTrace(String  regularExpression,
+                   String  regularExpression2,
+                   boolean allClassNames,
+                   boolean verbose,
+                   boolean tracedClassesOnly,
+                   File    mappingFile)
     {
         this.regularExpression = regularExpression;
         this.regularExpression2 = regularExpression2;
         this.allClassNames     = allClassNames;
         this.verbose           = verbose;
+        this.tracedClassesOnly = tracedClassesOnly;
         this.mappingFile       = mappingFile;
     }
 
 
+    /**
+     * Creates a session that reads the mapping file once and compiles the
+     * regular expressions once, so it can then efficiently de-obfuscate any
+     * number of stack traces, also concurrently.
+     */
+    public ReTraceSession createSession() throws IOException
+    {
+        return new ReTraceSession(regularExpression,
+                                  regularExpression2,
+                                  allClassNames,
+                                  verbose,
+                                  mappingFile);
+    }
+
+
     /**
      * De-obfuscates a given stack trace.
      * @param stackTraceReader a reader for the obfuscated stack trace.
@@ -150,185 +202,141 @@ public class ReTrace
     public void retrace(LineNumberReader stackTraceReader,
                         PrintWriter      stackTraceWriter) throws IOException
     {
-        // Create a pattern for stack frames.
-        FramePattern pattern1 = new FramePattern(regularExpression, verbose);
-        FramePattern pattern2 = new FramePattern(regularExpression2, verbose);
-
-        // Create a remapper.
-        FrameRemapper mapper = new FrameRemapper();
-
-        // Read the mapping file.
-        MappingReader mappingReader = new MappingReader(mappingFile);
-        mappingReader.pump(mapper);
+        if (!tracedClassesOnly ||
+            MappedFrameRemapper.isMappingIndex(mappingFile))
+        {
+            createSession().retrace(stackTraceReader, stackTraceWriter);
+            return;
+        }
 
-        // Read and process the lines of the stack trace.
+        // Read the entire stack trace, so we can collect its classes first.
+        List<String> obfuscatedLines = new ArrayList<String>();
         while (true)
         {
-            // Read a line.
             String obfuscatedLine = stackTraceReader.readLine();
             if (obfuscatedLine == null)
             {
                 break;
             }
 
-            // Try to match it against the regular expression.
-            FrameInfo obfuscatedFrame1 = pattern1.parse(obfuscatedLine);
-            FrameInfo obfuscatedFrame2 = pattern2.parse(obfuscatedLine);
-
-            String deobf = handle(obfuscatedFrame1, mapper, pattern1, obfuscatedLine);
-            // DIRTY FIX:
-            // I have to execute it two times because recent Java stacktraces may have multiple fields/methods in the same line.
-            // For example: java.lang.NullPointerException: Cannot invoke "com.example.Foo.bar.foo(int)" because the return value of "com.example.Foo.bar.foo2()" is null
-            deobf = handle(obfuscatedFrame2, mapper, pattern2, deobf);
-
-            stackTraceWriter.println(deobf);
+            obfuscatedLines.add(obfuscatedLine);
         }
 
-        stackTraceWriter.flush();
-    }
+        // Create patterns for stack frames.
+        FramePattern pattern1 = new FramePattern(regularExpression,  verbose);
+        FramePattern pattern2 = new FramePattern(regularExpression2, verbose);
 
-    private String handle(FrameInfo obfuscatedFrame, FrameRemapper mapper, FramePattern pattern, String obfuscatedLine)
-    {
-        StringBuilder result = new StringBuilder();
-        if (obfuscatedFrame != null)
+        // Collect the obfuscated class names in the stack trace.
+        Set<String> classNames = new HashSet<String>();
+        for (String obfuscatedLine : obfuscatedLines)
         {
-            // Transform the obfuscated frame back to one or more
-            // original frames.
-            Iterator<FrameInfo> retracedFrames =
-                    mapper.transform(obfuscatedFrame).iterator();
-
-            String previousLine = null;
-
-            while (retracedFrames.hasNext())
-            {
-                // Retrieve the next retraced frame.
-                FrameInfo retracedFrame = retracedFrames.next();
-
-                // Format the retraced line.
-                String retracedLine =
-                        pattern.format(obfuscatedLine, retracedFrame);
-
-                // Clear the common first part of ambiguous alternative
-                // retraced lines, to present a cleaner list of
-                // alternatives.
-                String trimmedLine =
-                        previousLine != null &&
-                                obfuscatedFrame.getLineNumber() == 0 ?
-                                trim(retracedLine, previousLine) :
-                                retracedLine;
-
-                // Print out the retraced line.
-                if (trimmedLine != null)
-                {
-                    if (allClassNames)
-                    {
-                        trimmedLine = deobfuscateTokens(trimmedLine, mapper);
-                    }
-
-                    result.append(trimmedLine);
-                    if (retracedFrames.hasNext()) {
-                        result.append(System.lineSeparator());
-                    }
-                }
-
-                previousLine = retracedLine;
-            }
+            addClassName(pattern1.parse(obfuscatedLine), classNames);
+            addClassName(pattern2.parse(obfuscatedLine), classNames);
         }
-        else
-        {
-            if (allClassNames)
-            {
-                obfuscatedLine = deobfuscateTokens(obfuscatedLine, mapper);
-            }
 
-            // Print out the original line.
-            result.append(obfuscatedLine);
-        }
-        return result.toString();
-    }
+        // Read the mapping file, skipping the class members of all other
+        // classes.
+        FrameRemapper mapper = new FrameRemapper();
 
+        MappedMappingReader mappingReader = new MappedMappingReader(mappingFile);
+        mappingReader.pump(new ClassNameMappingFilter(classNames, mapper));
 
-    /**
-     * Attempts to deobfuscate each token of the line to a corresponding
-     * original classname if possible.
-     */
-    private String deobfuscateTokens(String line, FrameRemapper mapper)
-    {
-        StringBuilder sb = new StringBuilder();
+        // Process the lines of the stack trace.
+        ReTraceSession session =
+            new ReTraceSession(pattern1, pattern2, allClassNames, mapper);
 
-        // Try to deobfuscate any token encountered in the line.
-        StringTokenizer st = new StringTokenizer(line, "[]{}()/\\:;, '\"<>", true);
-        while (st.hasMoreTokens())
+        for (String obfuscatedLine : obfuscatedLines)
         {
-            sb.append(mapper.originalClassName(st.nextToken()));
+            stackTraceWriter.println(session.retraceLine(obfuscatedLine));
         }
 
-        return sb.toString();
+        stackTraceWriter.flush();
     }
 
 
     /**
-     * Returns the first given string, with any leading characters that it has
-     * in common with the second string replaced by spaces.
+     * De-obfuscates a given stack trace on the given number of threads, which
+     * also parse the mapping file. The output is the same as with a single
+     * thread.
+     * @param stackTraceReader a reader for the obfuscated stack trace.
+     * @param stackTraceWriter a writer for the de-obfuscated stack trace.
+     * @param threadCount      the number of threads that retrace lines.
+     *                         It must be positive.
      */
-    private String trim(String string1, String string2)
+    public void retrace(LineNumberReader stackTraceReader,
+                        PrintWriter      stackTraceWriter,
+                        int              threadCount) throws IOException
     {
-        StringBuilder line = new StringBuilder(string1);
-
-        // Find the common part.
-        int trimEnd = firstNonCommonIndex(string1, string2);
-        if (trimEnd == string1.length())
+        if (threadCount < 1)
         {
-            return null;
+            throw new IllegalArgumentException("Thread count must be positive ["+threadCount+"]");
         }
 
-        // Don't clear the last identifier characters.
-        trimEnd = lastNonIdentifierIndex(string1, trimEnd) + 1;
-
-        // Clear the common characters.
-        for (int index = 0; index < trimEnd; index++)
+        // Parse the mapping file and retrace the lines on the same threads.
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        try
         {
-            if (!Character.isWhitespace(string1.charAt(index)))
-            {
-                line.setCharAt(index, ' ');
-            }
+            ReTraceSession session =
+                new ReTraceSession(regularExpression,
+                                   regularExpression2,
+                                   allClassNames,
+                                   verbose,
+                                   mappingFile,
+                                   pool);
+
+            new ParallelReTracer(session, pool, threadCount)
+                .retrace(stackTraceReader, stackTraceWriter);
+        }
+        finally
+        {
+            pool.shutdownNow();
         }
-
-        return line.toString();
     }
 
 
     /**
-     * Returns the index of the first character that is not the same in both
-     * given strings.
+     * De-obfuscates a given stack trace, reusing any stack traces that the
+     * given store already contains for the same mapping file and settings.
+     * The mapping file is only read if there are new stack traces.
+     * @param stackTraceReader a reader for the obfuscated stack trace.
+     * @param stackTraceWriter a writer for the de-obfuscated stack trace.
+     * @param traceStore       the store for retraced stack traces.
      */
-    private int firstNonCommonIndex(String string1, String string2)
+    public void retrace(LineNumberReader stackTraceReader,
+                        PrintWriter      stackTraceWriter,
+                        TraceStore       traceStore) throws IOException
     {
-        int index = 0;
-        while (index < string1.length() &&
-               index < string2.length() &&
-               string1.charAt(index) == string2.charAt(index))
-        {
-            index++;
-        }
+        new TraceCache(traceStore, settingsKey())
+            .retrace(this, stackTraceReader, stackTraceWriter);
+    }
 
-        return index;
+
+    /**
+     * Returns a key that identifies the mapping file, in its current
+     * version, and all settings that affect the de-obfuscated stack traces.
+     */
+    private String settingsKey() throws IOException
+    {
+        return regularExpression                 + '\n' +
+               regularExpression2                + '\n' +
+               allClassNames                     + '\n' +
+               verbose                           + '\n' +
+               mappingFile.getCanonicalPath()    + '\n' +
+               mappingFile.length()              + '\n' +
+               mappingFile.lastModified();
     }
 
 
     /**
-     * Returns the index of the last character that is not an identifier
-     * character in the given string, at or before the given index.
+     * Adds the class name of the given frame, if any, to the given set.
      */
-    private int lastNonIdentifierIndex(String line, int index)
+    private void addClassName(FrameInfo frameInfo, Set<String> classNames)
     {
-        while (index >= 0 &&
-               Character.isJavaIdentifierPart(line.charAt(index)))
+        if (frameInfo                != null &&
+            frameInfo.getClassName() != null)
         {
-            index--;
+            classNames.add(frameInfo.getClassName());
         }
-
-        return index;
     }
 
 
@@ -350,6 +358,11 @@ public class ReTrace
         String  regularExpression2 = REGULAR_EXPRESSION2;
         boolean verbose            = false;
         boolean allClassNames             = false;
+        boolean tracedClassesOnly  = false;
+        File    traceCacheDirectory = null;
+        int     threadCount        = 1;
+        boolean pipeline           = false;
+        File    daemonSocketFile   = null;
 
         int argumentIndex = 0;
         while (argumentIndex < args.length)
@@ -363,6 +376,26 @@ public class ReTrace
             {
                 allClassNames = true;
             }
+            else if (arg.equals(TRACED_CLASSES_ONLY_OPTION))
+            {
+                tracedClassesOnly = true;
+            }
+            else if (arg.equals(TRACE_CACHE_OPTION))
+            {
+                traceCacheDirectory = new File(args[++argumentIndex]);
+            }
+            else if (arg.equals(THREADS_OPTION))
+            {
+                threadCount = parsePositiveInteger(THREADS_OPTION, args[++argumentIndex]);
+            }
+            else if (arg.equals(PIPELINE_OPTION))
+            {
+                pipeline = true;
+            }
+            else if (arg.equals(DAEMON_OPTION))
+            {
+                daemonSocketFile = new File(args[++argumentIndex]);
+            }
             else if (arg.equals(VERBOSE_OPTION))
             {
                 verbose = true;
@@ -381,6 +414,37 @@ public class ReTrace
             System.exit(-1);
         }
 
+        // The trace cache, the threads, the pipeline, and the daemon are
+        // alternative ways of retracing, which can't be combined. They all
+        // read the entire mapping file.
+        int modeCount = (traceCacheDirectory != null ? 1 : 0) +
+                        (threadCount > 1             ? 1 : 0) +
+                        (pipeline                    ? 1 : 0) +
+                        (daemonSocketFile != null    ? 1 : 0);
+
+        if (modeCount > 1)
+        {
+            System.err.println("Error: only one of the options "+TRACE_CACHE_OPTION+", "+THREADS_OPTION+", "+PIPELINE_OPTION+", and "+DAEMON_OPTION+" can be specified");
+            System.err.println(USAGE);
+            System.exit(-1);
+        }
+
+        if (tracedClassesOnly && modeCount > 0)
+        {
+            System.err.println("Error: the option "+TRACED_CLASSES_ONLY_OPTION+" can't be combined with "+TRACE_CACHE_OPTION+", "+THREADS_OPTION+", "+PIPELINE_OPTION+", or "+DAEMON_OPTION);
+            System.err.println(USAGE);
+            System.exit(-1);
+        }
+
+        // The daemon only supports the default regular expressions.
+        if (daemonSocketFile != null &&
+            !regularExpression.equals(REGULAR_EXPRESSION))
+        {
+            System.err.println("Error: the option "+DAEMON_OPTION+" can't be combined with "+REGEX_OPTION);
+            System.err.println(USAGE);
+            System.exit(-1);
+        }
+
         // Convert the arguments into File instances.
         File mappingFile    = new File(args[argumentIndex++]);
         File stackTraceFile = argumentIndex < args.length ?
@@ -405,8 +469,33 @@ public class ReTrace
             try
             {
                 // Execute ReTrace with the collected settings.
-                new ReTrace(regularExpression, regularExpression2, allClassNames, verbose, mappingFile)
-                    .retrace(reader, writer);
+                ReTrace reTrace =
+                    new ReTrace(regularExpression, regularExpression2, allClassNames, verbose, tracedClassesOnly, mappingFile);
+
+                if (daemonSocketFile != null)
+                {
+                    new ReTraceClient(daemonSocketFile)
+                        .retrace(mappingFile, allClassNames, verbose, reader, writer);
+                }
+                else if (traceCacheDirectory != null)
+                {
+                    reTrace.retrace(reader, writer,
+                                    new DirectoryTraceStore(traceCacheDirectory,
+                                                            TRACE_CACHE_SIZE));
+                }
+                else if (threadCount > 1)
+                {
+                    reTrace.retrace(reader, writer, threadCount);
+                }
+                else if (pipeline)
+                {
+                    new PipelinedReTracer(reTrace.createSession())
+                        .retrace(reader, writer);
+                }
+                else
+                {
+                    reTrace.retrace(reader, writer);
+                }
             }
             finally
             {
@@ -435,4 +524,33 @@ public class ReTrace
 
         System.exit(0);
     }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns the positive integer value of the given option argument, or
+     * prints an error and exits if it isn't a positive integer.
+     */
+    private static int parsePositiveInteger(String option, String argument)
+    {
+        try
+        {
+            int value = Integer.parseInt(argument);
+            if (value > 0)
+            {
+                return value;
+            }
+        }
+        catch (NumberFormatException ex)
+        {
+            // Fall through to the error below.
+        }
+
+        System.err.println("Error: the option "+option+" expects a positive integer, but found ["+argument+"]");
+        System.err.println(USAGE);
+        System.exit(-1);
+
+        return 0;
+    }
 }
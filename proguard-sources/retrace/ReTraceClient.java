@@ -0,0 +1,166 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class retraces stack traces by sending them to a ReTraceDaemon, so
+ * it doesn't need to read the mapping file itself.
+ *
+ * @see ReTraceDaemon
+ */
+public class ReTraceClient
+{
+    private final File socketFile;
+
+
+    /**
+     * Creates a new ReTraceClient.
+     * @param socketFile the file of the Unix domain socket of the daemon.
+     */
+    public ReTraceClient(File socketFile)
+    {
+        this.socketFile = socketFile;
+    }
+
+
+    /**
+     * De-obfuscates a given stack trace with the daemon.
+     * @param mappingFile      the mapping file that was written out by
+     *                         ProGuard.
+     * @param allClassNames    specifies whether all words that match class
+     *                         names should be de-obfuscated, even if they
+     *                         aren't matching the regular expression.
+     * @param verbose          specifies whether the de-obfuscated stack
+     *                         trace should be verbose.
+     * @param stackTraceReader a reader for the obfuscated stack trace.
+     * @param stackTraceWriter a writer for the de-obfuscated stack trace.
+     */
+    public void retrace(File                   mappingFile,
+                        boolean                allClassNames,
+                        boolean                verbose,
+                        final LineNumberReader stackTraceReader,
+                        PrintWriter            stackTraceWriter) throws IOException
+    {
+        final SocketChannel channel = UnixDomainSockets.openSocketChannel(socketFile);
+        try
+        {
+            final PrintWriter requestWriter =
+                new PrintWriter(
+                new BufferedWriter(
+                new OutputStreamWriter(UnixDomainSockets.outputStream(channel), StandardCharsets.UTF_8)));
+
+            requestWriter.println(mappingFile.getAbsolutePath());
+            requestWriter.println((allClassNames ? ReTraceDaemon.ALL_CLASS_NAMES_OPTION + " " : "") +
+                                  (verbose       ? ReTraceDaemon.VERBOSE_OPTION                 : ""));
+            requestWriter.flush();
+
+            // Send the stack trace on a separate thread, so the daemon never
+            // waits for us to read its reply while we wait for it to read
+            // the stack trace.
+            final IOException[] requestException = new IOException[1];
+
+            Thread requestThread = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        while (true)
+                        {
+                            String obfuscatedLine = stackTraceReader.readLine();
+                            if (obfuscatedLine == null)
+                            {
+                                break;
+                            }
+
+                            requestWriter.println(obfuscatedLine);
+                        }
+
+                        requestWriter.flush();
+                        channel.shutdownOutput();
+                    }
+                    catch (IOException ex)
+                    {
+                        requestException[0] = ex;
+                    }
+                }
+            }, "ReTrace client");
+
+            requestThread.setDaemon(true);
+            requestThread.start();
+
+            BufferedReader replyReader =
+                new BufferedReader(
+                new InputStreamReader(UnixDomainSockets.inputStream(channel), StandardCharsets.UTF_8));
+
+            String status = replyReader.readLine();
+            if (status == null)
+            {
+                throw new IOException("No reply from ReTrace daemon");
+            }
+            if (!status.equals(ReTraceDaemon.OK_STATUS))
+            {
+                throw new IOException(status.startsWith(ReTraceDaemon.ERROR_STATUS + " ") ?
+                                          status.substring(ReTraceDaemon.ERROR_STATUS.length() + 1) :
+                                          "Unexpected reply from ReTrace daemon ["+status+"]");
+            }
+
+            // Copy the de-obfuscated stack trace.
+            char[] buffer = new char[8192];
+            while (true)
+            {
+                int count = replyReader.read(buffer);
+                if (count < 0)
+                {
+                    break;
+                }
+
+                stackTraceWriter.write(buffer, 0, count);
+            }
+
+            stackTraceWriter.flush();
+
+            try
+            {
+                requestThread.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+
+                throw new InterruptedIOException("Interrupted while sending stack trace");
+            }
+
+            if (requestException[0] != null)
+            {
+                throw requestException[0];
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+}
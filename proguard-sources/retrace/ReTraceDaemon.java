@@ -0,0 +1,313 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.*;
+
+/**
+ * This class keeps mapping files in memory and retraces stack traces that
+ * clients send over a Unix domain socket, so a command-line client can
+ * retrace a stack trace without starting a virtual machine with a cold
+ * mapping.
+ * <p>
+ * Each connection contains a request with, on separate lines, the path of
+ * the mapping file, the ReTrace options (-allclassnames, -verbose), and the
+ * obfuscated stack trace, up to the end of the input. The daemon replies
+ * with a status line, "OK" or "ERROR" followed by a message, and the
+ * de-obfuscated stack trace.
+ * <p>
+ * The daemon reads each mapping file the first time it is requested, and
+ * again if it has changed since. It discards the least recently used
+ * mappings when they exceed a given total size.
+ *
+ * @see ReTraceClient
+ */
+public class ReTraceDaemon
+{
+    private static final String USAGE               = "Usage: java proguard.retrace.ReTraceDaemon [-maxsize <bytes>] <socket_file>";
+    private static final String MAXIMUM_SIZE_OPTION = "-maxsize";
+
+    private static final long   DEFAULT_MAXIMUM_SIZE = 512L * 1024L * 1024L;
+
+    static final String ALL_CLASS_NAMES_OPTION = "-allclassnames";
+    static final String VERBOSE_OPTION         = "-verbose";
+    static final String OK_STATUS              = "OK";
+    static final String ERROR_STATUS           = "ERROR";
+
+
+    private final File                  socketFile;
+    private final FrameRemapperRegistry registry;
+    private final ExecutorService       executor = ReTraceServer.createExecutor();
+
+    private final FramePattern pattern1        = new FramePattern(ReTrace.REGULAR_EXPRESSION,  false);
+    private final FramePattern pattern2        = new FramePattern(ReTrace.REGULAR_EXPRESSION2, false);
+    private final FramePattern verbosePattern1 = new FramePattern(ReTrace.REGULAR_EXPRESSION,  true);
+    private final FramePattern verbosePattern2 = new FramePattern(ReTrace.REGULAR_EXPRESSION2, true);
+
+    private ServerSocketChannel serverChannel;
+
+
+    /**
+     * Creates a new ReTraceDaemon. The daemon only starts accepting
+     * requests once it is started.
+     * @param socketFile  the file of the Unix domain socket.
+     * @param maximumSize the maximum estimated size of all mappings
+     *                    together, in bytes.
+     */
+    public ReTraceDaemon(File socketFile,
+                         long maximumSize)
+    {
+        this.socketFile = socketFile;
+
+        // The mapping keys are the paths of the mapping files, followed by
+        // their modification times, so changed files are read again.
+        this.registry = new FrameRemapperRegistry(new MappingFileLocator()
+        {
+            public File mappingFile(String mappingKey)
+            {
+                return new File(mappingKey.substring(0, mappingKey.lastIndexOf('\n')));
+            }
+        }, maximumSize);
+    }
+
+
+    /**
+     * Starts accepting requests, in the background. Any existing socket file
+     * is replaced.
+     */
+    public synchronized void start() throws IOException
+    {
+        Files.deleteIfExists(socketFile.toPath());
+
+        serverChannel = UnixDomainSockets.openServerSocketChannel(socketFile);
+
+        // Accept connections on a thread that keeps the virtual machine
+        // alive.
+        new Thread(new Runnable()
+        {
+            public void run()
+            {
+                accept();
+            }
+        }, "ReTrace daemon").start();
+    }
+
+
+    /**
+     * Stops accepting requests and deletes the socket file.
+     */
+    public synchronized void stop() throws IOException
+    {
+        if (serverChannel != null)
+        {
+            serverChannel.close();
+            serverChannel = null;
+
+            Files.deleteIfExists(socketFile.toPath());
+        }
+
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * The main program for the ReTrace daemon.
+     */
+    public static void main(String[] args)
+    {
+        long maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+        int argumentIndex = 0;
+        if (argumentIndex < args.length &&
+            args[argumentIndex].equals(MAXIMUM_SIZE_OPTION))
+        {
+            maximumSize = Long.parseLong(args[++argumentIndex]);
+            argumentIndex++;
+        }
+
+        if (argumentIndex != args.length - 1)
+        {
+            System.err.println(USAGE);
+            System.exit(-1);
+        }
+
+        final ReTraceDaemon daemon =
+            new ReTraceDaemon(new File(args[argumentIndex]), maximumSize);
+
+        try
+        {
+            daemon.start();
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Error: "+ex.getMessage());
+            System.exit(1);
+        }
+
+        // Clean up the socket file when the daemon is terminated.
+        Runtime.getRuntime().addShutdownHook(new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    daemon.stop();
+                }
+                catch (IOException ex)
+                {
+                    // Nothing left to do.
+                }
+            }
+        });
+
+        System.err.println("ReTrace daemon listening on "+args[argumentIndex]);
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Accepts connections until the server channel is closed, handling each
+     * connection on its own thread.
+     */
+    private void accept()
+    {
+        ServerSocketChannel serverChannel;
+        synchronized (this)
+        {
+            serverChannel = this.serverChannel;
+        }
+
+        try
+        {
+            while (true)
+            {
+                final SocketChannel channel = serverChannel.accept();
+
+                executor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            handle(channel);
+                        }
+                        catch (IOException ex)
+                        {
+                            // The client has gone away.
+                        }
+                    }
+                });
+            }
+        }
+        catch (IOException | RejectedExecutionException ex)
+        {
+            // The daemon has been stopped.
+        }
+    }
+
+
+    /**
+     * Handles the request on the given connection.
+     */
+    private void handle(SocketChannel channel) throws IOException
+    {
+        try
+        {
+            LineNumberReader reader =
+                new LineNumberReader(
+                new BufferedReader(
+                new InputStreamReader(UnixDomainSockets.inputStream(channel), StandardCharsets.UTF_8)));
+
+            PrintWriter writer =
+                new PrintWriter(
+                new BufferedWriter(
+                new OutputStreamWriter(UnixDomainSockets.outputStream(channel), StandardCharsets.UTF_8)));
+
+            String mappingFileName = reader.readLine();
+            String options         = reader.readLine();
+            if (mappingFileName == null ||
+                options         == null)
+            {
+                return;
+            }
+
+            boolean allClassNames = false;
+            boolean verbose       = false;
+            for (String option : options.split(" "))
+            {
+                if (option.equals(ALL_CLASS_NAMES_OPTION))
+                {
+                    allClassNames = true;
+                }
+                else if (option.equals(VERBOSE_OPTION))
+                {
+                    verbose = true;
+                }
+            }
+
+            AbstractFrameRemapper frameRemapper;
+            try
+            {
+                frameRemapper = frameRemapper(new File(mappingFileName));
+            }
+            catch (IOException ex)
+            {
+                writer.println(ERROR_STATUS + " " + ex.getMessage());
+                writer.flush();
+                return;
+            }
+
+            ReTraceSession session =
+                new ReTraceSession(verbose ? verbosePattern1 : pattern1,
+                                   verbose ? verbosePattern2 : pattern2,
+                                   allClassNames,
+                                   frameRemapper);
+
+            writer.println(OK_STATUS);
+
+            session.retrace(reader, writer);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+
+    /**
+     * Returns the remapper for the current version of the given mapping
+     * file.
+     */
+    private AbstractFrameRemapper frameRemapper(File mappingFile) throws IOException
+    {
+        if (!mappingFile.isFile())
+        {
+            throw new FileNotFoundException("Can't find mapping file ["+mappingFile+"]");
+        }
+
+        return registry.frameRemapper(mappingFile.getPath() + '\n' + mappingFile.lastModified());
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import com.sun.net.httpserver.*;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+
+/**
+ * This class serves ReTrace over HTTP, so clients don't need to start a
+ * virtual machine or read a mapping file for every stack trace. Clients
+ * post an obfuscated stack trace to
+ * <pre>
+ *     /retrace?mapping=&lt;mapping key&gt;
+ * </pre>
+ * and receive the de-obfuscated stack trace, as UTF-8 text. The server
+ * gets the remappers from a shared FrameRemapperRegistry, so each mapping
+ * file is only read once, and all requests for it share its remapper.
+ * <p>
+ * On Java 21 or higher, each request runs on its own virtual thread, so
+ * any number of concurrent requests can be served without a thread pool
+ * limiting them. On older versions, requests run on a cached thread pool.
+ * <p>
+ * The server streams the de-obfuscated stack trace while it reads the
+ * obfuscated stack trace, so it sends the status 200 before retracing.
+ * If retracing then fails, it drops the connection instead of completing
+ * the response. Clients should therefore treat a response body that is
+ * cut short, even after the status 200, as a failed retrace.
+ *
+ * @see FrameRemapperRegistry
+ */
+public class ReTraceServer
+{
+    private static final String USAGE                  = "Usage: java proguard.retrace.ReTraceServer [-port <port>] [-maxsize <bytes>] [-allclassnames] [-verbose] <mapping_directory> [<mapping_key>...]";
+    private static final String PORT_OPTION            = "-port";
+    private static final String MAXIMUM_SIZE_OPTION    = "-maxsize";
+    private static final String ALL_CLASS_NAMES_OPTION = "-allclassnames";
+    private static final String VERBOSE_OPTION         = "-verbose";
+
+    private static final int    DEFAULT_PORT           = 8080;
+    private static final long   DEFAULT_MAXIMUM_SIZE   = 512L * 1024L * 1024L;
+
+    private static final String RETRACE_PATH           = "/retrace";
+    private static final String MAPPING_PARAMETER      = "mapping";
+    private static final String MAPPING_EXTENSION      = ".txt";
+
+    private static final int    HTTP_OK                = 200;
+    private static final int    HTTP_BAD_REQUEST       = 400;
+    private static final int    HTTP_NOT_FOUND         = 404;
+    private static final int    HTTP_BAD_METHOD        = 405;
+    private static final int    HTTP_INTERNAL_ERROR    = 500;
+
+
+    private final FrameRemapperRegistry registry;
+    private final FramePattern          pattern1;
+    private final FramePattern          pattern2;
+    private final boolean               allClassNames;
+    private final HttpServer            httpServer;
+    private final ExecutorService       executor;
+
+
+    /**
+     * Creates a new ReTraceServer with the default regular expressions. The
+     * server only starts accepting requests once it is started.
+     * @param registry      the registry that provides the remappers for
+     *                      the mapping keys in the requests.
+     * @param address       the address on which the server should listen.
+     *                      A port number of 0 lets the system pick a port.
+     * @param allClassNames specifies whether all words that match class
+     *                      names should be de-obfuscated, even if they
+     *                      aren't matching the regular expression.
+     * @param verbose       specifies whether the de-obfuscated stack traces
+     *                      should be verbose.
+     */
+    public ReTraceServer(FrameRemapperRegistry registry,
+                         InetSocketAddress     address,
+                         boolean               allClassNames,
+                         boolean               verbose) throws IOException
+    {
+        this.registry      = registry;
+        this.pattern1      = new FramePattern(ReTrace.REGULAR_EXPRESSION,  verbose);
+        this.pattern2      = new FramePattern(ReTrace.REGULAR_EXPRESSION2, verbose);
+        this.allClassNames = allClassNames;
+
+        executor   = createExecutor();
+        httpServer = HttpServer.create(address, 0);
+        httpServer.setExecutor(executor);
+        httpServer.createContext(RETRACE_PATH, new MyRetraceHandler());
+    }
+
+
+    /**
+     * Starts accepting requests, in the background.
+     */
+    public void start()
+    {
+        httpServer.start();
+    }
+
+
+    /**
+     * Stops accepting requests and waits at most the given number of
+     * seconds for the current requests to finish.
+     */
+    public void stop(int delay)
+    {
+        httpServer.stop(delay);
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Returns the port on which the server is listening.
+     */
+    public int getPort()
+    {
+        return httpServer.getAddress().getPort();
+    }
+
+
+    /**
+     * The main program for the ReTrace server.
+     */
+    public static void main(String[] args)
+    {
+        int     port          = DEFAULT_PORT;
+        long    maximumSize   = DEFAULT_MAXIMUM_SIZE;
+        boolean allClassNames = false;
+        boolean verbose       = false;
+
+        int argumentIndex = 0;
+        while (argumentIndex < args.length)
+        {
+            String arg = args[argumentIndex];
+            if (arg.equals(PORT_OPTION))
+            {
+                port = Integer.parseInt(args[++argumentIndex]);
+            }
+            else if (arg.equals(MAXIMUM_SIZE_OPTION))
+            {
+                maximumSize = Long.parseLong(args[++argumentIndex]);
+            }
+            else if (arg.equals(ALL_CLASS_NAMES_OPTION))
+            {
+                allClassNames = true;
+            }
+            else if (arg.equals(VERBOSE_OPTION))
+            {
+                verbose = true;
+            }
+            else
+            {
+                break;
+            }
+
+            argumentIndex++;
+        }
+
+        if (argumentIndex >= args.length)
+        {
+            System.err.println(USAGE);
+            System.exit(-1);
+        }
+
+        // The mapping keys are the names of the mapping files in the
+        // directory, without their extensions.
+        final File mappingDirectory = new File(args[argumentIndex++]);
+
+        FrameRemapperRegistry registry =
+            new FrameRemapperRegistry(new MappingFileLocator()
+            {
+                public File mappingFile(String mappingKey) throws IOException
+                {
+                    return ReTraceServer.mappingFile(mappingDirectory, mappingKey);
+                }
+            }, maximumSize);
+
+        try
+        {
+            // Preload any specified mapping files.
+            while (argumentIndex < args.length)
+            {
+                registry.frameRemapper(args[argumentIndex++]);
+            }
+
+            ReTraceServer server =
+                new ReTraceServer(registry,
+                                  new InetSocketAddress(port),
+                                  allClassNames,
+                                  verbose);
+            server.start();
+
+            System.err.println("ReTrace server listening on port "+server.getPort());
+        }
+        catch (IOException ex)
+        {
+            if (verbose)
+            {
+                // Print a verbose stack trace.
+                ex.printStackTrace();
+            }
+            else
+            {
+                // Print just the stack trace message.
+                System.err.println("Error: "+ex.getMessage());
+            }
+
+            System.exit(1);
+        }
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns an executor that runs each task on a new virtual thread, if
+     * the platform supports them, or on a cached thread pool otherwise.
+     */
+    static ExecutorService createExecutor()
+    {
+        try
+        {
+            Method method =
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+            return (ExecutorService)method.invoke(null);
+        }
+        catch (Exception e)
+        {
+            // Virtual threads aren't available.
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+
+    /**
+     * Returns the mapping file for the given key in the given directory.
+     * @throws IOException if the key isn't a plain file name or if the
+     *                     file doesn't exist.
+     */
+    private static File mappingFile(File   mappingDirectory,
+                                    String mappingKey) throws IOException
+    {
+        // Don't let the key escape from the directory.
+        if (mappingKey.isEmpty()          ||
+            mappingKey.startsWith(".")    ||
+            mappingKey.indexOf('/')  >= 0 ||
+            mappingKey.indexOf('\\') >= 0)
+        {
+            throw new FileNotFoundException("Invalid mapping key ["+mappingKey+"]");
+        }
+
+        File mappingFile = new File(mappingDirectory, mappingKey + MAPPING_EXTENSION);
+        if (!mappingFile.isFile())
+        {
+            throw new FileNotFoundException("Unknown mapping key ["+mappingKey+"]");
+        }
+
+        return mappingFile;
+    }
+
+
+    /**
+     * Returns the value of the given parameter in the given URI query, or
+     * null if it isn't present.
+     */
+    private static String parameter(URI uri, String name)
+    {
+        String query = uri.getRawQuery();
+        if (query != null)
+        {
+            for (String parameter : query.split("&"))
+            {
+                int separatorIndex = parameter.indexOf('=');
+                if (separatorIndex > 0 &&
+                    parameter.substring(0, separatorIndex).equals(name))
+                {
+                    try
+                    {
+                        return URLDecoder.decode(parameter.substring(separatorIndex + 1), "UTF-8");
+                    }
+                    catch (UnsupportedEncodingException | IllegalArgumentException e)
+                    {
+                        return null;
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Sends the given error message as the complete response.
+     */
+    private static void sendError(HttpExchange exchange,
+                                  int          statusCode,
+                                  String       message) throws IOException
+    {
+        byte[] bytes = (message + '\n').getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+
+    /**
+     * This HttpHandler retraces the posted stack traces.
+     */
+    private class MyRetraceHandler
+    implements    HttpHandler
+    {
+        // Implementations for HttpHandler.
+
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            boolean aborted = false;
+            try
+            {
+                if (!exchange.getRequestMethod().equals("POST"))
+                {
+                    exchange.getResponseHeaders().set("Allow", "POST");
+                    sendError(exchange, HTTP_BAD_METHOD, "Expecting POST");
+                    return;
+                }
+
+                String mappingKey = parameter(exchange.getRequestURI(), MAPPING_PARAMETER);
+                if (mappingKey == null)
+                {
+                    sendError(exchange, HTTP_BAD_REQUEST, "Missing parameter ["+MAPPING_PARAMETER+"]");
+                    return;
+                }
+
+                AbstractFrameRemapper frameRemapper;
+                try
+                {
+                    frameRemapper = registry.frameRemapper(mappingKey);
+                }
+                catch (FileNotFoundException e)
+                {
+                    sendError(exchange, HTTP_NOT_FOUND, e.getMessage());
+                    return;
+                }
+                catch (IOException e)
+                {
+                    sendError(exchange, HTTP_INTERNAL_ERROR, e.getMessage());
+                    return;
+                }
+
+                ReTraceSession session =
+                    new ReTraceSession(pattern1, pattern2, allClassNames, frameRemapper);
+
+                // Stream the de-obfuscated stack trace while reading the
+                // obfuscated stack trace.
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+                exchange.sendResponseHeaders(HTTP_OK, 0);
+
+                LineNumberReader reader =
+                    new LineNumberReader(
+                    new BufferedReader(
+                    new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)));
+
+                PrintWriter writer =
+                    new PrintWriter(
+                    new BufferedWriter(
+                    new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)));
+
+                try
+                {
+                    session.retrace(reader, writer);
+                }
+                catch (RuntimeException e)
+                {
+                    // We've already sent the status, so we can only drop
+                    // the connection without completing the response.
+                    System.err.println("Error: can't retrace with mapping ["+mappingKey+"] ("+e+")");
+
+                    aborted = true;
+
+                    throw new IOException("Can't retrace with mapping ["+mappingKey+"]", e);
+                }
+            }
+            finally
+            {
+                // Closing the exchange would complete the response, so
+                // an aborted response is left to the server, which closes
+                // the connection.
+                if (!aborted)
+                {
+                    exchange.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,534 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import proguard.obfuscate.MappedMappingReader;
+import proguard.obfuscate.MappingReader;
+import proguard.obfuscate.ParallelMappingReader;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class de-obfuscates stack traces against a mapping file that is read
+ * only once, with frame patterns that are compiled only once. A single
+ * session can then serve any number of retrace calls, also from different
+ * threads at the same time.
+ *
+ * @see ReTrace#createSession()
+ */
+public class ReTraceSession
+{
+    private final FramePattern          pattern1;
+    private final FramePattern          pattern2;
+    private final boolean               allClassNames;
+    private final AbstractFrameRemapper mapper;
+
+    // Whether lines can be retraced for both default patterns at once.
+    private final boolean               defaultPatterns;
+
+
+    /**
+     * Creates a new ReTraceSession with the default regular expressions,
+     * reading the given mapping file.
+     * @param mappingFile the mapping file that was written out by ProGuard.
+     */
+    public ReTraceSession(File mappingFile) throws IOException
+    {
+        this(ReTrace.REGULAR_EXPRESSION,
+             ReTrace.REGULAR_EXPRESSION2,
+             false,
+             false,
+             mappingFile);
+    }
+
+
+    /**
+     * Creates a new ReTraceSession, reading the given mapping file. The
+     * mapping file may also be a binary index, as written out by a
+     * {@link MappingIndexCompiler}.
+     * @param regularExpression  the regular expression for parsing the lines
+     *                           in the stack trace.
+     * @param regularExpression2 the secondary regular expression for parsing
+     *                           lines that may contain multiple frames.
+     * @param allClassNames      specifies whether all words that match class
+     *                           names should be de-obfuscated, even if they
+     *                           aren't matching the regular expression.
+     * @param verbose            specifies whether the de-obfuscated stack
+     *                           trace should be verbose.
+     * @param mappingFile        the mapping file that was written out by
+     *                           ProGuard.
+     */
+    public ReTraceSession(String  regularExpression,
+                          String  regularExpression2,
+                          boolean allClassNames,
+                          boolean verbose,
+                          File    mappingFile) throws IOException
+    {
+        this(new FramePattern(regularExpression,  verbose),
+             new FramePattern(regularExpression2, verbose),
+             allClassNames,
+             readMapping(mappingFile));
+    }
+
+
+    /**
+     * Creates a new ReTraceSession, reading the given mapping file on the
+     * threads of the given pool. The mapping file may also be a binary
+     * index, which is mapped into memory as usual.
+     * @param regularExpression  the regular expression for parsing the lines
+     *                           in the stack trace.
+     * @param regularExpression2 the secondary regular expression for parsing
+     *                           lines that may contain multiple frames.
+     * @param allClassNames      specifies whether all words that match class
+     *                           names should be de-obfuscated, even if they
+     *                           aren't matching the regular expression.
+     * @param verbose            specifies whether the de-obfuscated stack
+     *                           trace should be verbose.
+     * @param mappingFile        the mapping file that was written out by
+     *                           ProGuard.
+     * @param pool               the pool on which parts of the mapping file
+     *                           are parsed.
+     */
+    public ReTraceSession(String       regularExpression,
+                          String       regularExpression2,
+                          boolean      allClassNames,
+                          boolean      verbose,
+                          File         mappingFile,
+                          ForkJoinPool pool) throws IOException
+    {
+        this(new FramePattern(regularExpression,  verbose),
+             new FramePattern(regularExpression2, verbose),
+             allClassNames,
+             readMapping(mappingFile, pool));
+    }
+
+
+    /**
+     * Creates a new ReTraceSession, reading the mapping from the given
+     * reader, for instance from memory or from a compressed stream.
+     * @param regularExpression  the regular expression for parsing the lines
+     *                           in the stack trace.
+     * @param regularExpression2 the secondary regular expression for parsing
+     *                           lines that may contain multiple frames.
+     * @param allClassNames      specifies whether all words that match class
+     *                           names should be de-obfuscated, even if they
+     *                           aren't matching the regular expression.
+     * @param verbose            specifies whether the de-obfuscated stack
+     *                           trace should be verbose.
+     * @param mappingReader      the reader for the mapping that was written
+     *                           out by ProGuard.
+     */
+    public ReTraceSession(String        regularExpression,
+                          String        regularExpression2,
+                          boolean       allClassNames,
+                          boolean       verbose,
+                          MappingReader mappingReader) throws IOException
+    {
+        this(new FramePattern(regularExpression,  verbose),
+             new FramePattern(regularExpression2, verbose),
+             allClassNames,
+             readMapping(mappingReader));
+    }
+
+
+    /**
+     * Creates a new ReTraceSession with the given patterns and the given
+     * fully filled out remapper. The remapper must not be changed anymore
+     * once the session has been created. Sessions that are shared between
+     * threads should use an immutable remapper, such as the result of
+     * {@link FrameRemapper#freeze()}.
+     */
+    public ReTraceSession(FramePattern          pattern1,
+                          FramePattern          pattern2,
+                          boolean               allClassNames,
+                          AbstractFrameRemapper mapper)
+    {
+        this.pattern1      = pattern1;
+        this.pattern2      = pattern2;
+        this.allClassNames = allClassNames;
+        this.mapper        = mapper;
+
+        this.defaultPatterns =
+            !allClassNames &&
+            pattern1.getRegularExpression().equals(ReTrace.REGULAR_EXPRESSION) &&
+            pattern2.getRegularExpression().equals(ReTrace.REGULAR_EXPRESSION2);
+    }
+
+
+    /**
+     * De-obfuscates a given stack trace. This method can be invoked
+     * concurrently from multiple threads.
+     * @param stackTraceReader a reader for the obfuscated stack trace.
+     * @param stackTraceWriter a writer for the de-obfuscated stack trace.
+     */
+    public void retrace(LineNumberReader stackTraceReader,
+                        PrintWriter      stackTraceWriter) throws IOException
+    {
+        // Read and process the lines of the stack trace.
+        while (true)
+        {
+            // Read a line.
+            String obfuscatedLine = stackTraceReader.readLine();
+            if (obfuscatedLine == null)
+            {
+                break;
+            }
+
+            stackTraceWriter.println(retraceLine(obfuscatedLine));
+        }
+
+        stackTraceWriter.flush();
+    }
+
+
+    /**
+     * De-obfuscates a single line of a stack trace. The result may contain
+     * multiple lines, separated by line separators, if the line is ambiguous.
+     */
+    public String retraceLine(String obfuscatedLine)
+    {
+        // Try to retrace a helpful NullPointerException message with two
+        // invocations in a single pass.
+        if (defaultPatterns)
+        {
+            String retracedLine = retraceReturnValueNull(obfuscatedLine);
+            if (retracedLine != null)
+            {
+                return retracedLine;
+            }
+        }
+
+        // Try to match it against the regular expression.
+        FrameInfo obfuscatedFrame1 = pattern1.parse(obfuscatedLine);
+        FrameInfo obfuscatedFrame2 = pattern2.parse(obfuscatedLine);
+
+        String deobf = handle(obfuscatedFrame1, pattern1, obfuscatedLine);
+        // DIRTY FIX:
+        // I have to execute it two times because recent Java stacktraces may have multiple fields/methods in the same line.
+        // For example: java.lang.NullPointerException: Cannot invoke "com.example.Foo.bar.foo(int)" because the return value of "com.example.Foo.bar.foo2()" is null
+        return handle(obfuscatedFrame2, pattern2, deobf);
+    }
+
+
+    /**
+     * Retraces both invocations of a helpful NullPointerException message,
+     * like 'Cannot invoke "a.b()" because the return value of "c.d()" is
+     * null', in a single scan, without any regular expressions. If both
+     * invocations are unambiguous, it also formats the result in a single
+     * pass. The result is the same as matching and formatting the line with
+     * both patterns, one after the other.
+     * @return the retraced line, or null if the line doesn't have the
+     *         expected shape.
+     */
+    private String retraceReturnValueNull(String obfuscatedLine)
+    {
+        if (obfuscatedLine.indexOf("Cannot invoke") < 0)
+        {
+            return null;
+        }
+
+        int[] startIndices1 = new int[DefaultFrameScanner.GROUP_COUNT];
+        int[] endIndices1   = new int[DefaultFrameScanner.GROUP_COUNT];
+        int[] startIndices2 = new int[DefaultFrameScanner.GROUP_COUNT2];
+        int[] endIndices2   = new int[DefaultFrameScanner.GROUP_COUNT2];
+
+        int separatorIndex =
+            DefaultFrameScanner.scanReturnValueNull(obfuscatedLine,
+                                                    startIndices1,
+                                                    endIndices1,
+                                                    startIndices2,
+                                                    endIndices2);
+        if (separatorIndex < 0)
+        {
+            return null;
+        }
+
+        FrameInfo obfuscatedFrame1 = pattern1.parse(obfuscatedLine, startIndices1, endIndices1);
+        FrameInfo obfuscatedFrame2 = pattern2.parse(obfuscatedLine, startIndices2, endIndices2);
+
+        List<FrameInfo> retracedFrames1 = mapper.transform(obfuscatedFrame1);
+        List<FrameInfo> retracedFrames2 = mapper.transform(obfuscatedFrame2);
+
+        if (retracedFrames1 != null && retracedFrames1.size() == 1 &&
+            retracedFrames2 != null && retracedFrames2.size() == 1)
+        {
+            // The groups of the second pattern come first in the line.
+            StringBuilder retracedLine = new StringBuilder(obfuscatedLine.length() + 64);
+
+            pattern2.format(retracedLine,
+                            obfuscatedLine,
+                            0,
+                            separatorIndex,
+                            startIndices2,
+                            endIndices2,
+                            retracedFrames2.get(0));
+
+            pattern1.format(retracedLine,
+                            obfuscatedLine,
+                            separatorIndex,
+                            obfuscatedLine.length(),
+                            startIndices1,
+                            endIndices1,
+                            retracedFrames1.get(0));
+
+            String result = retracedLine.toString();
+
+            // The patterns wouldn't match retraced names with line
+            // terminators the same way.
+            if (!DefaultFrameScanner.containsLineTerminator(result))
+            {
+                return result;
+            }
+        }
+
+        // Otherwise handle the frames one after the other, but still
+        // without matching the line again.
+        pattern1.remember(obfuscatedLine, startIndices1, endIndices1);
+
+        String deobf = handle(obfuscatedFrame1, retracedFrames1, pattern1, obfuscatedLine);
+
+        // The groups of the second pattern are still at the same offsets if
+        // the first part of the line is unchanged and if the second part
+        // still has the expected shape.
+        if (deobf.regionMatches(0, obfuscatedLine, 0, separatorIndex)           &&
+            deobf.startsWith(DefaultFrameScanner.RETURN_VALUE_OF, separatorIndex) &&
+            deobf.endsWith(DefaultFrameScanner.IS_NULL)                           &&
+            !DefaultFrameScanner.containsLineTerminator(deobf))
+        {
+            pattern2.remember(deobf, startIndices2, endIndices2);
+        }
+
+        return handle(obfuscatedFrame2, retracedFrames2, pattern2, deobf);
+    }
+
+
+    private String handle(FrameInfo obfuscatedFrame, FramePattern pattern, String obfuscatedLine)
+    {
+        return handle(obfuscatedFrame,
+                      obfuscatedFrame == null ? null : mapper.transform(obfuscatedFrame),
+                      pattern,
+                      obfuscatedLine);
+    }
+
+
+    private String handle(FrameInfo       obfuscatedFrame,
+                          List<FrameInfo> retracedFrameList,
+                          FramePattern    pattern,
+                          String          obfuscatedLine)
+    {
+        StringBuilder result = new StringBuilder();
+        if (obfuscatedFrame != null)
+        {
+            // Transform the obfuscated frame back to one or more
+            // original frames.
+            Iterator<FrameInfo> retracedFrames =
+                    retracedFrameList.iterator();
+
+            String previousLine = null;
+
+            while (retracedFrames.hasNext())
+            {
+                // Retrieve the next retraced frame.
+                FrameInfo retracedFrame = retracedFrames.next();
+
+                // Format the retraced line.
+                String retracedLine =
+                        pattern.format(obfuscatedLine, retracedFrame);
+
+                // Clear the common first part of ambiguous alternative
+                // retraced lines, to present a cleaner list of
+                // alternatives.
+                String trimmedLine =
+                        previousLine != null &&
+                                obfuscatedFrame.getLineNumber() == 0 ?
+                                trim(retracedLine, previousLine) :
+                                retracedLine;
+
+                // Print out the retraced line.
+                if (trimmedLine != null)
+                {
+                    if (allClassNames)
+                    {
+                        trimmedLine = deobfuscateTokens(trimmedLine);
+                    }
+
+                    result.append(trimmedLine);
+                    if (retracedFrames.hasNext()) {
+                        result.append(System.lineSeparator());
+                    }
+                }
+
+                previousLine = retracedLine;
+            }
+        }
+        else
+        {
+            if (allClassNames)
+            {
+                obfuscatedLine = deobfuscateTokens(obfuscatedLine);
+            }
+
+            // Print out the original line.
+            result.append(obfuscatedLine);
+        }
+        return result.toString();
+    }
+
+
+    /**
+     * Attempts to deobfuscate each token of the line to a corresponding
+     * original classname if possible.
+     */
+    private String deobfuscateTokens(String line)
+    {
+        StringBuilder sb = new StringBuilder();
+
+        // Try to deobfuscate any token encountered in the line.
+        StringTokenizer st = new StringTokenizer(line, "[]{}()/\\:;, '\"<>", true);
+        while (st.hasMoreTokens())
+        {
+            sb.append(mapper.originalClassName(st.nextToken()));
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * Returns the first given string, with any leading characters that it has
+     * in common with the second string replaced by spaces.
+     */
+    private String trim(String string1, String string2)
+    {
+        StringBuilder line = new StringBuilder(string1);
+
+        // Find the common part.
+        int trimEnd = firstNonCommonIndex(string1, string2);
+        if (trimEnd == string1.length())
+        {
+            return null;
+        }
+
+        // Don't clear the last identifier characters.
+        trimEnd = lastNonIdentifierIndex(string1, trimEnd) + 1;
+
+        // Clear the common characters.
+        for (int index = 0; index < trimEnd; index++)
+        {
+            if (!Character.isWhitespace(string1.charAt(index)))
+            {
+                line.setCharAt(index, ' ');
+            }
+        }
+
+        return line.toString();
+    }
+
+
+    /**
+     * Returns the index of the first character that is not the same in both
+     * given strings.
+     */
+    private int firstNonCommonIndex(String string1, String string2)
+    {
+        int index = 0;
+        while (index < string1.length() &&
+               index < string2.length() &&
+               string1.charAt(index) == string2.charAt(index))
+        {
+            index++;
+        }
+
+        return index;
+    }
+
+
+    /**
+     * Returns the index of the last character that is not an identifier
+     * character in the given string, at or before the given index.
+     */
+    private int lastNonIdentifierIndex(String line, int index)
+    {
+        while (index >= 0 &&
+               Character.isJavaIdentifierPart(line.charAt(index)))
+        {
+            index--;
+        }
+
+        return index;
+    }
+
+
+    /**
+     * Reads the given mapping file into a new remapper, or maps it into
+     * memory if it is a binary mapping index.
+     */
+    private static AbstractFrameRemapper readMapping(File mappingFile) throws IOException
+    {
+        if (MappedFrameRemapper.isMappingIndex(mappingFile))
+        {
+            return new MappedFrameRemapper(mappingFile);
+        }
+
+        FrameRemapper mapper = new FrameRemapper();
+
+        MappedMappingReader mappingReader = new MappedMappingReader(mappingFile);
+        mappingReader.pump(mapper);
+
+        return mapper.freeze();
+    }
+
+
+    /**
+     * Reads the given mapping file into a new remapper on the given pool, or
+     * maps it into memory if it is a binary mapping index.
+     */
+    private static AbstractFrameRemapper readMapping(File         mappingFile,
+                                                     ForkJoinPool pool) throws IOException
+    {
+        if (MappedFrameRemapper.isMappingIndex(mappingFile))
+        {
+            return new MappedFrameRemapper(mappingFile);
+        }
+
+        FrameRemapper mapper = new FrameRemapper();
+
+        ParallelMappingReader mappingReader = new ParallelMappingReader(mappingFile, pool);
+        mappingReader.pump(mapper);
+
+        return mapper.freeze();
+    }
+
+
+    /**
+     * Reads the mapping from the given reader into a new remapper.
+     */
+    private static AbstractFrameRemapper readMapping(MappingReader mappingReader) throws IOException
+    {
+        FrameRemapper mapper = new FrameRemapper();
+
+        mappingReader.pump(mapper);
+
+        return mapper.freeze();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.util.*;
+
+/**
+ * This class de-obfuscates StackTraceElement instances and the stack traces
+ * of Throwable instances directly with a frame remapper, without printing
+ * them as text and matching them with regular expressions.
+ * <p>
+ * An element may correspond to several original elements, if the mapping
+ * is ambiguous, or if the element is part of inlined code. The resulting
+ * stack traces then contain all of them, in the same order as a retraced
+ * text stack trace.
+ * <p>
+ * Instances can be shared between threads, if their remapper can.
+ */
+public class StackTraceElementRemapper
+{
+    private static final String UNKNOWN_SOURCE = "Unknown Source";
+
+
+    private final AbstractFrameRemapper mapper;
+
+
+    /**
+     * Creates a new StackTraceElementRemapper.
+     * @param mapper the remapper with the mapping information.
+     */
+    public StackTraceElementRemapper(AbstractFrameRemapper mapper)
+    {
+        this.mapper = mapper;
+    }
+
+
+    /**
+     * Returns the original frames of the given obfuscated element.
+     */
+    public List<FrameInfo> transform(StackTraceElement obfuscatedElement)
+    {
+        String sourceFile = obfuscatedElement.getFileName();
+        int    lineNumber = obfuscatedElement.getLineNumber();
+
+        return mapper.transform(new FrameInfo(obfuscatedElement.getClassName(),
+                                              sourceFile == null ? UNKNOWN_SOURCE : sourceFile,
+                                              Math.max(lineNumber, 0),
+                                              null,
+                                              null,
+                                              obfuscatedElement.getMethodName(),
+                                              null));
+    }
+
+
+    /**
+     * Returns the original elements of the given obfuscated elements.
+     */
+    public StackTraceElement[] retrace(StackTraceElement[] obfuscatedElements)
+    {
+        List<StackTraceElement> originalElements =
+            new ArrayList<StackTraceElement>(obfuscatedElements.length);
+
+        for (int index = 0; index < obfuscatedElements.length; index++)
+        {
+            StackTraceElement obfuscatedElement = obfuscatedElements[index];
+
+            List<FrameInfo> originalFrames = transform(obfuscatedElement);
+            if (originalFrames == null)
+            {
+                originalElements.add(obfuscatedElement);
+            }
+            else
+            {
+                for (int frameIndex = 0; frameIndex < originalFrames.size(); frameIndex++)
+                {
+                    originalElements.add(stackTraceElement(obfuscatedElement,
+                                                           originalFrames.get(frameIndex)));
+                }
+            }
+        }
+
+        return originalElements.toArray(new StackTraceElement[originalElements.size()]);
+    }
+
+
+    /**
+     * Replaces the stack traces of the given throwable, of its causes, and
+     * of its suppressed throwables by their original stack traces. The
+     * class names of the throwables themselves remain obfuscated, since
+     * they are part of their classes; {@link
+     * AbstractFrameRemapper#originalClassName(String)} can de-obfuscate
+     * them.
+     */
+    public void retrace(Throwable throwable)
+    {
+        retrace(throwable, Collections.newSetFromMap(new IdentityHashMap<Throwable,Boolean>()));
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Replaces the stack traces of the given throwable and of its related
+     * throwables, skipping the ones in the given set of visited throwables.
+     */
+    private void retrace(Throwable throwable, Set<Throwable> visitedThrowables)
+    {
+        // Throwables may refer to each other in cycles.
+        while (throwable != null &&
+               visitedThrowables.add(throwable))
+        {
+            throwable.setStackTrace(retrace(throwable.getStackTrace()));
+
+            Throwable[] suppressedThrowables = throwable.getSuppressed();
+            for (int index = 0; index < suppressedThrowables.length; index++)
+            {
+                retrace(suppressedThrowables[index], visitedThrowables);
+            }
+
+            throwable = throwable.getCause();
+        }
+    }
+
+
+    /**
+     * Returns a StackTraceElement for the given original frame, with the
+     * remaining properties of the given obfuscated element.
+     */
+    private static StackTraceElement stackTraceElement(StackTraceElement obfuscatedElement,
+                                                       FrameInfo         originalFrame)
+    {
+        String sourceFile = originalFrame.getSourceFile();
+        int    lineNumber = originalFrame.getLineNumber();
+
+        return new StackTraceElement(obfuscatedElement.getClassLoaderName(),
+                                     obfuscatedElement.getModuleName(),
+                                     obfuscatedElement.getModuleVersion(),
+                                     originalFrame.getClassName(),
+                                     originalFrame.getMethodName(),
+                                     obfuscatedElement.getFileName() == null &&
+                                     UNKNOWN_SOURCE.equals(sourceFile) ? null : sourceFile,
+                                     // Preserve unknown line numbers and
+                                     // native methods.
+                                     lineNumber > 0 ? lineNumber :
+                                     obfuscatedElement.getLineNumber() < 0 ? obfuscatedElement.getLineNumber() :
+                                                                             -1);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.util.*;
+
+/**
+ * This class interns strings and assigns them consecutive indices, so that
+ * compact tables can refer to them with plain ints.
+ */
+class StringPool
+{
+    private final Map<String,Integer> indices;
+
+    private String[] strings;
+    private int      size;
+
+
+    /**
+     * Creates a new, empty StringPool.
+     */
+    StringPool()
+    {
+        indices = new HashMap<String,Integer>();
+        strings = new String[16];
+    }
+
+
+    /**
+     * Returns the index of the given string, adding it to the pool if it
+     * isn't present yet. The null string has index -1.
+     */
+    int index(String string)
+    {
+        if (string == null)
+        {
+            return -1;
+        }
+
+        Integer index = indices.get(string);
+        if (index == null)
+        {
+            if (size == strings.length)
+            {
+                strings = Arrays.copyOf(strings, size * 2);
+            }
+
+            index = Integer.valueOf(size);
+            strings[size++] = string;
+            indices.put(string, index);
+        }
+
+        return index.intValue();
+    }
+
+
+    /**
+     * Returns the index of the given string, or -2 if it isn't present in
+     * the pool. The null string has index -1.
+     */
+    int find(String string)
+    {
+        if (string == null)
+        {
+            return -1;
+        }
+
+        Integer index = indices.get(string);
+
+        return index == null ? -2 : index.intValue();
+    }
+
+
+    /**
+     * Returns the string with the given index.
+     */
+    String string(int index)
+    {
+        return index < 0 ? null : strings[index];
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.*;
+
+/**
+ * This class de-obfuscates stack traces, reusing the results for stack
+ * traces that it has already seen. It splits the input into blocks, each
+ * with an exception header followed by its frames, "Caused by" sections,
+ * and so on. It identifies each block by a fingerprint of its lines and of
+ * a key for the mapping file and settings. If the store already contains
+ * the fingerprint, it writes out the stored result, without matching or
+ * transforming any frames. Lines outside such blocks are always retraced.
+ * <p>
+ * Instances can be shared between threads, if their store can.
+ *
+ * @see TraceStore
+ */
+public class TraceCache
+{
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+
+    private final TraceStore traceStore;
+    private final String     settingsKey;
+
+
+    /**
+     * Creates a new TraceCache.
+     * @param traceStore  the store for the retraced stack traces.
+     * @param settingsKey a key that identifies the mapping file and the
+     *                    ReTrace settings, since they all affect the
+     *                    retraced stack traces.
+     */
+    public TraceCache(TraceStore traceStore,
+                      String     settingsKey)
+    {
+        this.traceStore  = traceStore;
+        this.settingsKey = settingsKey;
+    }
+
+
+    /**
+     * De-obfuscates the given stack traces with the given session, where
+     * they aren't present in the store yet.
+     * @param session          the session for retracing any new stack
+     *                         traces.
+     * @param stackTraceReader a reader for the obfuscated stack traces.
+     * @param stackTraceWriter a writer for the de-obfuscated stack traces.
+     */
+    public void retrace(ReTraceSession   session,
+                        LineNumberReader stackTraceReader,
+                        PrintWriter      stackTraceWriter) throws IOException
+    {
+        retrace(null, session, stackTraceReader, stackTraceWriter);
+    }
+
+
+    /**
+     * De-obfuscates the given stack traces with the given ReTrace instance,
+     * where they aren't present in the store yet. It only creates a session,
+     * reading the mapping file, if it needs to retrace any lines.
+     * @param reTrace          the ReTrace instance for retracing any new
+     *                         stack traces.
+     * @param stackTraceReader a reader for the obfuscated stack traces.
+     * @param stackTraceWriter a writer for the de-obfuscated stack traces.
+     */
+    public void retrace(ReTrace          reTrace,
+                        LineNumberReader stackTraceReader,
+                        PrintWriter      stackTraceWriter) throws IOException
+    {
+        retrace(reTrace, null, stackTraceReader, stackTraceWriter);
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * De-obfuscates the given stack traces with the given session or, if
+     * it is null, with a session from the given ReTrace instance.
+     */
+    private void retrace(ReTrace          reTrace,
+                         ReTraceSession   session,
+                         LineNumberReader stackTraceReader,
+                         PrintWriter      stackTraceWriter) throws IOException
+    {
+        List<String> block = new ArrayList<String>();
+
+        while (true)
+        {
+            String obfuscatedLine = stackTraceReader.readLine();
+
+            // Is the current block complete?
+            if (!block.isEmpty() &&
+                (obfuscatedLine == null ||
+                 !continuesBlock(obfuscatedLine)))
+            {
+                // Only cache actual stack traces, not any other lines.
+                String fingerprint = block.size() > 1 ?
+                    fingerprint(block) :
+                    null;
+
+                String retracedBlock = fingerprint != null ?
+                    traceStore.get(fingerprint) :
+                    null;
+
+                if (retracedBlock == null)
+                {
+                    if (session == null)
+                    {
+                        session = reTrace.createSession();
+                    }
+
+                    retracedBlock = retrace(session, block);
+
+                    if (fingerprint != null)
+                    {
+                        traceStore.put(fingerprint, retracedBlock);
+                    }
+                }
+
+                stackTraceWriter.print(retracedBlock);
+
+                block.clear();
+            }
+
+            if (obfuscatedLine == null)
+            {
+                break;
+            }
+
+            block.add(obfuscatedLine);
+        }
+
+        stackTraceWriter.flush();
+    }
+
+
+    /**
+     * Returns whether the given line continues a stack trace, rather than
+     * starting a new one.
+     */
+    private static boolean continuesBlock(String line)
+    {
+        int index = 0;
+        while (index < line.length() &&
+               Character.isWhitespace(line.charAt(index)))
+        {
+            index++;
+        }
+
+        return line.startsWith("at ",          index) ||
+               line.startsWith("Caused by:",   index) ||
+               line.startsWith("Suppressed:",  index) ||
+               line.startsWith("... ",         index);
+    }
+
+
+    /**
+     * Retraces the given lines with the given session, returning the
+     * result as the session would print it.
+     */
+    private static String retrace(ReTraceSession session,
+                                  List<String>   lines)
+    {
+        StringWriter stringWriter = new StringWriter();
+        PrintWriter  printWriter  = new PrintWriter(stringWriter);
+
+        for (int index = 0; index < lines.size(); index++)
+        {
+            printWriter.println(session.retraceLine(lines.get(index)));
+        }
+
+        printWriter.flush();
+
+        return stringWriter.toString();
+    }
+
+
+    /**
+     * Returns a fingerprint for the given lines with the settings key.
+     * The line terminators of the original input don't matter.
+     */
+    private String fingerprint(List<String> lines)
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // Every Java platform must support the algorithm.
+            throw new IllegalStateException(e);
+        }
+
+        digest.update(settingsKey.getBytes(StandardCharsets.UTF_8));
+        for (int index = 0; index < lines.size(); index++)
+        {
+            digest.update((byte)'\n');
+            digest.update(lines.get(index).getBytes(StandardCharsets.UTF_8));
+        }
+
+        byte[] hash = digest.digest();
+
+        char[] fingerprint = new char[hash.length * 2];
+        for (int index = 0; index < hash.length; index++)
+        {
+            fingerprint[index * 2    ] = HEX_DIGITS[(hash[index] >> 4) & 0xf];
+            fingerprint[index * 2 + 1] = HEX_DIGITS[ hash[index]       & 0xf];
+        }
+
+        return new String(fingerprint);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.io.*;
+
+/**
+ * This interface specifies how to store retraced stack traces by their
+ * fingerprints, so they don't need to be retraced again.
+ *
+ * @see TraceCache
+ * @see MemoryTraceStore
+ * @see DirectoryTraceStore
+ */
+public interface TraceStore
+{
+    /**
+     * Returns the retraced stack trace with the given fingerprint, or null
+     * if it isn't present.
+     */
+    public String get(String fingerprint) throws IOException;
+
+
+    /**
+     * Stores the given retraced stack trace with the given fingerprint,
+     * possibly discarding other ones.
+     */
+    public void put(String fingerprint, String retracedTrace) throws IOException;
+}
@@ -0,0 +1,213 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2020 Guardsquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Path;
+
+/**
+ * This utility class opens Unix domain socket channels. Such channels are
+ * only available on Java 16 or higher, so it accesses them through
+ * reflection, to keep running on older versions otherwise.
+ */
+final class UnixDomainSockets
+{
+    /**
+     * Opens a server socket channel that is bound to the given socket file.
+     */
+    public static ServerSocketChannel openServerSocketChannel(File socketFile) throws IOException
+    {
+        ServerSocketChannel channel =
+            (ServerSocketChannel)invoke(ServerSocketChannel.class, "open",
+                                        ProtocolFamily.class, unixProtocolFamily());
+
+        try
+        {
+            channel.bind(socketAddress(socketFile));
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+
+        return channel;
+    }
+
+
+    /**
+     * Opens a socket channel that is connected to the given socket file.
+     */
+    public static SocketChannel openSocketChannel(File socketFile) throws IOException
+    {
+        SocketChannel channel =
+            (SocketChannel)invoke(SocketChannel.class, "open",
+                                  ProtocolFamily.class, unixProtocolFamily());
+
+        try
+        {
+            channel.connect(socketAddress(socketFile));
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+
+        return channel;
+    }
+
+
+    /**
+     * Returns an input stream that reads from the given channel. Unlike
+     * Channels#newInputStream, it doesn't block writes to the channel from
+     * other threads while it is waiting for input.
+     */
+    public static InputStream inputStream(final SocketChannel channel)
+    {
+        return new InputStream()
+        {
+            public int read() throws IOException
+            {
+                byte[] bytes = new byte[1];
+
+                return read(bytes, 0, 1) < 0 ? -1 : bytes[0] & 0xff;
+            }
+
+
+            public int read(byte[] bytes, int offset, int length) throws IOException
+            {
+                return length == 0 ? 0 :
+                    channel.read(ByteBuffer.wrap(bytes, offset, length));
+            }
+        };
+    }
+
+
+    /**
+     * Returns an output stream that writes to the given channel. Unlike
+     * Channels#newOutputStream, it doesn't block reads from the channel
+     * in other threads.
+     */
+    public static OutputStream outputStream(final SocketChannel channel)
+    {
+        return new OutputStream()
+        {
+            public void write(int b) throws IOException
+            {
+                write(new byte[] { (byte)b }, 0, 1);
+            }
+
+
+            public void write(byte[] bytes, int offset, int length) throws IOException
+            {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+                while (buffer.hasRemaining())
+                {
+                    channel.write(buffer);
+                }
+            }
+        };
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns the protocol family of Unix domain sockets.
+     */
+    private static ProtocolFamily unixProtocolFamily() throws IOException
+    {
+        try
+        {
+            return StandardProtocolFamily.valueOf("UNIX");
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw unsupported(e);
+        }
+    }
+
+
+    /**
+     * Returns the Unix domain socket address of the given socket file.
+     */
+    private static SocketAddress socketAddress(File socketFile) throws IOException
+    {
+        try
+        {
+            return (SocketAddress)invoke(Class.forName("java.net.UnixDomainSocketAddress"), "of",
+                                         Path.class, socketFile.toPath());
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw unsupported(e);
+        }
+    }
+
+
+    /**
+     * Invokes the given static method with a single parameter of the given
+     * type.
+     */
+    private static Object invoke(Class<?> clazz,
+                                 String   methodName,
+                                 Class<?> parameterType,
+                                 Object   argument) throws IOException
+    {
+        try
+        {
+            return clazz.getMethod(methodName, parameterType).invoke(null, argument);
+        }
+        catch (InvocationTargetException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+
+            throw new IOException(cause);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw unsupported(e);
+        }
+    }
+
+
+    /**
+     * Returns an exception that reports that Unix domain sockets aren't
+     * supported.
+     */
+    private static IOException unsupported(Exception cause)
+    {
+        return new IOException("Unix domain sockets require Java 16 or higher", cause);
+    }
+}